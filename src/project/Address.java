@@ -15,6 +15,22 @@ public class Address {
         this.postalCode = postalCode;
     }
 
+    public String getAddress() {
+        return address;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+
+    public String getPostalCode() {
+        return postalCode;
+    }
+
     @Override
     public String toString() {
         return address + ", " + city + ", " + country + " " + postalCode;
@@ -12,4 +12,8 @@ public class Amenity {
     public String getDescription() {
         return description;
     }
+
+    public String getCategory() {
+        return category;
+    }
 }
@@ -0,0 +1,58 @@
+package project;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/* In-memory index of which listings offer which amenities. Every amenity description keeps a bitset of the LIDs
+ * offering it, so "offers all of these amenities" is a bitwise AND instead of a GROUP BY over Offers. */
+public class AmenityIndex {
+
+    private final Map<String, BitSet> listingsOf = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded = false;
+
+    public void add(int lid, String description) {
+        lock.writeLock().lock();
+        try {
+            listingsOf.computeIfAbsent(description, k -> new BitSet()).set(lid);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void setLoaded(boolean loaded) {
+        this.loaded = loaded;
+    }
+
+    /* True once the index has been filled from the database, so searches can rely on it. */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /* Returns the ids of the listings offering every one of the given amenities as a bitset indexed by LID.
+     * An empty list of amenities matches no listings. */
+    public BitSet listingsOfferingAll(Collection<String> descriptions) {
+        lock.readLock().lock();
+        try {
+            BitSet result = null;
+            for (String description : descriptions) {
+                BitSet listings = listingsOf.get(description);
+                if (listings == null) {
+                    return new BitSet();
+                }
+                if (result == null) {
+                    result = (BitSet) listings.clone();
+                } else {
+                    result.and(listings);
+                }
+                if (result.isEmpty()) {
+                    break;
+                }
+            }
+            return result == null ? new BitSet() : result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,633 @@
+package project;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/* Serves MyBnBService as JSON over HTTP, so MyBnB can be driven by many clients at once, load tested and run
+ * behind a load balancer. Parameters come from the query string or a form encoded body; the session is passed in
+ * the X-Session header, or a session parameter, after logging in.
+ *
+ *   GET    /health                               counters and pool state
+ *   POST   /sessions                             role, email, password; returns the session
+ *   DELETE /sessions                             logs out
+ *   GET    /listings                             search, see search() for the parameters
+ *   GET    /listings/{lid}/availability          start, end
+ *   POST   /listings/{lid}/availability          start, end, price; host only
+ *   GET    /bookings                             status (UPCOMING by default)
+ *   POST   /bookings                             lid, start, end; renter only
+ *   DELETE /bookings/{bid}                       cancels an upcoming booking
+ *   GET    /reports/{name}                       bookings, listings, hosts, dominant-hosts, renters, cancellations
+ *
+ * At most maxInFlight requests are queued or running at once and each runs on one of a fixed number of worker
+ * threads; a request over the limit is answered at once with 503 and Retry-After rather than queued. A request
+ * that waited longer than the request timeout for a worker is answered with 503 without running, and every
+ * statement it runs is cancelled by the driver once it has run for the timeout, which is answered with 504. */
+public class ApiServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 10 * 1000;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+    public static final int MAX_PAGE_SIZE = 100;
+    // seconds a client may take to send its request, or to read the response, before it is dropped
+    private static final String CLIENT_TIMEOUT_SECONDS = "30";
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final long SESSION_SWEEP_MILLIS = 60 * 1000;
+    // requests waiting to be turned away; past this the server's dispatcher thread answers them itself, accepting
+    // no new connections until it is done
+    private static final int OVERFLOW_QUEUE_SIZE = 1024;
+
+    private final MyBnBService service;
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final ThreadPoolExecutor overflow;
+    private final ScheduledExecutorService housekeeper;
+    private final Semaphore admission;
+    private final int threads;
+    private final int maxInFlight;
+    private final long requestTimeoutNanos;
+    // when the request running on this worker was admitted, unset on the overflow thread
+    private final ThreadLocal<Long> admittedAt = new ThreadLocal<>();
+
+    // metrics
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    public ApiServer(MyBnBService service, int port) throws IOException {
+        this(service, new InetSocketAddress(port), service.getDao().getPool().getMaxSize(), DEFAULT_MAX_IN_FLIGHT,
+                DEFAULT_REQUEST_TIMEOUT_MILLIS);
+    }
+
+    /* The statement timeout of the DAO's pool is set to the request timeout, for every user of the pool. */
+    public ApiServer(MyBnBService service, InetSocketAddress address, int threads, int maxInFlight,
+                     long requestTimeoutMillis) throws IOException {
+        if (threads <= 0 || maxInFlight < threads || requestTimeoutMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.service = service;
+        this.threads = threads;
+        this.maxInFlight = maxInFlight;
+        this.requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis);
+        this.admission = new Semaphore(maxInFlight);
+        service.getDao().getPool().setQueryTimeoutSeconds((int) Math.max(1, (requestTimeoutMillis + 999) / 1000));
+
+        workers = Executors.newFixedThreadPool(threads, daemon("api-worker"));
+        overflow = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(OVERFLOW_QUEUE_SIZE), daemon("api-overflow"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        housekeeper = Executors.newSingleThreadScheduledExecutor(daemon("api-sessions"));
+
+        server = HttpServer.create(address, 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(this::admit);
+    }
+
+    /* Usage: ApiServer [port] [worker threads] [max requests in flight] */
+    public static void main(String[] args) {
+        // read once by the JDK's server, so they must be set before it is created
+        System.setProperty("sun.net.httpserver.maxReqTime",
+                System.getProperty("sun.net.httpserver.maxReqTime", CLIENT_TIMEOUT_SECONDS));
+        System.setProperty("sun.net.httpserver.maxRspTime",
+                System.getProperty("sun.net.httpserver.maxRspTime", CLIENT_TIMEOUT_SECONDS));
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        try {
+            DAO dao = new DAO(Driver.dbName, Driver.user, Driver.password);
+            dao.loadIndexes();
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : dao.getPool().getMaxSize();
+            int maxInFlight = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_IN_FLIGHT;
+            ApiServer server = new ApiServer(new MyBnBService(dao), new InetSocketAddress(port), threads,
+                    maxInFlight, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                try {
+                    dao.close();
+                } catch (SQLException ignored) {
+                }
+            }));
+            server.start();
+            System.out.println("Listening on port " + server.getPort() + " with " + threads + " workers");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void start() {
+        housekeeper.scheduleWithFixedDelay(service::expireIdleSessions, SESSION_SWEEP_MILLIS, SESSION_SWEEP_MILLIS,
+                TimeUnit.MILLISECONDS);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        workers.shutdownNow();
+        overflow.shutdownNow();
+        housekeeper.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int getInFlight() {
+        return maxInFlight - admission.availablePermits();
+    }
+
+    public long getServedCount() {
+        return served.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    /* The server's executor. Runs the exchange on a worker if it is admitted, otherwise on the overflow thread,
+     * where handle() answers 503 without reading more than the request line and headers. If the overflow queue is
+     * full, the calling dispatcher thread answers the 503 itself, so every request gets an answer. */
+    private void admit(Runnable exchange) {
+        if (!admission.tryAcquire()) {
+            overflow.execute(exchange);
+            return;
+        }
+        long admitted = System.nanoTime();
+        try {
+            workers.execute(() -> {
+                admittedAt.set(admitted);
+                try {
+                    exchange.run();
+                } finally {
+                    admittedAt.remove();
+                    admission.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admission.release();
+            throw e;
+        }
+    }
+
+    private void handle(HttpExchange exchange) {
+        Long admitted = admittedAt.get();
+        try {
+            if (admitted == null) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, error("Server is busy"));
+                return;
+            }
+            if (System.nanoTime() - admitted > requestTimeoutNanos) {
+                timedOut.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, error("Timed out waiting to be served"));
+                return;
+            }
+            Response response;
+            try {
+                response = route(exchange);
+            } catch (IllegalArgumentException e) {
+                response = new Response(400, error(e.getMessage()));
+            } catch (IllegalStateException e) {
+                response = new Response(403, error(e.getMessage()));
+            } catch (SQLTimeoutException e) {
+                timedOut.incrementAndGet();
+                response = new Response(504, error("Timed out"));
+            } catch (SQLException e) {
+                response = new Response(500, error("Issue accessing database"));
+            } catch (RuntimeException e) {
+                response = new Response(500, error("Internal error"));
+            }
+            served.incrementAndGet();
+            send(exchange, response.status, response.body);
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Response route(HttpExchange exchange) throws IOException, SQLException {
+        String method = exchange.getRequestMethod();
+        String[] path = Arrays.stream(exchange.getRequestURI().getPath().split("/"))
+                .filter(part -> !part.isEmpty()).toArray(String[]::new);
+        if (path.length == 0) {
+            return notFound();
+        }
+        Map<String, String> params = params(exchange);
+        String session = exchange.getRequestHeaders().getFirst("X-Session");
+        if (session == null) {
+            session = params.get("session");
+        }
+
+        switch (path[0]) {
+            case "health":
+                if (path.length != 1) {
+                    return notFound();
+                }
+                return ok(object("inFlight", getInFlight(), "threads", threads, "served", served.get(),
+                        "rejected", rejected.get(), "timedOut", timedOut.get(),
+                        "sessions", service.getSessionCount(), "pool", service.getDao().getPool().toString()));
+            case "sessions":
+                if (path.length != 1) {
+                    return notFound();
+                }
+                if (method.equals("POST")) {
+                    return login(params);
+                } else if (method.equals("DELETE")) {
+                    service.logout(session);
+                    return ok(object());
+                }
+                return notAllowed();
+            case "listings":
+                if (path.length == 1) {
+                    return method.equals("GET") ? search(params) : notAllowed();
+                }
+                if (path.length == 3 && path[2].equals("availability")) {
+                    int lid = parseInt(path[1], "listing");
+                    if (method.equals("GET")) {
+                        return availability(lid, params);
+                    } else if (method.equals("POST")) {
+                        int added = service.addAvailability(session, lid, required(params, "start"),
+                                required(params, "end"), parseDouble(required(params, "price"), "price"));
+                        return ok(object("added", added));
+                    }
+                    return notAllowed();
+                }
+                return notFound();
+            case "bookings":
+                if (path.length == 1) {
+                    if (method.equals("GET")) {
+                        String status = params.getOrDefault("status", "UPCOMING").toUpperCase(Locale.ROOT);
+                        return ok(object("bookings", array(service.getBookings(session, status),
+                                ApiServer::booking)));
+                    } else if (method.equals("POST")) {
+                        return book(session, params);
+                    }
+                    return notAllowed();
+                }
+                if (path.length == 2) {
+                    if (!method.equals("DELETE")) {
+                        return notAllowed();
+                    }
+                    int bid = parseInt(path[1], "booking");
+                    service.cancelBooking(session, bid);
+                    return ok(object("cancelled", bid));
+                }
+                return notFound();
+            case "reports":
+                if (path.length != 2) {
+                    return notFound();
+                }
+                return method.equals("GET") ? report(path[1], params) : notAllowed();
+            default:
+                return notFound();
+        }
+    }
+
+    private Response login(Map<String, String> params) throws SQLException {
+        String role = params.getOrDefault("role", "renter").toLowerCase(Locale.ROOT);
+        if (!role.equals("renter") && !role.equals("host")) {
+            throw new IllegalArgumentException("Role must be renter or host");
+        }
+        Session session = service.login(role.equals("host"), required(params, "email"),
+                required(params, "password"));
+        return new Response(201, object("session", session.getId(), "uid", session.getUid(), "role", role));
+    }
+
+    /* Parameters, all optional: lat, lon and either distance (km) or closest, the number of listings closest to the
+     * point; or postalCode; or address, city and country; start and end, or nights, windowStart and windowEnd; min
+     * and max price; amenities, comma separated; type; order, asc or desc; pageSize and the token of the page to
+     * continue from. */
+    private Response search(Map<String, String> params) throws SQLException {
+        ListingSearch search = new ListingSearch();
+        if (params.containsKey("closest")) {
+            search.closestTo(parseDouble(required(params, "lat"), "lat"), parseDouble(required(params, "lon"), "lon"),
+                    parseInt(params.get("closest"), "closest"));
+        } else if (params.containsKey("lat") || params.containsKey("lon")) {
+            double distance = params.containsKey("distance") ? parseDouble(params.get("distance"), "distance") : -1;
+            search.nearCoordinate(parseDouble(required(params, "lat"), "lat"),
+                    parseDouble(required(params, "lon"), "lon"), distance < 0 ? -1 : distance * 1000);
+        } else if (params.containsKey("postalCode")) {
+            String postalCode = params.get("postalCode").toLowerCase(Locale.ROOT).trim();
+            if (postalCode.length() < 3) {
+                throw new IllegalArgumentException("Postal code must have at least 3 characters");
+            }
+            search.nearPostalCode(postalCode);
+        } else if (params.containsKey("address")) {
+            search.atAddress(params.get("address").toLowerCase(Locale.ROOT).trim(),
+                    required(params, "city").toLowerCase(Locale.ROOT).trim(),
+                    required(params, "country").toLowerCase(Locale.ROOT).trim());
+        }
+        if (params.containsKey("start") || params.containsKey("end")) {
+            search.availableBetween(required(params, "start"), required(params, "end"));
+        } else if (params.containsKey("nights")) {
+            int nights = parseInt(params.get("nights"), "nights");
+            if (nights <= 0) {
+                throw new IllegalArgumentException("Invalid number of nights");
+            }
+            search.availableForNights(nights, required(params, "windowStart"), required(params, "windowEnd"));
+        }
+        if (params.containsKey("min") || params.containsKey("max")) {
+            search.priceBetween(parseDouble(required(params, "min"), "min"),
+                    parseDouble(required(params, "max"), "max"));
+        }
+        if (params.containsKey("amenities")) {
+            List<String> amenities = new ArrayList<>();
+            for (String amenity : params.get("amenities").split(",")) {
+                amenities.add(amenity.trim());
+            }
+            search.withAmenities(amenities);
+        }
+        if (params.containsKey("type")) {
+            search.ofType(params.get("type").trim().toLowerCase(Locale.ROOT));
+        }
+        search.orderByPrice(params.getOrDefault("order", "").trim().toUpperCase(Locale.ROOT));
+
+        int pageSize = params.containsKey("pageSize") ? parseInt(params.get("pageSize"), "pageSize")
+                : Driver.PAGE_SIZE;
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        ListingPage page = service.search(search, pageSize, params.get("token"));
+        return ok(object("listings", array(page.getListings(), ApiServer::listing), "next", page.getNextToken()));
+    }
+
+    private Response availability(int lid, Map<String, String> params) throws SQLException {
+        List<Calendar> days = service.getAvailability(lid, required(params, "start"), required(params, "end"));
+        return ok(object("lid", lid, "days", array(days,
+                day -> object("date", day.getDate(), "price", day.getPrice(), "status", day.getStatus()))));
+    }
+
+    private Response book(String session, Map<String, String> params) throws SQLException {
+        Booking booking = service.book(session, parseInt(required(params, "lid"), "lid"), required(params, "start"),
+                required(params, "end"));
+        if (booking == null) {
+            return new Response(409, error("Listing is not available for the whole range"));
+        }
+        return new Response(201, booking(booking));
+    }
+
+    private Response report(String name, Map<String, String> params) throws SQLException {
+        List<String> lines;
+        switch (name) {
+            case "bookings":
+                lines = service.reportNumBookings(required(params, "start"), required(params, "end"),
+                        flag(params, "byPostalCode"));
+                break;
+            case "listings":
+                lines = service.reportNumListings(flag(params, "byCity"), flag(params, "byPostalCode"));
+                break;
+            case "hosts":
+                lines = service.rankHosts(flag(params, "byCity"), limit(params));
+                break;
+            case "dominant-hosts":
+                double share = params.containsKey("share") ? parseDouble(params.get("share"), "share")
+                        : DAO.DOMINANT_HOST_SHARE;
+                if (share < 0 || share > 1) {
+                    throw new IllegalArgumentException("Share must be between 0 and 1");
+                }
+                lines = service.reportHost(share);
+                break;
+            case "renters":
+                lines = service.rankRenters(required(params, "start"), required(params, "end"),
+                        flag(params, "byCity"), limit(params));
+                break;
+            case "cancellations":
+                String who = params.getOrDefault("who", "both").toLowerCase(Locale.ROOT);
+                if (!who.equals("host") && !who.equals("renter") && !who.equals("both")) {
+                    throw new IllegalArgumentException("who must be host, renter or both");
+                }
+                lines = service.reportCancellations(who, required(params, "from"), required(params, "to"));
+                break;
+            default:
+                return notFound();
+        }
+        return ok(object("report", name, "lines", array(lines, ApiServer::quote)));
+    }
+
+    private static int limit(Map<String, String> params) {
+        int limit = params.containsKey("limit") ? parseInt(params.get("limit"), "limit") : 0;
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+        return limit;
+    }
+
+    private static String listing(Listing listing) {
+        Address address = listing.getAddress();
+        return object("lid", listing.getLid(), "type", listing.getType(), "latitude", listing.getLatitude(),
+                "longitude", listing.getLongitude(), "address", address.getAddress(), "city", address.getCity(),
+                "country", address.getCountry(), "postalCode", address.getPostalCode(), "detail", listing.getAux());
+    }
+
+    private static String booking(Booking booking) {
+        return object("bid", booking.getBid(), "lid", booking.getLid(), "rid", booking.getRid(),
+                "start", booking.getStartDate(), "end", booking.getEndDate(), "cost", booking.getCost(),
+                "status", booking.getStatus(), "review", booking.getReview(),
+                "rating", booking.getReview() == null ? null : booking.getRating());
+    }
+
+    // Requests
+
+    /* The query string's parameters, plus those of a form encoded body. A later value replaces an earlier one. */
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            parseForm(readBody(exchange.getRequestBody()), params);
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> params) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            if (body.size() + n > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request body is too large");
+            }
+            body.write(buffer, 0, n);
+        }
+        return body.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value.trim();
+    }
+
+    private static boolean flag(Map<String, String> params, String name) {
+        String value = params.getOrDefault(name, "").trim().toLowerCase(Locale.ROOT);
+        return value.equals("true") || value.equals("y") || value.equals("yes");
+    }
+
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name);
+        }
+    }
+
+    private static double parseDouble(String value, String name) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name);
+        }
+    }
+
+    // Responses
+
+    private static Response ok(String body) {
+        return new Response(200, body);
+    }
+
+    private static Response notFound() {
+        return new Response(404, error("Not found"));
+    }
+
+    private static Response notAllowed() {
+        return new Response(405, error("Method not allowed"));
+    }
+
+    private static String error(String message) {
+        return object("error", message);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /* A JSON object of alternating keys and values. Values that are already JSON are wrapped in Json. */
+    private static String object(Object... pairs) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(quote((String) pairs[i])).append(':');
+            Object value = pairs[i + 1];
+            if (value == null) {
+                sb.append("null");
+            } else if (value instanceof Json || value instanceof Integer || value instanceof Long) {
+                sb.append(value);
+            } else if (value instanceof Double) {
+                double d = (Double) value;
+                sb.append(Double.isFinite(d) ? Double.toString(d) : "null");
+            } else {
+                sb.append(quote(value.toString()));
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    private static <T> Json array(List<T> items, Function<T, String> toJson) {
+        StringJoiner joiner = new StringJoiner(",", "[", "]");
+        for (T item : items) {
+            joiner.add(toJson.apply(item));
+        }
+        return new Json(joiner.toString());
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static class Response {
+        private final int status;
+        private final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static class Json {
+        private final String text;
+
+        private Json(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
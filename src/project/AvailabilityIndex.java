@@ -0,0 +1,237 @@
+package project;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* In-memory copy of every listing's calendar. Each listing keeps a bitset of its available days and a bitset of its
+ * days that are not cancelled, both indexed by epoch day, plus a parallel array of nightly prices. Range checks are
+ * then a few word operations and allocate nothing. DAO refreshes the days it writes. */
+public class AvailabilityIndex {
+
+    private final Map<Integer, Days> calendars = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    /* Records one calendar row. */
+    public void set(int lid, long day, double price, String status) {
+        Days days = calendars.computeIfAbsent(lid, k -> new Days());
+        synchronized (days) {
+            days.set(day, price, status);
+        }
+    }
+
+    /* Replaces every day of the listing from start to end, inclusive, with the given rows. Days in the range
+     * without a row are forgotten. */
+    public void replaceRange(int lid, long start, long end, List<Calendar> rows) {
+        Days days = calendars.computeIfAbsent(lid, k -> new Days());
+        synchronized (days) {
+            days.clear(start, end);
+            for (Calendar row : rows) {
+                days.set(LocalDate.parse(row.getDate()).toEpochDay(), row.getPrice(), row.getStatus());
+            }
+        }
+    }
+
+    public void setLoaded(boolean loaded) {
+        this.loaded = loaded;
+    }
+
+    /* True once the index has been filled from the database, so searches can rely on it. */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /* True if every day from start to end, inclusive, is available. */
+    public boolean isAvailable(int lid, long start, long end) {
+        Days days = calendars.get(lid);
+        if (days == null || end < start) {
+            return false;
+        }
+        synchronized (days) {
+            return days.allSet(days.available, start, end);
+        }
+    }
+
+    /* True if any day from start to end, inclusive, is available or booked. */
+    public boolean isOpenAny(int lid, long start, long end) {
+        Days days = calendars.get(lid);
+        if (days == null || end < start) {
+            return false;
+        }
+        synchronized (days) {
+            return days.anySet(days.open, start, end);
+        }
+    }
+
+    /* Sum of the nightly prices of the days from start to end, inclusive, that have a calendar row. */
+    public double cost(int lid, long start, long end) {
+        Days days = calendars.get(lid);
+        if (days == null) {
+            return 0;
+        }
+        synchronized (days) {
+            return days.sum(start, end);
+        }
+    }
+
+    /* Returns, for every listing with at least one run of the given number of consecutive available nights between
+     * from and to, inclusive, its earliest and cheapest such run. Each listing's days in the window are visited once. */
+    public Map<Integer, Stay> findStays(long from, long to, int nights) {
+        Map<Integer, Stay> result = new HashMap<>();
+        for (Map.Entry<Integer, Days> entry : calendars.entrySet()) {
+            Days days = entry.getValue();
+            Stay.Finder finder = new Stay.Finder(nights);
+            synchronized (days) {
+                days.scan(from, to, finder);
+            }
+            Stay stay = finder.getStay();
+            if (stay != null) {
+                result.put(entry.getKey(), stay);
+            }
+        }
+        return result;
+    }
+
+    /* One listing's calendar. Bit i of the bitsets and entry i of prices describe epoch day base + i, where base
+     * is a multiple of 64 so words line up across listings. */
+    private static class Days {
+        private long base = 0;
+        private long[] available = new long[0];
+        private long[] open = new long[0];
+        private double[] prices = new double[0];
+
+        private void set(long day, double price, String status) {
+            ensure(day);
+            int i = (int) (day - base);
+            long bit = 1L << (i & 63);
+            if (status.equals("AVAILABLE")) {
+                available[i >>> 6] |= bit;
+            } else {
+                available[i >>> 6] &= ~bit;
+            }
+            if (status.equals("UNAVAILABLE")) {
+                open[i >>> 6] &= ~bit;
+            } else {
+                open[i >>> 6] |= bit;
+            }
+            prices[i] = price;
+        }
+
+        private void clear(long start, long end) {
+            long from = Math.max(start, base);
+            long to = Math.min(end, base + prices.length - 1);
+            for (long day = from; day <= to; day++) {
+                int i = (int) (day - base);
+                long bit = 1L << (i & 63);
+                available[i >>> 6] &= ~bit;
+                open[i >>> 6] &= ~bit;
+                prices[i] = 0;
+            }
+        }
+
+        /* Grows the arrays so they cover day, in either direction. */
+        private void ensure(long day) {
+            long start = Math.floorDiv(day, 64) * 64;
+            if (prices.length == 0) {
+                base = start;
+                available = new long[1];
+                open = new long[1];
+                prices = new double[64];
+                return;
+            }
+            if (day < base) {
+                int shift = (int) ((base - start) / 64);
+                int words = Math.max(available.length + shift, available.length * 2);
+                int pad = words - available.length;
+                available = prepend(available, pad);
+                open = prepend(open, pad);
+                double[] grown = new double[words * 64];
+                System.arraycopy(prices, 0, grown, pad * 64, prices.length);
+                prices = grown;
+                base -= pad * 64L;
+            } else if (day >= base + prices.length) {
+                int words = Math.max((int) ((day - base) / 64) + 1, available.length * 2);
+                available = Arrays.copyOf(available, words);
+                open = Arrays.copyOf(open, words);
+                prices = Arrays.copyOf(prices, words * 64);
+            }
+        }
+
+        private static long[] prepend(long[] words, int pad) {
+            long[] grown = new long[words.length + pad];
+            System.arraycopy(words, 0, grown, pad, words.length);
+            return grown;
+        }
+
+        private boolean allSet(long[] words, long start, long end) {
+            if (start < base || end >= base + prices.length) {
+                return false;
+            }
+            int from = (int) (start - base);
+            int to = (int) (end - base);
+            for (int w = from >>> 6; w <= to >>> 6; w++) {
+                long mask = wordMask(w, from, to);
+                if ((words[w] & mask) != mask) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean anySet(long[] words, long start, long end) {
+            long clippedStart = Math.max(start, base);
+            long clippedEnd = Math.min(end, base + prices.length - 1);
+            if (clippedStart > clippedEnd) {
+                return false;
+            }
+            int from = (int) (clippedStart - base);
+            int to = (int) (clippedEnd - base);
+            for (int w = from >>> 6; w <= to >>> 6; w++) {
+                if ((words[w] & wordMask(w, from, to)) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /* Bits of word w that fall between from and to, inclusive. */
+        private static long wordMask(int w, int from, int to) {
+            long mask = -1L;
+            if (w == from >>> 6) {
+                mask &= -1L << (from & 63);
+            }
+            if (w == to >>> 6) {
+                mask &= -1L >>> (63 - (to & 63));
+            }
+            return mask;
+        }
+
+        /* Feeds the available days between start and end, inclusive, to the finder, skipping empty words. */
+        private void scan(long start, long end, Stay.Finder finder) {
+            long from = Math.max(start, base);
+            long to = Math.min(end, base + prices.length - 1);
+            for (long day = from; day <= to; day++) {
+                int i = (int) (day - base);
+                long word = available[i >>> 6];
+                if (word == 0) {
+                    day = base + (i | 63); // jump to the last day of this word
+                } else if ((word & (1L << (i & 63))) != 0) {
+                    finder.add(day, prices[i]);
+                }
+            }
+        }
+
+        private double sum(long start, long end) {
+            long from = Math.max(start, base);
+            long to = Math.min(end, base + prices.length - 1);
+            double total = 0;
+            for (long day = from; day <= to; day++) {
+                total += prices[(int) (day - base)];
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,540 @@
+package project;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+
+/* Times the DAO's hot paths so a regression shows up before it reaches production. Each benchmark is warmed up,
+ * then measured over a fixed number of calls and reported as mean, p50 and p99 microseconds per call, along with
+ * the statements each call sent through the connection pool. The suite
+ * seeds its own data from a fixed seed into an empty database that has MyBnB's schema, and draws every argument
+ * from seeded generators, so two runs against the same engine do the same work and can be compared across
+ * commits. Every benchmark runs twice, first over SQL alone and then with the in-memory indexes loaded. Any JDBC
+ * URL works, e.g. a scratch MySQL database or H2 in MySQL mode. */
+public class Benchmark {
+
+    private static final long SEED = 42;
+    private static final int DEFAULT_CALLS = 200;
+    // reports are slower, so they get this fraction of the calls
+    private static final int REPORT_CALLS_DIVISOR = 10;
+    // lengths, in days, of the ranges createAvailabilitiesInRange is timed on
+    private static final int[] AVAILABILITY_RANGES = {30, 365, 730};
+    // generated reviews the noun phrase engines are compared on, spread over this many listings
+    private static final int NOUN_PHRASE_REVIEWS = 500;
+    private static final int NOUN_PHRASE_LISTINGS = 50;
+    // reviews each engine parses before it is timed, so model loading and JIT compilation are not
+    private static final int NOUN_PHRASE_WARM_UP = 20;
+    // generated reviews each engine's throughput is measured on at every thread count
+    private static final int NOUN_PHRASE_SCALING_REVIEWS = 2000;
+
+    // every seeded date is relative to this, so the data does not depend on when it is run
+    private static final LocalDate BASE = LocalDate.of(2040, 1, 1);
+    private static final int DAYS_OPEN = 120;
+    // seeded bookings fall before this day; the days after it are left open for Booking.create
+    private static final int BOOKED_DAYS = 90;
+    private static final String[][] CITIES = {
+            {"canada", "toronto", "m5v", "43.65", "-79.38", "180"},
+            {"canada", "montreal", "h2x", "45.50", "-73.57", "140"},
+            {"canada", "vancouver", "v6b", "49.28", "-123.12", "210"},
+            {"usa", "new york", "100", "40.71", "-74.01", "260"},
+            {"usa", "boston", "021", "42.36", "-71.06", "220"},
+            {"france", "paris", "750", "48.86", "2.35", "190"}};
+    private static final String[] TYPES = {"house", "apartment", "guesthouse", "hotel"};
+
+    private final DAO dao;
+    private final int scale;
+    private final int calls;
+    private final PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+
+    // the seeded data
+    private final List<String> renterEmails = new ArrayList<>();
+    private final List<Integer> listings = new ArrayList<>();
+    private final Map<Integer, Double> prices = new HashMap<>();
+    private final Map<Integer, String[]> cities = new HashMap<>();
+    private final Map<Integer, String> types = new HashMap<>();
+    private final List<Amenity> amenities = new ArrayList<>();
+    private int benchRenter;
+
+    public Benchmark(DAO dao, int scale, int calls) {
+        this.dao = dao;
+        this.scale = scale;
+        this.calls = calls;
+    }
+
+    /* Usage: Benchmark <jdbc url> <user> <password> [scale] [calls] [csv file] */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: Benchmark <jdbc url> <user> <password> [scale] [calls] [csv file]");
+            return;
+        }
+        int scale = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        int calls = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_CALLS;
+        try {
+            DAO dao = new DAO(new ConnectionPool(args[0], args[1], args[2]));
+            List<Result> results = new Benchmark(dao, scale, calls).run(System.out);
+            if (results != null && args.length > 5) {
+                try (PrintWriter csv = new PrintWriter(new FileWriter(args[5]))) {
+                    csv.println("benchmark,mode,calls,mean_us,p50_us,p99_us,statements");
+                    for (Result result : results) {
+                        csv.printf(Locale.ROOT, "%s,%s,%d,%.1f,%.1f,%.1f,%.1f%n", result.name, result.mode,
+                                result.calls, result.mean, result.p50, result.p99, result.statements);
+                    }
+                }
+            }
+            dao.close();
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* Seeds the database, then runs the suite over SQL and again over the indexes, printing each result. Returns
+     * them all, or null if the database already holds seeded data. */
+    public List<Result> run(PrintStream out) throws SQLException {
+        if (dao.getUserOnEmail(hostEmail(0)) != null) {
+            out.println("Benchmark needs an empty database");
+            return null;
+        }
+        try (Connection conn = dao.getPool().getConnection()) {
+            DatabaseMetaData meta = conn.getMetaData();
+            out.println("Database: " + meta.getDatabaseProductName() + " " + meta.getDatabaseProductVersion());
+        }
+        long start = System.nanoTime();
+        seed();
+        dao.createReportIndexes();
+        out.printf("Seeded %d listings and %d renters in %.1f s (scale %d, seed %d)%n", listings.size(),
+                renterEmails.size(), (System.nanoTime() - start) / 1e9, scale, SEED);
+        out.println("Plan of the cancellation report:");
+        try {
+            for (String line : dao.explainCancellations(day(0), day(BOOKED_DAYS))) {
+                out.println("  " + line);
+            }
+        } catch (SQLException e) {
+            out.println("  unavailable: " + e.getMessage().split("\\R")[0]);
+        }
+
+        List<Result> results = new ArrayList<>();
+        out.printf("%-34s %-8s %6s %10s %10s %10s %10s %8s%n", "benchmark", "mode", "calls", "mean us", "p50 us",
+                "p99 us", "ops/s", "stmts");
+        for (String mode : new String[]{"sql", "indexed"}) {
+            if (mode.equals("indexed")) {
+                dao.loadIndexes();
+            }
+            for (Case benchmark : cases()) {
+                Result result;
+                try {
+                    result = measure(benchmark, mode);
+                } catch (SQLException e) {
+                    // e.g. SQL the engine does not support; the rest of the suite still runs
+                    out.printf("%-34s %-8s failed: %s%n", benchmark.name, mode, e.getMessage().split("\\R")[0]);
+                    continue;
+                }
+                results.add(result);
+                out.printf(Locale.ROOT, "%-34s %-8s %6d %10.1f %10.1f %10.1f %10.1f %8.1f%n", result.name,
+                        result.mode, result.calls, result.mean, result.p50, result.p99, 1e6 / result.mean,
+                        result.statements);
+            }
+        }
+
+        try {
+            compareNounPhraseEngines(out);
+            scaleNounPhraseEngines(out);
+        } catch (IOException e) {
+            out.println("Noun phrase engines unavailable: " + e.getMessage()
+                    + (e.getCause() == null ? "" : " (" + e.getCause() + ")"));
+        }
+        return results;
+    }
+
+    /* Runs both noun phrase engines over the same generated reviews and prints how long each took and how closely
+     * the chunker's phrases agree with the parser's, per review and in each listing's top 5. */
+    private void compareNounPhraseEngines(PrintStream out) throws IOException {
+        Random random = new Random(SEED);
+        LinkedHashMap<Integer, List<String>> reviews = new LinkedHashMap<>();
+        for (int i = 0; i < NOUN_PHRASE_REVIEWS; i++) {
+            reviews.put(i, List.of(DataGenerator.review(random)));
+        }
+        LinkedHashMap<Integer, List<String>> warmUp = new LinkedHashMap<>();
+        for (int i = 0; i < NOUN_PHRASE_WARM_UP; i++) {
+            warmUp.put(i, reviews.get(i));
+        }
+
+        EnumMap<NounPhrases.Engine, LinkedHashMap<Integer, Map<String, Integer>>> counts =
+                new EnumMap<>(NounPhrases.Engine.class);
+        EnumMap<NounPhrases.Engine, Long> nanos = new EnumMap<>(NounPhrases.Engine.class);
+        for (NounPhrases.Engine engine : NounPhrases.Engine.values()) {
+            NounPhrases.countByListing(warmUp, engine, NounPhrases.getWorkers());
+            long start = System.nanoTime();
+            counts.put(engine, NounPhrases.countByListing(reviews, engine, NounPhrases.getWorkers()));
+            nanos.put(engine, System.nanoTime() - start);
+        }
+        for (NounPhrases.Engine engine : NounPhrases.Engine.values()) {
+            double seconds = nanos.get(engine) / 1e9;
+            out.printf("%s: %d reviews in %.2f s (%.1f reviews/s)%n", engine, reviews.size(), seconds,
+                    reviews.size() / seconds);
+        }
+        out.printf("Chunker speedup: %.1fx%n",
+                (double) nanos.get(NounPhrases.Engine.PARSER) / nanos.get(NounPhrases.Engine.CHUNKER));
+
+        double reviewAgreement = 0;
+        Map<Integer, Map<String, Integer>> parsed = new HashMap<>();
+        Map<Integer, Map<String, Integer>> chunked = new HashMap<>();
+        for (int review : reviews.keySet()) {
+            Map<String, Integer> parserCounts = counts.get(NounPhrases.Engine.PARSER).get(review);
+            Map<String, Integer> chunkerCounts = counts.get(NounPhrases.Engine.CHUNKER).get(review);
+            reviewAgreement += NounPhrases.agreement(parserCounts, chunkerCounts);
+            int listing = review % NOUN_PHRASE_LISTINGS;
+            parserCounts.forEach((phrase, n) ->
+                    parsed.computeIfAbsent(listing, k -> new HashMap<>()).merge(phrase, n, Integer::sum));
+            chunkerCounts.forEach((phrase, n) ->
+                    chunked.computeIfAbsent(listing, k -> new HashMap<>()).merge(phrase, n, Integer::sum));
+        }
+        int shared = 0;
+        int top = 0;
+        for (Map.Entry<Integer, Map<String, Integer>> entry : parsed.entrySet()) {
+            Set<String> chunkerTop = new HashSet<>();
+            for (Map.Entry<String, Integer> cur :
+                    TopK.top(chunked.getOrDefault(entry.getKey(), Collections.emptyMap()), 5)) {
+                chunkerTop.add(cur.getKey());
+            }
+            for (Map.Entry<String, Integer> cur : TopK.top(entry.getValue(), 5)) {
+                top++;
+                if (chunkerTop.contains(cur.getKey())) {
+                    shared++;
+                }
+            }
+        }
+        out.printf("Phrase agreement per review: %.1f%%%n", 100 * reviewAgreement / reviews.size());
+        out.printf("Parser top 5 phrases also in the chunker's top 5: %.1f%%%n",
+                top == 0 ? 100.0 : 100.0 * shared / top);
+    }
+
+    /* Measures each noun phrase engine's throughput on generated reviews, grouped by listing as the review report
+     * groups them, on pools of 1, 2, 4 and so on up to one worker per core. Prints reviews per second and the
+     * speedup over one thread at each size. */
+    private void scaleNounPhraseEngines(PrintStream out) throws IOException {
+        Random random = new Random(SEED + 1);
+        LinkedHashMap<Integer, List<String>> reviews = new LinkedHashMap<>();
+        for (int i = 0; i < NOUN_PHRASE_SCALING_REVIEWS; i++) {
+            reviews.computeIfAbsent(i % NOUN_PHRASE_LISTINGS, k -> new ArrayList<>()).add(DataGenerator.review(random));
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(cores);
+
+        out.printf("%-8s %8s %10s %10s%n", "engine", "threads", "reviews/s", "speedup");
+        for (NounPhrases.Engine engine : NounPhrases.Engine.values()) {
+            double single = 0;
+            for (int threads : threadCounts) {
+                ExecutorService workers = NounPhrases.newWorkers(threads);
+                try {
+                    // every worker builds its own tools on its first review, so that is not timed
+                    NounPhrases.countByListing(warmUp(reviews, threads), engine, workers);
+                    long start = System.nanoTime();
+                    NounPhrases.countByListing(reviews, engine, workers);
+                    double perSecond = NOUN_PHRASE_SCALING_REVIEWS / ((System.nanoTime() - start) / 1e9);
+                    if (threads == 1) {
+                        single = perSecond;
+                    }
+                    out.printf(Locale.ROOT, "%-8s %8d %10.1f %9.2fx%n", engine, threads, perSecond,
+                            perSecond / single);
+                } finally {
+                    workers.shutdownNow();
+                }
+            }
+        }
+    }
+
+    /* One short task per worker, made of the first listing's reviews. */
+    private static LinkedHashMap<Integer, List<String>> warmUp(Map<Integer, List<String>> reviews, int threads) {
+        List<String> first = reviews.get(0);
+        LinkedHashMap<Integer, List<String>> warmUp = new LinkedHashMap<>();
+        for (int i = 0; i < threads; i++) {
+            warmUp.put(i, first.subList(0, Math.min(NOUN_PHRASE_WARM_UP, first.size())));
+        }
+        return warmUp;
+    }
+
+    private List<Case> cases() {
+        List<Case> cases = new ArrayList<>();
+        cases.add(new Case("getUserOnEmail", calls,
+                random -> dao.getUserOnEmail(renterEmails.get(random.nextInt(renterEmails.size())))));
+        cases.add(new Case("checkAvailability", calls, random -> {
+            int start = random.nextInt(DAYS_OPEN - 7);
+            return dao.checkAvailability(listing(random), day(start), day(start + 1 + random.nextInt(6)));
+        }));
+        cases.add(new Case("getCost", calls, random -> {
+            int start = random.nextInt(DAYS_OPEN - 7);
+            return dao.getCost(listing(random), day(start), day(start + 1 + random.nextInt(6)));
+        }));
+        cases.add(new Case("getAvailabilitiesInRange", calls, random -> {
+            int start = random.nextInt(DAYS_OPEN - 30);
+            return dao.getAvailabilitiesInRange(listing(random), day(start), day(start + 29));
+        }));
+        cases.add(new Case("checkAvailabilitiesInRange", calls, random -> {
+            int start = random.nextInt(DAYS_OPEN - 30);
+            return dao.checkAvailabilitiesInRange(listing(random), day(start), day(start + 29));
+        }));
+        cases.add(new Case("checkBookedInRange", calls, random -> {
+            int start = random.nextInt(DAYS_OPEN - 30);
+            return dao.checkBookedInRange(listing(random), day(start), day(start + 29));
+        }));
+        // sets the seeded price again, so the data is unchanged
+        cases.add(new Case("updateAvailabilityInRange", calls, random -> {
+            int lid = listing(random);
+            int start = random.nextInt(DAYS_OPEN - 30);
+            return dao.updateAvailabilityInRange(lid, day(start), day(start + 29), prices.get(lid));
+        }));
+        // inserts the days after the seeded ones; removing them again is not timed
+        for (int days : AVAILABILITY_RANGES) {
+            cases.add(new Case("createAvailabilitiesInRange " + days + "d", calls, random -> {
+                int lid = listing(random);
+                dao.createAvailabilitiesInRange(lid, day(DAYS_OPEN), day(DAYS_OPEN + days - 1), prices.get(lid));
+                return lid;
+            }, lid -> removeDays((Integer) lid, day(DAYS_OPEN), day(DAYS_OPEN + days - 1))));
+        }
+        cases.add(new Case("searchListings", calls, random -> {
+            String[] city = CITIES[random.nextInt(CITIES.length)];
+            int start = random.nextInt(DAYS_OPEN - 7);
+            return dao.searchListings(new ListingSearch().nearPostalCode(city[2] + "0a0")
+                    .availableBetween(day(start), day(start + 2)).orderByPrice("ASC"), Driver.PAGE_SIZE, null);
+        }));
+        cases.add(new Case("avgPriceOfListings", calls, random -> {
+            int lid = listing(random);
+            List<Amenity> offered = amenities.isEmpty() ? new ArrayList<>()
+                    : List.of(amenities.get(random.nextInt(amenities.size())));
+            return dao.avgPriceOfListings(types.get(lid), offered, cities.get(lid)[0], cities.get(lid)[1]);
+        }));
+
+        int reportCalls = Math.max(1, calls / REPORT_CALLS_DIVISOR);
+        cases.add(new Case("reportNumBookings", reportCalls, random -> {
+            dao.reportNumBookings(day(0), day(BOOKED_DAYS), "y", quiet);
+            return null;
+        }));
+        cases.add(new Case("reportNumListings", reportCalls, random -> {
+            dao.reportNumListings("y", "y", quiet);
+            return null;
+        }));
+        cases.add(new Case("rankHosts", reportCalls, random -> {
+            dao.rankHosts("y", 10, quiet);
+            return null;
+        }));
+        cases.add(new Case("reportHost", reportCalls, random -> {
+            dao.reportHost(DAO.DOMINANT_HOST_SHARE, quiet);
+            return null;
+        }));
+        cases.add(new Case("rankRenters", reportCalls, random -> {
+            dao.rankRenters(day(0), day(BOOKED_DAYS), "y", 10, quiet);
+            return null;
+        }));
+        cases.add(new Case("reportCancellations", reportCalls, random -> {
+            dao.reportCancellations("both", day(0), day(BOOKED_DAYS), quiet);
+            return null;
+        }));
+
+        // last, since the bookings it cancels again stay behind
+        cases.add(new Case("Booking.create", calls, random -> {
+            int start = BOOKED_DAYS + random.nextInt(DAYS_OPEN - BOOKED_DAYS - 3);
+            return Booking.create(dao, benchRenter, listing(random), day(start), day(start + 1));
+        }, booking -> {
+            Booking created = (Booking) booking;
+            if (created != null) {
+                dao.cancelBooking(created.getBid());
+            }
+        }));
+        return cases;
+    }
+
+    /* Runs half the calls to warm up, then times each of the calls and counts the statements they create. The
+     * arguments come from a generator seeded by the benchmark's name, so the same calls are made on every run. */
+    private Result measure(Case benchmark, String mode) throws SQLException {
+        Random random = new Random(SEED + benchmark.name.hashCode());
+        for (int i = 0; i < benchmark.calls / 2; i++) {
+            benchmark.cleanup.run(benchmark.call.run(random));
+        }
+        long[] nanos = new long[benchmark.calls];
+        long statements = 0;
+        for (int i = 0; i < benchmark.calls; i++) {
+            long before = dao.getPool().getStatementCount();
+            long start = System.nanoTime();
+            Object result = benchmark.call.run(random);
+            nanos[i] = System.nanoTime() - start;
+            statements += dao.getPool().getStatementCount() - before;
+            benchmark.cleanup.run(result);
+        }
+        Arrays.sort(nanos);
+        double mean = Arrays.stream(nanos).average().orElse(0) / 1e3;
+        return new Result(benchmark.name, mode, benchmark.calls, mean, percentile(nanos, 0.50) / 1e3,
+                percentile(nanos, 0.99) / 1e3, (double) statements / benchmark.calls);
+    }
+
+    /* Creates 20 hosts per unit of scale with one to three listings each, open for DAYS_OPEN days at a price around
+     * their city's, and 50 renters per unit of scale with three bookings each, a fifth of them cancelled. */
+    private void seed() throws SQLException {
+        Random random = new Random(SEED);
+        for (String category : new String[]{"essentials", "features", "location", "safety"}) {
+            List<String> descriptions = dao.getAmenitiesListByCategory(category);
+            Collections.sort(descriptions);
+            for (String description : descriptions) {
+                amenities.add(new Amenity(description, category));
+            }
+        }
+
+        for (int h = 0; h < 20 * scale; h++) {
+            String[] city = CITIES[random.nextInt(CITIES.length)];
+            int uid = createUser("Bench Host " + h, hostEmail(h), "h" + h, city);
+            dao.createHost(uid);
+            int count = 1 + random.nextInt(3);
+            for (int n = 0; n < count; n++) {
+                String type = TYPES[random.nextInt(TYPES.length)];
+                int lid = Listing.createListing(dao, uid, type,
+                        Double.parseDouble(city[3]) + random.nextDouble() * 0.1 - 0.05,
+                        Double.parseDouble(city[4]) + random.nextDouble() * 0.1 - 0.05,
+                        h + "-" + n + " bench rd", city[1], city[0], city[2] + random.nextInt(10) + "a" + n);
+                double price = Math.round(Double.parseDouble(city[5]) * (0.6 + random.nextDouble()));
+                dao.createAvailabilitiesInRange(lid, day(0), day(DAYS_OPEN - 1), price);
+                if (!amenities.isEmpty()) {
+                    Set<String> offered = new HashSet<>();
+                    for (int a = 0; a < 3; a++) {
+                        offered.add(amenities.get(random.nextInt(amenities.size())).getDescription());
+                    }
+                    for (String description : offered) {
+                        dao.offerAmenity(lid, description);
+                    }
+                }
+                listings.add(lid);
+                prices.put(lid, price);
+                cities.put(lid, city);
+                types.put(lid, type);
+            }
+        }
+
+        for (int r = 0; r < 50 * scale; r++) {
+            String[] city = CITIES[random.nextInt(CITIES.length)];
+            String email = "bench-r" + r + "@mybnb.test";
+            int uid = createUser("Bench Renter " + r, email, "r" + r, city);
+            dao.createRenter(uid, "4111111111111111");
+            renterEmails.add(email);
+            for (int b = 0; b < 3; b++) {
+                int lid = listing(random);
+                int start = random.nextInt(BOOKED_DAYS - 5);
+                Booking booking = dao.reserveBooking(uid, lid, day(start), day(start + random.nextInt(5)));
+                if (booking != null && random.nextInt(5) == 0) {
+                    dao.cancelBooking(booking.getBid());
+                }
+            }
+        }
+        benchRenter = dao.getUserOnEmail(renterEmails.get(0)).getUid();
+    }
+
+    private int createUser(String name, String email, String sin, String[] city) throws SQLException {
+        int aid = dao.createAddress(sin + " bench st", city[1], city[0], city[2] + "0a0");
+        return dao.createUser(sin, name, "1980-01-01", "tester", email, "password", aid);
+    }
+
+    /* Takes days added by a benchmark back out. They are cancelled first, so the DAO's indexes drop them too. */
+    private void removeDays(int lid, String start, String end) throws SQLException {
+        dao.cancelAvailabilitiesInRange(lid, start, end);
+        try (Connection conn = dao.getPool().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "DELETE FROM Calendars WHERE LID = ? AND Day BETWEEN ? AND ?")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, start);
+            stmt.setString(3, end);
+            stmt.executeUpdate();
+        }
+    }
+
+    private int listing(Random random) {
+        return listings.get(random.nextInt(listings.size()));
+    }
+
+    private static String hostEmail(int h) {
+        return "bench-h" + h + "@mybnb.test";
+    }
+
+    private static String day(int daysAfterBase) {
+        return BASE.plusDays(daysAfterBase).toString();
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private interface Call {
+        Object run(Random random) throws SQLException;
+    }
+
+    private interface Cleanup {
+        void run(Object result) throws SQLException;
+    }
+
+    private static class Case {
+        private final String name;
+        private final int calls;
+        private final Call call;
+        private final Cleanup cleanup;
+
+        private Case(String name, int calls, Call call) {
+            this(name, calls, call, result -> { });
+        }
+
+        private Case(String name, int calls, Call call, Cleanup cleanup) {
+            this.name = name;
+            this.calls = calls;
+            this.call = call;
+            this.cleanup = cleanup;
+        }
+    }
+
+    public static class Result {
+        private final String name;
+        private final String mode;
+        private final int calls;
+        private final double mean;
+        private final double p50;
+        private final double p99;
+        // per call
+        private final double statements;
+
+        public Result(String name, String mode, int calls, double mean, double p50, double p99, double statements) {
+            this.name = name;
+            this.mode = mode;
+            this.calls = calls;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.statements = statements;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getMode() {
+            return mode;
+        }
+
+        public double getMeanMicros() {
+            return mean;
+        }
+
+        public double getStatementsPerCall() {
+            return statements;
+        }
+    }
+}
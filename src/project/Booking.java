@@ -28,19 +28,11 @@ public class Booking {
 
     public static Booking create(DAO dao, int uid, int lid, String startDate, String endDate) throws SQLException {
 
-        if (dao.checkAvailability(lid, startDate, endDate)) {
-            Double cost = dao.getCost(lid, startDate, endDate);
-            if (cost == -1) {
-                System.out.println("Something went wrong computing the cost");
-                return null;
-            } else {
-                dao.updateCalendar(lid, startDate, endDate, "BOOKED");
-                return dao.createBooking(uid, lid, startDate, endDate, cost);
-            }
-        } else {
+        Booking booking = dao.reserveBooking(uid, lid, startDate, endDate);
+        if (booking == null) {
             System.out.println("Booking Failed: Listing is not available for the given date range");
-            return null;
         }
+        return booking;
     }
 
     public String display(DAO dao) {
@@ -73,4 +65,10 @@ public class Booking {
     public String getEndDate() { return endDate; }
 
     public String getReview() { return review; }
+
+    public int getRid() { return rid; }
+
+    public String getStatus() { return status; }
+
+    public int getRating() { return rating; }
 }
@@ -0,0 +1,146 @@
+package project;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Inserts rows into one table with multi-row INSERT statements of up to ROWS_PER_STATEMENT rows each, instead of
+ * one statement, and one round trip, per row. Rows are buffered until flush(); the statement for a full buffer is
+ * prepared once and reused. Committing is left to the owner of the connection. */
+public class BulkInsert implements AutoCloseable {
+
+    public static final int ROWS_PER_STATEMENT = 1000;
+
+    private final Connection conn;
+    private final String insert;
+    private final int width;
+    private final Object[] buffer;
+    private int buffered = 0;
+    private long rowCount = 0;
+    private PreparedStatement full;
+    // the keys the database generated for the inserted rows, in insert order, if asked for
+    private List<Integer> generatedKeys;
+
+    public BulkInsert(Connection conn, String table, String... columns) {
+        this.conn = conn;
+        this.insert = "INSERT INTO " + table + "(" + String.join(", ", columns) + ") VALUES ";
+        this.width = columns.length;
+        this.buffer = new Object[ROWS_PER_STATEMENT * width];
+    }
+
+    /* A BulkInsert that also collects the auto-increment key generated for every row it inserts. */
+    public static BulkInsert returningKeys(Connection conn, String table, String... columns) {
+        BulkInsert insert = new BulkInsert(conn, table, columns);
+        insert.generatedKeys = new ArrayList<>();
+        return insert;
+    }
+
+    /* Buffers one row, flushing first if the buffer is full. */
+    public void add(Object... row) throws SQLException {
+        if (row.length != width) {
+            throw new IllegalArgumentException("Expected " + width + " values, got " + row.length);
+        }
+        if (isFull()) {
+            flush();
+        }
+        System.arraycopy(row, 0, buffer, buffered * width, width);
+        buffered++;
+    }
+
+    public boolean isFull() {
+        return buffered == ROWS_PER_STATEMENT;
+    }
+
+    public int getBuffered() {
+        return buffered;
+    }
+
+    /* Rows inserted so far, not counting those still buffered. */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /* The generated key of every row inserted so far, in the order the rows were added. Only collected by an
+     * instance made with returningKeys. */
+    public List<Integer> getGeneratedKeys() {
+        return generatedKeys;
+    }
+
+    /* Inserts the buffered rows with a single statement. */
+    public void flush() throws SQLException {
+        if (buffered == 0) {
+            return;
+        }
+        if (buffered == ROWS_PER_STATEMENT) {
+            if (full == null) {
+                full = prepare(ROWS_PER_STATEMENT);
+            }
+            execute(full);
+        } else {
+            try (PreparedStatement stmt = prepare(buffered)) {
+                execute(stmt);
+            }
+        }
+    }
+
+    private void execute(PreparedStatement stmt) throws SQLException {
+        for (int i = 0; i < buffered * width; i++) {
+            if (buffer[i] == null) {
+                stmt.setNull(i + 1, Types.VARCHAR);
+            } else {
+                stmt.setObject(i + 1, buffer[i]);
+            }
+        }
+        stmt.executeUpdate();
+        if (generatedKeys != null) {
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                int returned = 0;
+                while (keys.next()) {
+                    generatedKeys.add(keys.getInt(1));
+                    returned++;
+                }
+                if (returned != buffered) {
+                    throw new SQLException("Inserted " + buffered + " rows but got " + returned + " keys");
+                }
+            }
+        }
+        rowCount += buffered;
+        buffered = 0;
+        Arrays.fill(buffer, null);
+    }
+
+    private PreparedStatement prepare(int rows) throws SQLException {
+        if (generatedKeys != null) {
+            return conn.prepareStatement(statement(rows), Statement.RETURN_GENERATED_KEYS);
+        }
+        return conn.prepareStatement(statement(rows));
+    }
+
+    private String statement(int rows) {
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < width; i++) {
+            row.append(i == 0 ? "?" : ", ?");
+        }
+        row.append(")");
+        StringBuilder query = new StringBuilder(insert.length() + rows * (row.length() + 2)).append(insert);
+        for (int i = 0; i < rows; i++) {
+            query.append(i == 0 ? "" : ", ").append(row);
+        }
+        return query.toString();
+    }
+
+    /* Closes the reused statement. Rows still buffered are discarded. */
+    @Override
+    public void close() throws SQLException {
+        buffered = 0;
+        if (full != null) {
+            full.close();
+        }
+    }
+}
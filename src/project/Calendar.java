@@ -15,6 +15,14 @@ public class Calendar {
         this.status = status;
     }
 
+    public int getLid() { return lid; }
+
+    public String getDate() { return date; }
+
+    public double getPrice() { return price; }
+
+    public String getStatus() { return status; }
+
     public static boolean checkAvailabilitiesInRange(DAO dao, int lid, String startDate, String endDate) throws SQLException {
         return dao.checkAvailabilitiesInRange(lid, startDate, endDate);
     }
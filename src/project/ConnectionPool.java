@@ -0,0 +1,314 @@
+package project;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* A small JDBC connection pool shared by every session using the same DAO.
+ * Connections handed out are proxies whose close() returns the physical connection to the pool. */
+public class ConnectionPool {
+
+    public static final int DEFAULT_MIN_SIZE = 2;
+    public static final int DEFAULT_MAX_SIZE = 16;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+    public static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 30 * 1000;
+    public static final String DEFAULT_VALIDATION_QUERY = "SELECT 1";
+
+    // idle connections older than this are validated before being handed out
+    private static final long VALIDATION_INTERVAL_MILLIS = 5 * 1000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long acquireTimeoutMillis;
+    private final String validationQuery;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<IdleConnection> idle = new ConcurrentLinkedDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+    // applied to every statement created on a borrowed connection, 0 for none
+    private volatile int queryTimeoutSeconds = 0;
+
+    // metrics
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    // statements created on borrowed connections, each one sent to the database at least once
+    private final AtomicLong statementCount = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password) throws SQLException {
+        this(url, user, password, DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT_MILLIS,
+                DEFAULT_VALIDATION_QUERY, DEFAULT_ACQUIRE_TIMEOUT_MILLIS);
+    }
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long idleTimeoutMillis, String validationQuery, long acquireTimeoutMillis)
+            throws SQLException {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize || idleTimeoutMillis <= 0 || acquireTimeoutMillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationQuery = validationQuery;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+
+        for (int i = 0; i < minSize; i++) {
+            idle.addFirst(new IdleConnection(DriverManager.getConnection(url, user, password)));
+        }
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /* Borrows a connection, waiting at most the acquisition timeout. Closing it returns it to the pool. */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLTimeoutException("Timed out waiting " + acquireTimeoutMillis + "ms for a connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        acquireCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        try {
+            Connection raw = takeIdle();
+            if (raw == null) {
+                raw = DriverManager.getConnection(url, user, password);
+            }
+            active.incrementAndGet();
+            return wrap(raw);
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /* Returns the most recently used idle connection that is still valid, or null if there is none. */
+    private Connection takeIdle() {
+        IdleConnection entry;
+        while ((entry = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - entry.since < VALIDATION_INTERVAL_MILLIS || isValid(entry.conn)) {
+                return entry.conn;
+            }
+            closeQuietly(entry.conn);
+        }
+        return null;
+    }
+
+    private boolean isValid(Connection conn) {
+        if (validationQuery == null) {
+            try {
+                return conn.isValid(5);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.setQueryTimeout(5);
+            stmt.execute(validationQuery);
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(Connection raw) {
+        active.decrementAndGet();
+        try {
+            if (closed || raw.isClosed()) {
+                closeQuietly(raw);
+                return;
+            }
+            // never hand a half-finished transaction to the next borrower
+            if (!raw.getAutoCommit()) {
+                raw.rollback();
+                raw.setAutoCommit(true);
+            }
+            idle.addFirst(new IdleConnection(raw));
+        } catch (SQLException e) {
+            closeQuietly(raw);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /* Closes connections that have been idle longer than the idle timeout, keeping at least minSize open. */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<IdleConnection> it = idle.descendingIterator(); // oldest first
+        while (it.hasNext()) {
+            IdleConnection entry = it.next();
+            if (idle.size() + active.get() <= minSize) {
+                break;
+            }
+            if (now - entry.since > idleTimeoutMillis && idle.remove(entry)) {
+                closeQuietly(entry.conn);
+            }
+        }
+    }
+
+    private Connection wrap(Connection raw) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean released = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getDeclaringClass() == Object.class) {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return "Pooled " + raw;
+                    }
+                }
+                switch (method.getName()) {
+                    case "close":
+                        if (!released) {
+                            released = true;
+                            release(raw);
+                        }
+                        return null;
+                    case "isClosed":
+                        return released || raw.isClosed();
+                    default:
+                        if (released) {
+                            throw new SQLException("Connection has already been returned to the pool");
+                        }
+                        Object result;
+                        try {
+                            result = method.invoke(raw, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                        if (result instanceof Statement) {
+                            statementCount.incrementAndGet();
+                            int timeout = queryTimeoutSeconds;
+                            if (timeout > 0) {
+                                ((Statement) result).setQueryTimeout(timeout);
+                            }
+                        }
+                        return result;
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+    }
+
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getQueryTimeoutSeconds() {
+        return queryTimeoutSeconds;
+    }
+
+    /* Limits how long any statement created from now on may run before the driver cancels it with an
+     * SQLTimeoutException. 0 removes the limit. */
+    public void setQueryTimeoutSeconds(int queryTimeoutSeconds) {
+        if (queryTimeoutSeconds < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getStatementCount() {
+        return statementCount.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = acquireCount.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        IdleConnection entry;
+        while ((entry = idle.pollFirst()) != null) {
+            closeQuietly(entry.conn);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "active: " + getActiveCount() + ", idle: " + getIdleCount() + ", acquired: " + getAcquireCount() +
+                ", avg wait: " + String.format("%.3f", getAverageWaitMillis()) + "ms, max wait: " +
+                String.format("%.3f", getMaxWaitMillis()) + "ms, timeouts: " + getTimeoutCount();
+    }
+
+    private static class IdleConnection {
+        private final Connection conn;
+        private final long since;
+
+        private IdleConnection(Connection conn) {
+            this.conn = conn;
+            this.since = System.currentTimeMillis();
+        }
+    }
+}
@@ -1,362 +1,1040 @@
 package project;
 
+import java.io.PrintStream;
 import java.sql.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class DAO {
 
-    public final Connection conn;
+    // max number of days written by a single multi-row INSERT into Calendars
+    private static final int RANGE_INSERT_CHUNK = 1000;
+    // rows fetched per round trip when reading a large table front to back
+    private static final int STREAM_FETCH_SIZE = 1000;
+    // times a booking is attempted when its transaction is rolled back by a deadlock or lock timeout
+    private static final int BOOKING_ATTEMPTS = 5;
+    // longest noun phrase stored; longer phrases are cut to this length
+    private static final int PHRASE_LENGTH = 255;
+    // max number of UIDs in one IN list when looking up names
+    private static final int NAME_LOOKUP_CHUNK = 1000;
+    // max number of keys in one IN list when looking up the addresses and listings of an import
+    private static final int IMPORT_LOOKUP_CHUNK = 1000;
+    // locks that listings share, by LID, while their calendars are read back into the indexes
+    private static final int LISTING_LOCK_STRIPES = 64;
+    // share of a city's active listings a host needs to be reported as dominant there
+    public static final double DOMINANT_HOST_SHARE = 0.1;
+    // hosts and renters shown in the cancellation report
+    private static final int CANCELLATION_TOP = 5;
+    // cancelled bookings starting in a range, plus those ending in it that started before it, by renter and host
+    private static final String CANCELLATIONS_QUERY = "SELECT B.RID, L.UID AS HID, COUNT(*) AS Num FROM (" +
+            "SELECT RID, LID FROM Bookings WHERE Status = 'CANCELED' AND StartDate BETWEEN ? AND ? " +
+            "UNION ALL " +
+            "SELECT RID, LID FROM Bookings WHERE Status = 'CANCELED' AND EndDate BETWEEN ? AND ? AND StartDate < ?" +
+            ") B JOIN Listings L ON L.LID = B.LID GROUP BY B.RID, L.UID";
+
+    private final ConnectionPool pool;
+    // each index is reloaded into a new instance that then replaces the old one, so a reader never sees one that
+    // is half filled
+    private volatile SpatialIndex spatialIndex = new SpatialIndex();
+    private volatile AmenityIndex amenityIndex = new AmenityIndex();
+    private volatile PriceIndex priceIndex = new PriceIndex();
+    private volatile AvailabilityIndex availabilityIndex = new AvailabilityIndex();
+    private volatile PriceCube priceCube = new PriceCube();
+    private volatile ReportAggregates reportAggregates = new ReportAggregates();
+    // writes the indexes follow hold the read side from their first statement until the indexes are updated, and a
+    // reload holds the write side from its SELECT until the new instance is in place, so no write lands in between
+    // and is lost with the old instance
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    // a listing's calendar is read back and applied to the indexes under its lock, so an older read is never
+    // applied after a newer one
+    private final Object[] listingLocks = new Object[LISTING_LOCK_STRIPES];
+    // booking transactions rolled back by a deadlock or lock timeout and tried again
+    private final AtomicLong bookingRetries = new AtomicLong();
+    private ExecutorService reportWorkers;
 
     public DAO(String dbName, String user, String password) throws SQLException {
-        String url = "jdbc:mysql://localhost/" + dbName;
-        conn = DriverManager.getConnection(url, user, password);
+        // cursor fetch lets statements with a fetch size stream their rows instead of buffering all of them
+        this(new ConnectionPool("jdbc:mysql://localhost/" + dbName + "?useCursorFetch=true", user, password));
+    }
+
+    /* Shares the given pool between every caller of this DAO. Each method borrows a connection for its own
+     * duration only, so a single DAO can be used from many threads at once. */
+    public DAO(ConnectionPool pool) {
+        this.pool = pool;
+        for (int i = 0; i < listingLocks.length; i++) {
+            listingLocks[i] = new Object();
+        }
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    public SpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    public AmenityIndex getAmenityIndex() {
+        return amenityIndex;
+    }
+
+    public PriceIndex getPriceIndex() {
+        return priceIndex;
+    }
+
+    public AvailabilityIndex getAvailabilityIndex() {
+        return availabilityIndex;
+    }
+
+    public PriceCube getPriceCube() {
+        return priceCube;
+    }
+
+    /* Booking attempts retried since this DAO was created. */
+    public long getBookingRetries() {
+        return bookingRetries.get();
+    }
+
+    public ReportAggregates getReportAggregates() {
+        return reportAggregates;
+    }
+
+    /* Loads every in-memory index and the report aggregates from the database. */
+    public void loadIndexes() throws SQLException {
+        indexLock.writeLock().lock();
+        try {
+            loadSpatialIndex();
+            loadAmenityIndex();
+            loadPriceIndex();
+            loadAvailabilityIndex();
+            loadPriceCube();
+            loadReportAggregates();
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /* Fills the spatial index with every active listing. Coordinate searches use it from then on. */
+    public void loadSpatialIndex() throws SQLException {
+        indexLock.writeLock().lock();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "SELECT LID, Latitude, Longitude FROM Listings WHERE Status='ACTIVE'")) {
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                SpatialIndex spatial = new SpatialIndex();
+                while (rs.next()) {
+                    spatial.add(rs.getInt("LID"), rs.getDouble("Latitude"), rs.getDouble("Longitude"));
+                }
+                spatial.setLoaded(true);
+                spatialIndex = spatial;
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /* Fills the amenity index with every amenity offered. Amenity filters in searches and pricing use it from then on. */
+    public void loadAmenityIndex() throws SQLException {
+        indexLock.writeLock().lock();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT LID, Description FROM Offers")) {
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                AmenityIndex amenities = new AmenityIndex();
+                while (rs.next()) {
+                    amenities.add(rs.getInt("LID"), rs.getString("Description"));
+                }
+                amenities.setLoaded(true);
+                amenityIndex = amenities;
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /* Fills the price index with a summary of every listing's available days. Price filters, price ranking and
+     * average prices use it from then on. */
+    public void loadPriceIndex() throws SQLException {
+        indexLock.writeLock().lock();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT LID, COUNT(*) AS Days, SUM(Price) AS Total, " +
+                "MIN(Price) AS MinPrice, MAX(Price) AS MaxPrice FROM Calendars WHERE Status='AVAILABLE' GROUP BY LID")) {
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                PriceIndex prices = new PriceIndex();
+                while (rs.next()) {
+                    prices.put(rs.getInt("LID"), new PriceIndex.Summary(rs.getInt("Days"),
+                            rs.getDouble("Total"), rs.getDouble("MinPrice"), rs.getDouble("MaxPrice")));
+                }
+                prices.setLoaded(true);
+                priceIndex = prices;
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /* Fills the availability index with every calendar row. Availability checks, costs and date filters in
+     * searches use it from then on. */
+    public void loadAvailabilityIndex() throws SQLException {
+        indexLock.writeLock().lock();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT LID, Day, Price, Status FROM Calendars")) {
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                AvailabilityIndex calendars = new AvailabilityIndex();
+                while (rs.next()) {
+                    calendars.set(rs.getInt("LID"), epochDay(rs.getString("Day")), rs.getDouble("Price"),
+                            rs.getString("Status"));
+                }
+                calendars.setLoaded(true);
+                availabilityIndex = calendars;
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /* Fills the price cube with every listing, its amenities and its average nightly price over its available days.
+     * Average prices and host toolkit recommendations use it from then on. */
+    public void loadPriceCube() throws SQLException {
+        indexLock.writeLock().lock();
+        try (Connection conn = pool.getConnection()) {
+            PriceCube cube = new PriceCube();
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT L.LID, L.Type, A.Country, A.City, " +
+                    "A.PostalCode, O.Description FROM Listings L JOIN Addresses A ON A.AID = L.AID " +
+                    "LEFT JOIN Offers O ON O.LID = L.LID")) {
+                stmt.setFetchSize(STREAM_FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        int lid = rs.getInt("LID");
+                        cube.addListing(lid, rs.getString("Type"), rs.getString("Country"),
+                                rs.getString("City"), rs.getString("PostalCode"));
+                        String description = rs.getString("Description");
+                        if (description != null) {
+                            cube.addAmenity(lid, description);
+                        }
+                    }
+                }
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT LID, AVG(Price) AS Price FROM Calendars " +
+                    "WHERE Status='AVAILABLE' GROUP BY LID")) {
+                stmt.setFetchSize(STREAM_FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        cube.setPrice(rs.getInt("LID"), rs.getDouble("Price"));
+                    }
+                }
+            }
+            cube.setLoaded(true);
+            priceCube = cube;
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /* Fills the report aggregates with every listing and booking. The reports use them from then on. */
+    public void loadReportAggregates() throws SQLException {
+        indexLock.writeLock().lock();
+        try (Connection conn = pool.getConnection()) {
+            ReportAggregates aggregates = new ReportAggregates();
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT L.LID, L.UID, L.Status, A.Country, A.City, " +
+                    "A.PostalCode FROM Listings L JOIN Addresses A ON A.AID = L.AID")) {
+                stmt.setFetchSize(STREAM_FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        aggregates.addListing(rs.getInt("LID"), rs.getInt("UID"), rs.getString("Country"),
+                                rs.getString("City"), rs.getString("PostalCode"),
+                                rs.getString("Status").equals("ACTIVE"));
+                    }
+                }
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT BID, RID, LID, StartDate, EndDate, Status FROM Bookings")) {
+                stmt.setFetchSize(STREAM_FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        aggregates.addBooking(rs.getInt("BID"), rs.getInt("RID"), rs.getInt("LID"),
+                                epochDay(rs.getString("StartDate")), epochDay(rs.getString("EndDate")),
+                                rs.getString("Status").equals("CANCELED"));
+                    }
+                }
+            }
+            aggregates.setLoaded(true);
+            reportAggregates = aggregates;
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /* Brings the in-memory indexes up to date after a committed write to the listing's calendar between start and
+     * end. The rows are read back under the listing's lock, so of two writers racing on the listing the one applied
+     * last read after both had committed. */
+    private void calendarChanged(Connection conn, int lid, String start, String end) throws SQLException {
+        synchronized (listingLocks[Math.floorMod(lid, listingLocks.length)]) {
+            refreshPrices(conn, lid);
+            if (availabilityIndex.isLoaded()) {
+                availabilityIndex.replaceRange(lid, epochDay(start), epochDay(end),
+                        getAvailabilitiesInRange(conn, lid, start, end));
+            }
+        }
+    }
+
+    /* Returns, for every listing with at least one run of the given number of consecutive available nights between
+     * windowStart and windowEnd, its earliest and cheapest such run. Uses the availability index once it is loaded,
+     * otherwise a single ordered pass over the window's available days. */
+    public Map<Integer, Stay> findStays(int nights, String windowStart, String windowEnd) throws SQLException {
+        if (availabilityIndex.isLoaded()) {
+            return availabilityIndex.findStays(epochDay(windowStart), epochDay(windowEnd), nights);
+        }
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT LID, Day, Price FROM Calendars " +
+                "WHERE Status='AVAILABLE' AND Day BETWEEN ? AND ? ORDER BY LID, Day")) {
+            stmt.setString(1, windowStart);
+            stmt.setString(2, windowEnd);
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                Map<Integer, Stay> result = new HashMap<>();
+                int current = -1;
+                Stay.Finder finder = null;
+                while (rs.next()) {
+                    int lid = rs.getInt("LID");
+                    if (lid != current) {
+                        if (finder != null && finder.getStay() != null) {
+                            result.put(current, finder.getStay());
+                        }
+                        current = lid;
+                        finder = new Stay.Finder(nights);
+                    }
+                    finder.add(epochDay(rs.getString("Day")), rs.getDouble("Price"));
+                }
+                if (finder != null && finder.getStay() != null) {
+                    result.put(current, finder.getStay());
+                }
+                return result;
+            }
+        }
+    }
+
+    private static long epochDay(String day) {
+        return LocalDate.parse(day, DateTimeFormatter.ISO_LOCAL_DATE).toEpochDay();
+    }
+
+    /* Recomputes the listing's price summary after a write to its calendar. Only that listing's rows are read. */
+    private void refreshPrices(Connection conn, int lid) throws SQLException {
+        if (!priceIndex.isLoaded() && !priceCube.isLoaded()) {
+            return;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) AS Days, SUM(Price) AS Total, " +
+                "MIN(Price) AS MinPrice, MAX(Price) AS MaxPrice FROM Calendars WHERE LID=? AND Status='AVAILABLE'")) {
+            stmt.setInt(1, lid);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                int days = rs.getInt("Days");
+                double total = rs.getDouble("Total");
+                if (priceIndex.isLoaded()) {
+                    priceIndex.put(lid, new PriceIndex.Summary(days, total, rs.getDouble("MinPrice"),
+                            rs.getDouble("MaxPrice")));
+                }
+                if (priceCube.isLoaded()) {
+                    priceCube.setPrice(lid, days == 0 ? Double.NaN : total / days);
+                }
+            }
+        }
     }
 
     public User getUserOnEmail(String email) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Users WHERE Email=?");
-        stmt.setString(1, email);
-        ResultSet rs = stmt.executeQuery();
-        User user = null;
-        if(rs.next()) {
-            int uid = rs.getInt("UID");
-            String sin = rs.getString("SIN");
-            String occupation = rs.getString("Occupation");
-            String password = rs.getString("Password");
-            String dob = rs.getString("DOB");
-            String name = rs.getString("Name");
-            int aid = rs.getInt("AID");
-            String status = rs.getString("Status");
-            user = new User(uid, sin, email, occupation, password, dob, name, aid, status);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Users WHERE Email=?")) {
+            stmt.setString(1, email);
+            try (ResultSet rs = stmt.executeQuery()) {
+                User user = null;
+                if(rs.next()) {
+                    int uid = rs.getInt("UID");
+                    String sin = rs.getString("SIN");
+                    String occupation = rs.getString("Occupation");
+                    String password = rs.getString("Password");
+                    String dob = rs.getString("DOB");
+                    String name = rs.getString("Name");
+                    int aid = rs.getInt("AID");
+                    String status = rs.getString("Status");
+                    user = new User(uid, sin, email, occupation, password, dob, name, aid, status);
+                }
+                return user;
+            }
         }
-        return user;
     }
     public Renter getRenterFromUser(User user) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Renters where UID=?");
-        stmt.setInt(1, user.getUid());
-        ResultSet rs = stmt.executeQuery();
-        Renter renter = null;
-        if(rs.next()) {
-            String creditCard = rs.getString("CreditCard");
-            renter = new Renter(user, creditCard);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Renters where UID=?")) {
+            stmt.setInt(1, user.getUid());
+            try (ResultSet rs = stmt.executeQuery()) {
+                Renter renter = null;
+                if(rs.next()) {
+                    String creditCard = rs.getString("CreditCard");
+                    renter = new Renter(user, creditCard);
+                }
+                return renter;
+            }
         }
-        return renter;
     }
     public Host getHostFromUser(User user) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Hosts where UID=?");
-        stmt.setInt(1, user.getUid());
-        ResultSet rs = stmt.executeQuery();
-        Host host = null;
-        if(rs.next()) {
-            host = new Host(user);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Hosts where UID=?")) {
+            stmt.setInt(1, user.getUid());
+            try (ResultSet rs = stmt.executeQuery()) {
+                Host host = null;
+                if(rs.next()) {
+                    host = new Host(user);
+                }
+                return host;
+            }
         }
-        return host;
     }
 
     public int getAddressID(String address, String city, String country, String postalCode) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT * FROM Addresses WHERE Address=? AND City=? AND Country=? AND PostalCode=?");
-        stmt.setString(1, address);
-        stmt.setString(2, city);
-        stmt.setString(3, country);
-        stmt.setString(4, postalCode);
-        ResultSet rs = stmt.executeQuery();
-        int result = -1;
-        if(rs.next()) {
-            result = rs.getInt("AID");
+        try (Connection conn = pool.getConnection()) {
+            return getAddressID(conn, address, city, country, postalCode);
+        }
+    }
+
+    private int getAddressID(Connection conn, String address, String city, String country,
+                             String postalCode) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT * FROM Addresses WHERE Address=? AND City=? AND Country=? AND PostalCode=?")) {
+            stmt.setString(1, address);
+            stmt.setString(2, city);
+            stmt.setString(3, country);
+            stmt.setString(4, postalCode);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int result = -1;
+                if(rs.next()) {
+                    result = rs.getInt("AID");
+                }
+                return result;
+            }
         }
-        return result;
     }
 
     public int getListingID(int aid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT * FROM Listings WHERE aid=?");
-        stmt.setInt(1, aid);
-        ResultSet rs = stmt.executeQuery();
-        int result = -1;
-        if (rs.next()) {
-            result = rs.getInt("LID");
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "SELECT * FROM Listings WHERE aid=?")) {
+            stmt.setInt(1, aid);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int result = -1;
+                if (rs.next()) {
+                    result = rs.getInt("LID");
+                }
+                return result;
+            }
         }
-        return result;
     }
 
     public ArrayList<String> getAmenitiesListByCategory(String category) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT * FROM Amenities WHERE category=?");
-        stmt.setString(1, category);
-        ResultSet rs = stmt.executeQuery();
-        ArrayList<String> amenities = new ArrayList<>();
-        while (rs.next()) {
-            amenities.add(rs.getString("Description"));
-        }
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "SELECT * FROM Amenities WHERE category=?")) {
+            stmt.setString(1, category);
+            try (ResultSet rs = stmt.executeQuery()) {
+                ArrayList<String> amenities = new ArrayList<>();
+                while (rs.next()) {
+                    amenities.add(rs.getString("Description"));
+                }
 
-        return amenities;
+                return amenities;
+            }
+        }
     }
 
     public ArrayList<Calendar> getAvailabilitiesInRange(int lid, String start, String end) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT * FROM Calendars WHERE lid=? AND Day BETWEEN ? AND ?");
-        stmt.setInt(1, lid);
-        stmt.setString(2, start);
-        stmt.setString(3, end);
-        ResultSet rs = stmt.executeQuery();
-        ArrayList<Calendar> result = new ArrayList<>();
-        while (rs.next()) {
-            String day = rs.getString("Day");
-            double price = rs.getDouble("Price");
-            String status = rs.getString("Status");
+        try (Connection conn = pool.getConnection()) {
+            return getAvailabilitiesInRange(conn, lid, start, end);
+        }
+    }
 
-            result.add(new Calendar(lid, day, price, status));
+    private ArrayList<Calendar> getAvailabilitiesInRange(Connection conn, int lid, String start,
+                                                         String end) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT * FROM Calendars WHERE lid=? AND Day BETWEEN ? AND ?")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, start);
+            stmt.setString(3, end);
+            try (ResultSet rs = stmt.executeQuery()) {
+                ArrayList<Calendar> result = new ArrayList<>();
+                while (rs.next()) {
+                    String day = rs.getString("Day");
+                    double price = rs.getDouble("Price");
+                    String status = rs.getString("Status");
+
+                    result.add(new Calendar(lid, day, price, status));
+                }
+                return result;
+            }
         }
-        return result;
     }
 
     /* Returns true if there are already availabilities in the given date range. */
     public boolean checkAvailabilitiesInRange(int lid, String start, String end) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT * FROM Calendars WHERE lid=? AND Day BETWEEN ? AND ? AND Status!=?");
-        stmt.setInt(1, lid);
-        stmt.setString(2, start);
-        stmt.setString(3, end);
-        stmt.setString(4, "UNAVAILABLE");
-        ResultSet rs = stmt.executeQuery();
-        return rs.next();
+        if (availabilityIndex.isLoaded()) {
+            return availabilityIndex.isOpenAny(lid, epochDay(start), epochDay(end));
+        }
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "SELECT * FROM Calendars WHERE lid=? AND Day BETWEEN ? AND ? AND Status!=?")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, start);
+            stmt.setString(3, end);
+            stmt.setString(4, "UNAVAILABLE");
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
     }
 
     /* Returns true if there is an availability with given lid, day, and status. */
     public boolean checkSingleAvailability(int lid, String day, String status) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT * FROM Calendars WHERE lid=? AND Day=? AND Status=?");
-        stmt.setInt(1, lid);
-        stmt.setString(2, day);
-        stmt.setString(3, status);
-        ResultSet rs = stmt.executeQuery();
-        return rs.next();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "SELECT * FROM Calendars WHERE lid=? AND Day=? AND Status=?")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, day);
+            stmt.setString(3, status);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
     }
 
     /* Returns true if an availability has been booked in the range. */
     public boolean checkBookedInRange(int lid, String start, String end) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT * FROM Bookings WHERE lid=? AND Status!='CANCELLED' AND (" +
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "SELECT * FROM Bookings WHERE lid=? AND Status!='CANCELED' AND (" +
                         "(StartDate BETWEEN ? AND ?) OR (EndDate BETWEEN ? AND ?)" +
-                        "OR (? BETWEEN StartDate AND EndDate) OR (? BETWEEN StartDate AND EndDate))");
-        stmt.setInt(1, lid);
-        stmt.setString(2, start);
-        stmt.setString(3, end);
-        stmt.setString(4, start);
-        stmt.setString(5, end);
-        stmt.setString(6, start);
-        stmt.setString(7, end);
-        ResultSet rs = stmt.executeQuery();
-        return rs.next();
+                        "OR (? BETWEEN StartDate AND EndDate) OR (? BETWEEN StartDate AND EndDate))")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, start);
+            stmt.setString(3, end);
+            stmt.setString(4, start);
+            stmt.setString(5, end);
+            stmt.setString(6, start);
+            stmt.setString(7, end);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
     }
 
     /* Sets all availabilities in range to "UNAVAILABLE", assuming there are no booked availabilities in range.
     * Returns the number of availabilities cancelled in the date range. */
     public int cancelAvailabilitiesInRange(int lid, String start, String end) throws SQLException {
-        LocalDate curDate = LocalDate.parse(start, DateTimeFormatter.ISO_LOCAL_DATE);
-        LocalDate endDate = LocalDate.parse(end, DateTimeFormatter.ISO_LOCAL_DATE);
-
-        endDate = endDate.plusDays(1); // add 1 day to include range's endpoints
-        int count = 0;
-
-        while (!curDate.equals(endDate)) {
-            if (checkAvailabilitiesInRange(lid, curDate.toString(), curDate.toString())) {
-                cancelAvailability(lid, curDate.toString());
-                count++;
-            }
-            curDate = curDate.plusDays(1);
+        indexLock.readLock().lock();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE Calendars SET Status='UNAVAILABLE' WHERE lid=? AND Day BETWEEN ? AND ? AND Status!=?")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, start);
+            stmt.setString(3, end);
+            stmt.setString(4, "UNAVAILABLE");
+            int count = stmt.executeUpdate();
+            calendarChanged(conn, lid, start, end);
+            return count;
+        } finally {
+            indexLock.readLock().unlock();
         }
-        return count;
     }
 
     /* Sets the status of an availability to "UNAVAILABLE". */
     public void cancelAvailability(int lid, String day) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "UPDATE Calendars SET Status='UNAVAILABLE' WHERE lid=? AND Day=?");
-        stmt.setInt(1, lid);
-        stmt.setString(2, day);
-        stmt.executeUpdate();
+        indexLock.readLock().lock();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE Calendars SET Status='UNAVAILABLE' WHERE lid=? AND Day=?")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, day);
+            stmt.executeUpdate();
+            calendarChanged(conn, lid, day, day);
+        } finally {
+            indexLock.readLock().unlock();
+        }
     }
 
     /* Updates the price of availabilities in a given date range. Returns the number of availabilities modified. */
     public int updateAvailabilityInRange(int lid, String start, String end, double price) throws SQLException {
-        LocalDate curDate = LocalDate.parse(start, DateTimeFormatter.ISO_LOCAL_DATE);
-        LocalDate endDate = LocalDate.parse(end, DateTimeFormatter.ISO_LOCAL_DATE);
-
-        endDate = endDate.plusDays(1); // add 1 day to include range's endpoints
-        int count = 0;
-
-        while (!curDate.equals(endDate)) {
-            if (checkAvailabilitiesInRange(lid, curDate.toString(), curDate.toString())) {
-                updateAvailabilityPrice(lid, curDate.toString(), price); // availability exists, so update the price
-                count++;
-            }
-            curDate = curDate.plusDays(1);
+        indexLock.readLock().lock();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE Calendars SET Price=? WHERE lid=? AND Day BETWEEN ? AND ? AND Status!=?")) {
+            stmt.setDouble(1, price);
+            stmt.setInt(2, lid);
+            stmt.setString(3, start);
+            stmt.setString(4, end);
+            stmt.setString(5, "UNAVAILABLE");
+            int count = stmt.executeUpdate();
+            calendarChanged(conn, lid, start, end);
+            return count;
+        } finally {
+            indexLock.readLock().unlock();
         }
-        return count;
     }
 
     public void updateAvailabilityPrice(int lid, String day, double price) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("UPDATE Calendars SET Price=? WHERE lid=? AND Day=?");
-        stmt.setDouble(1, price);
-        stmt.setInt(2, lid);
-        stmt.setString(3, day);
-        stmt.executeUpdate();
+        indexLock.readLock().lock();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("UPDATE Calendars SET Price=? WHERE lid=? AND Day=?")) {
+            stmt.setDouble(1, price);
+            stmt.setInt(2, lid);
+            stmt.setString(3, day);
+            stmt.executeUpdate();
+            calendarChanged(conn, lid, day, day);
+        } finally {
+            indexLock.readLock().unlock();
+        }
     }
 
     public void updateAvailabilityStatus(int lid, String day, String status) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("UPDATE Calendars SET Status=? WHERE lid=? AND Day=?");
-        stmt.setString(1, status);
-        stmt.setInt(2, lid);
-        stmt.setString(3, day);
-        stmt.executeUpdate();
+        indexLock.readLock().lock();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("UPDATE Calendars SET Status=? WHERE lid=? AND Day=?")) {
+            stmt.setString(1, status);
+            stmt.setInt(2, lid);
+            stmt.setString(3, day);
+            stmt.executeUpdate();
+            calendarChanged(conn, lid, day, day);
+        } finally {
+            indexLock.readLock().unlock();
+        }
     }
 
-    /* Returns the number of availabilities created */
+    /* Returns the number of availabilities created. Cancelled days in the range are reopened at the new price
+     * and missing days are inserted, all in one transaction; days that are already available or booked are left
+     * unmodified. Only a duplicate key skips a day, so any other failed insert still rolls the range back. */
     public int createAvailabilitiesInRange(int lid, String start, String end, double price) throws SQLException {
-        LocalDate curDate = LocalDate.parse(start, DateTimeFormatter.ISO_LOCAL_DATE);
+        LocalDate startDate = LocalDate.parse(start, DateTimeFormatter.ISO_LOCAL_DATE);
         LocalDate endDate = LocalDate.parse(end, DateTimeFormatter.ISO_LOCAL_DATE);
 
-        endDate = endDate.plusDays(1); // add 1 day to include range's endpoints
-        int count = 0;
-
-        while (!curDate.equals(endDate)) {
-            if (!checkAvailabilitiesInRange(lid, curDate.toString(), curDate.toString())) {
-                // check if there's a cancelled availability
-                if (checkSingleAvailability(lid, curDate.toString(), "UNAVAILABLE")) {
-                    // there's an availability here, so make "AVAILABLE" and update price accordingly
-                    updateAvailabilityStatus(lid, curDate.toString(), "AVAILABLE");
-                    updateAvailabilityPrice(lid, curDate.toString(), price);
-                } else {
-                    // no availability on this day, so create one
-                    createAvailability(lid, curDate.toString(), price, "AVAILABLE");
+        indexLock.readLock().lock();
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int count;
+                // reopen cancelled availabilities
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "UPDATE Calendars SET Status=?, Price=? WHERE lid=? AND Day BETWEEN ? AND ? AND Status=?")) {
+                    stmt.setString(1, "AVAILABLE");
+                    stmt.setDouble(2, price);
+                    stmt.setInt(3, lid);
+                    stmt.setString(4, start);
+                    stmt.setString(5, end);
+                    stmt.setString(6, "UNAVAILABLE");
+                    count = stmt.executeUpdate();
+                }
+                // create the days that have no availability yet, skipping the ones that already exist; the rows added
+                // are counted from the range, since what a no-op duplicate key update reports depends on the driver
+                int before = countDaysInRange(conn, lid, start, end);
+                LocalDate curDate = startDate;
+                while (!curDate.isAfter(endDate)) {
+                    int days = (int) Math.min(RANGE_INSERT_CHUNK, ChronoUnit.DAYS.between(curDate, endDate) + 1);
+                    StringBuilder query = new StringBuilder("INSERT INTO Calendars VALUES ");
+                    for (int i = 0; i < days; i++) {
+                        query.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+                    }
+                    query.append(" ON DUPLICATE KEY UPDATE LID = LID");
+                    try (PreparedStatement stmt = conn.prepareStatement(query.toString())) {
+                        for (int i = 0; i < days; i++) {
+                            stmt.setInt(4 * i + 1, lid);
+                            stmt.setString(4 * i + 2, curDate.toString());
+                            stmt.setDouble(4 * i + 3, price);
+                            stmt.setString(4 * i + 4, "AVAILABLE");
+                            curDate = curDate.plusDays(1);
+                        }
+                        stmt.executeUpdate();
+                    }
                 }
-                count++;
+                count += countDaysInRange(conn, lid, start, end) - before;
+                conn.commit();
+                calendarChanged(conn, lid, start, end);
+                return count;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private int countDaysInRange(Connection conn, int lid, String start, String end) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT COUNT(*) AS Days FROM Calendars WHERE LID = ? AND Day BETWEEN ? AND ?")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, start);
+            stmt.setString(3, end);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt("Days");
             }
-            curDate = curDate.plusDays(1);
         }
-        return count;
     }
 
     public void createAvailability(int lid, String day, double price, String status) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "INSERT INTO Calendars VALUES (?, ?, ?, ?)");
-        stmt.setInt(1, lid);
-        stmt.setString(2, day);
-        stmt.setDouble(3, price);
-        stmt.setString(4, status);
-        stmt.executeUpdate();
+        indexLock.readLock().lock();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO Calendars VALUES (?, ?, ?, ?)")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, day);
+            stmt.setDouble(3, price);
+            stmt.setString(4, status);
+            stmt.executeUpdate();
+            calendarChanged(conn, lid, day, day);
+        } finally {
+            indexLock.readLock().unlock();
+        }
     }
 
     public int createAddress(String address, String city, String country, String postalCode) throws SQLException {
-        int aid = getAddressID(address, city, country, postalCode);
-        if ( aid != -1) {
-            return aid;
+        try (Connection conn = pool.getConnection()) {
+            int aid = getAddressID(conn, address, city, country, postalCode);
+            if ( aid != -1) {
+                return aid;
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO Addresses(Address, City, Country, PostalCode) VALUES (?, ?, ?, ?)")) {
+                stmt.setString(1, address);
+                stmt.setString(2, city);
+                stmt.setString(3, country);
+                stmt.setString(4, postalCode);
+                stmt.executeUpdate();
+            }
+            return getAddressID(conn, address, city, country, postalCode);
         }
-        PreparedStatement stmt = conn.prepareStatement(
-                "INSERT INTO Addresses(Address, City, Country, PostalCode) VALUES (?, ?, ?, ?)");
-        stmt.setString(1, address);
-        stmt.setString(2, city);
-        stmt.setString(3, country);
-        stmt.setString(4, postalCode);
-        stmt.executeUpdate();
-        return getAddressID(address, city, country, postalCode);
     }
 
     public int createUser(String sin, String name, String dob, String occupation, String email,
                               String password, int aid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
                 "INSERT INTO Users(SIN, Name, DOB, Occupation, Email, Password, AID, Status) " +
-                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
-        stmt.setString(1, sin);
-        stmt.setString(2, name);
-        stmt.setString(3, dob);
-        stmt.setString(4, occupation);
-        stmt.setString(5, email);
-        stmt.setString(6, password);
-        stmt.setInt(7, aid);
-        stmt.setString(8, "ACTIVE");
-        stmt.executeUpdate();
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+            stmt.setString(1, sin);
+            stmt.setString(2, name);
+            stmt.setString(3, dob);
+            stmt.setString(4, occupation);
+            stmt.setString(5, email);
+            stmt.setString(6, password);
+            stmt.setInt(7, aid);
+            stmt.setString(8, "ACTIVE");
+            stmt.executeUpdate();
+        }
         return getUserOnEmail(email).getUid();
     }
 
     public void createRenter(int uid, String creditCard) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("INSERT INTO Renters VALUES (?, ?)");
-        stmt.setInt(1, uid);
-        stmt.setString(2, creditCard);
-        stmt.executeUpdate();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("INSERT INTO Renters VALUES (?, ?)")) {
+            stmt.setInt(1, uid);
+            stmt.setString(2, creditCard);
+            stmt.executeUpdate();
+        }
     }
 
     public void createHost(int uid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("INSERT INTO Hosts VALUES (?)");
-        stmt.setInt(1, uid);
-        stmt.executeUpdate();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("INSERT INTO Hosts VALUES (?)")) {
+            stmt.setInt(1, uid);
+            stmt.executeUpdate();
+        }
     }
 
-    public void createView(String view, String query) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("CREATE VIEW "+view+" AS ("+query+")");
-        stmt.execute();
-    }
+    /* Runs a listing search as a single parameterized query. Once the spatial index is loaded, coordinate searches
+     * look up nearby listings in memory instead of computing the distance to every listing in SQL. Likewise, once
+     * the amenity index is loaded, amenity filters are checked against its bitsets instead of grouping Offers. Once
+     * the availability and price indexes are loaded, date ranges are checked against the availability bitmaps and
+     * prices are filtered and ranked by the price summaries, instead of aggregating Calendars. */
+    public ArrayList<Listing> searchListings(ListingSearch search) throws SQLException {
+        ResolvedSearch resolved = new ResolvedSearch(search, false);
+        if (resolved.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-    public void deleteView(String view) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("DROP VIEW IF EXISTS "+view);
-        stmt.execute();
+        List<Object> params = new ArrayList<>();
+        String query = search.toSql(params, resolved.getNearby(), resolved.getResolved());
+
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            for (int i = 0; i < params.size(); i++) {
+                stmt.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                ArrayList<Listing> result = new ArrayList<>();
+                while(rs.next()) {
+                    Listing listing = resolved.read(rs);
+                    if (listing != null) {
+                        result.add(listing);
+                    }
+                }
+                resolved.sort(result);
+                return result;
+            }
+        }
     }
 
-    public ArrayList<Listing> getListingsFromView(String view, String str,
-                                                  boolean coordinateSearch) throws SQLException {
-        PreparedStatement stmt;
+    /* Returns one page of at most pageSize results in the search's sort key order, continuing after the page that
+     * returned token, or from the start if token is null. Rows are read in keyset order, pageSize + 1 at a time,
+     * so memory stays bounded by the page size however large the catalog is. */
+    public ListingPage searchListings(ListingSearch search, int pageSize, String token) throws SQLException {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        ResolvedSearch resolved = new ResolvedSearch(search, true);
+        List<Listing> listings = new ArrayList<>();
+        if (resolved.isEmpty()) {
+            return new ListingPage(listings, null);
+        }
 
-        if (str.equals("ASC") || str.equals("DESC")) {
-            stmt = conn.prepareStatement("SELECT L.*, AVG(Price) AS Price FROM "+view+" L, Calendars C " +
-                    "WHERE L.LID=C.LID GROUP BY L.LID ORDER BY Price " + str);
-        } else {
-            stmt = conn.prepareStatement("(SELECT L.*, AVG(Price) AS Price FROM "+view+" L, Calendars C " +
-                    "WHERE L.LID=C.LID GROUP BY L.LID) UNION (SELECT L.*, -1 AS Price FROM "+view+" L, Calendars C " +
-                    "WHERE L.LID NOT IN (SELECT LID FROM Calendars))");
+        Double afterKey = token == null ? null : ListingPage.keyOf(token);
+        Integer afterLid = token == null ? null : ListingPage.lidOf(token);
+        String lastToken = token;
+        try (Connection conn = pool.getConnection()) {
+            while (true) {
+                List<Object> params = new ArrayList<>();
+                String query = search.toPageSql(params, resolved.getNearby(), resolved.getResolved(),
+                        afterKey, afterLid, pageSize + 1);
+                int rows = 0;
+                try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                    for (int i = 0; i < params.size(); i++) {
+                        stmt.setObject(i + 1, params.get(i));
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            rows++;
+                            afterLid = rs.getInt("LID");
+                            afterKey = resolved.sortKey(rs);
+                            Listing listing = resolved.read(rs);
+                            if (listing == null) {
+                                continue;
+                            }
+                            if (listings.size() == pageSize) {
+                                // another match exists, so this page ends at the last one kept
+                                return new ListingPage(listings, lastToken);
+                            }
+                            listings.add(listing);
+                            lastToken = ListingPage.token(afterKey, afterLid);
+                        }
+                    }
+                }
+                // rows rejected in memory may leave the page short, in which case read on from the last row seen
+                if (rows <= pageSize) {
+                    return new ListingPage(listings, null);
+                }
+            }
         }
+    }
 
-        ResultSet rs = stmt.executeQuery();
-        ArrayList<Listing> result = new ArrayList<>();
-        while(rs.next()) {
-            int lid = rs.getInt("LID");
-            String type = rs.getString("Type");
-            double latitude = rs.getDouble("Latitude");
-            double longitude = rs.getDouble("Longitude");
+    /* Streams the results of a search in sort key order through a forward-only result set fetched in batches.
+     * The cursor keeps a pooled connection until it is closed. */
+    public ListingCursor streamListings(ListingSearch search) throws SQLException {
+        ResolvedSearch resolved = new ResolvedSearch(search, true);
+        if (resolved.isEmpty()) {
+            return new ListingCursor(resolved, null, null, null);
+        }
 
-            int aid = rs.getInt("AID");
-            String address = rs.getString("Address");
-            String city = rs.getString("City");
-            String country = rs.getString("Country");
-            String postalCode = rs.getString("PostalCode");
+        List<Object> params = new ArrayList<>();
+        String query = search.toPageSql(params, resolved.getNearby(), resolved.getResolved(), null, null, 0);
+        Connection conn = pool.getConnection();
+        try {
+            PreparedStatement stmt = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            for (int i = 0; i < params.size(); i++) {
+                stmt.setObject(i + 1, params.get(i));
+            }
+            return new ListingCursor(resolved, conn, stmt, stmt.executeQuery());
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+    }
 
-            Address newAddress = new Address(aid, address, city, country, postalCode);
+    /* Listings of a streamed search, read one row at a time. */
+    public static class ListingCursor implements AutoCloseable {
+        private final ResolvedSearch resolved;
+        private final Connection conn;
+        private final Statement stmt;
+        private final ResultSet rs;
 
-            double price = rs.getDouble("Price");
-            String aux = price == -1 ? "" : "Price: " + price;
+        private ListingCursor(ResolvedSearch resolved, Connection conn, Statement stmt, ResultSet rs) {
+            this.resolved = resolved;
+            this.conn = conn;
+            this.stmt = stmt;
+            this.rs = rs;
+        }
 
-            if (coordinateSearch) {
-                aux += " Distance: " + rs.getDouble("Distance");
+        /* Returns the next matching listing, or null once there are no more. */
+        public Listing next() throws SQLException {
+            while (rs != null && rs.next()) {
+                Listing listing = resolved.read(rs);
+                if (listing != null) {
+                    return listing;
+                }
             }
+            return null;
+        }
 
-            result.add(new Listing(lid, type, latitude, longitude, newAddress, aux));
+        @Override
+        public void close() throws SQLException {
+            if (conn != null) {
+                try {
+                    rs.close();
+                    stmt.close();
+                } finally {
+                    conn.close();
+                }
+            }
         }
-        return result;
     }
 
-    public ArrayList<Listing> getListingsFromHost(int hid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "SELECT * FROM Listings NATURAL JOIN Addresses WHERE uid=? AND status='ACTIVE'");
-        stmt.setInt(1, hid);
-        
-        ResultSet rs = stmt.executeQuery();
-        ArrayList<Listing> result = new ArrayList<>();
-        while(rs.next()) {
+    /* A search with the predicates the in-memory indexes can answer already resolved, which turns the rows of its
+     * query into listings. Paged searches take their sort key from the query, so they never resolve the price when
+     * ranking by price. */
+    private class ResolvedSearch {
+        private final ListingSearch search;
+        private final EnumSet<ListingSearch.Resolved> resolved = EnumSet.noneOf(ListingSearch.Resolved.class);
+        private LinkedHashMap<Integer, Double> distances = null;
+        private BitSet offering = null;
+        private Map<Integer, Stay> stays = null;
+        private final boolean indexedDates;
+        private final long firstDay;
+        private final long lastDay;
+        private final boolean indexedPrices;
+        private final Map<Integer, Double> prices = new HashMap<>();
+
+        private ResolvedSearch(ListingSearch search, boolean paged) throws SQLException {
+            this.search = search;
+            if (search.isClosestSearch() && spatialIndex.isLoaded()) {
+                distances = spatialIndex.nearest(search.getLatitude(), search.getLongitude(), search.getClosest());
+                resolved.add(ListingSearch.Resolved.COORDINATE);
+            } else if (search.isCoordinateSearch() && spatialIndex.isLoaded()) {
+                distances = spatialIndex.withinRadius(search.getLatitude(), search.getLongitude(),
+                        search.getDistance());
+                resolved.add(ListingSearch.Resolved.COORDINATE);
+            }
+            if (!search.getAmenities().isEmpty() && amenityIndex.isLoaded()) {
+                offering = amenityIndex.listingsOfferingAll(search.getAmenities());
+                if (distances != null) {
+                    distances.keySet().removeIf(lid -> !offering.get(lid));
+                }
+                resolved.add(ListingSearch.Resolved.AMENITIES);
+            }
+            if (search.hasFlexibleDates()) {
+                stays = findStays(search.getNights(), search.getWindowStart(), search.getWindowEnd());
+                if (distances != null) {
+                    distances.keySet().removeIf(lid -> !stays.containsKey(lid));
+                }
+            }
+            indexedDates = search.hasDateRange() && availabilityIndex.isLoaded();
+            firstDay = indexedDates ? epochDay(search.getStartDate()) : 0;
+            lastDay = indexedDates ? epochDay(search.getEndDate()) : 0;
+            if (indexedDates) {
+                if (distances != null) {
+                    distances.keySet().removeIf(lid -> !availabilityIndex.isAvailable(lid, firstDay, lastDay));
+                }
+                resolved.add(ListingSearch.Resolved.DATES);
+            }
+            indexedPrices = priceIndex.isLoaded() &&
+                    !(paged && search.getSortKey() == ListingSearch.SortKey.PRICE);
+            if (indexedPrices) {
+                resolved.add(ListingSearch.Resolved.PRICE);
+            }
+        }
+
+        /* True if the indexes already show that no listing matches. */
+        private boolean isEmpty() {
+            return (distances != null && distances.isEmpty()) || (offering != null && offering.isEmpty()) ||
+                    (stays != null && stays.isEmpty());
+        }
+
+        private EnumSet<ListingSearch.Resolved> getResolved() {
+            return resolved;
+        }
+
+        private Collection<Integer> getNearby() {
+            return distances == null ? null : distances.keySet();
+        }
+
+        /* The sort key of the current row of a paged query. */
+        private double sortKey(ResultSet rs) throws SQLException {
+            switch (search.getSortKey()) {
+                case PRICE:
+                    return rs.getDouble("Price");
+                case DISTANCE:
+                    return rs.getDouble("Distance");
+                default:
+                    return 0;
+            }
+        }
+
+        /* Returns the listing in the current row, or null if a predicate resolved in memory rejects it. */
+        private Listing read(ResultSet rs) throws SQLException {
             int lid = rs.getInt("LID");
+            // a query over too many nearby listings to name only keeps to their bounding box
+            if (distances != null && !distances.containsKey(lid)) {
+                return null;
+            }
+            if (offering != null && !offering.get(lid)) {
+                return null;
+            }
+            if (indexedDates && !availabilityIndex.isAvailable(lid, firstDay, lastDay)) {
+                return null;
+            }
+            if (stays != null && !stays.containsKey(lid)) {
+                return null;
+            }
+            String aux = "";
+            if (indexedPrices) {
+                PriceIndex.Summary summary = priceIndex.get(lid);
+                if (summary == null) {
+                    // like the SQL ranking, ranges and ranking only consider listings with available days
+                    if (search.hasPriceRange() || search.isOrderedByPrice()) {
+                        return null;
+                    }
+                } else {
+                    double price = summary.getAverage();
+                    if (search.hasPriceRange() && (price < search.getMinPrice() || price > search.getMaxPrice())) {
+                        return null;
+                    }
+                    prices.put(lid, price);
+                    aux = "Price: " + price;
+                }
+            } else {
+                double price = rs.getDouble("Price");
+                aux = rs.wasNull() ? "" : "Price: " + price;
+            }
             String type = rs.getString("Type");
             double latitude = rs.getDouble("Latitude");
             double longitude = rs.getDouble("Longitude");
@@ -368,713 +1046,1767 @@ public class DAO {
             String postalCode = rs.getString("PostalCode");
 
             Address newAddress = new Address(aid, address, city, country, postalCode);
-            result.add(new Listing(lid, type, latitude, longitude, newAddress));
+
+            if (distances != null) {
+                aux += " Distance: " + distances.get(lid);
+            } else if (search.isCoordinateSearch()) {
+                aux += " Distance: " + rs.getDouble("Distance");
+            }
+            if (stays != null) {
+                aux += " " + stays.get(lid);
+            }
+            return new Listing(lid, type, latitude, longitude, newAddress, aux);
+        }
+
+        /* Orders the results of an unpaged search by the keys that were resolved in memory. */
+        private void sort(List<Listing> result) {
+            if (indexedPrices && search.isOrderedByPrice()) {
+                Comparator<Listing> byPrice = Comparator.comparingDouble(listing -> prices.get(listing.getLid()));
+                result.sort(search.isDescendingByPrice() ? byPrice.reversed() : byPrice);
+            } else if (distances != null && !search.isOrderedByPrice()) {
+                result.sort(Comparator.comparingDouble(listing -> distances.get(listing.getLid())));
+            }
+        }
+    }
+
+    public ArrayList<Listing> getListingsFromHost(int hid) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                "SELECT * FROM Listings NATURAL JOIN Addresses WHERE uid=? AND status='ACTIVE'")) {
+            stmt.setInt(1, hid);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                ArrayList<Listing> result = new ArrayList<>();
+                while(rs.next()) {
+                    int lid = rs.getInt("LID");
+                    String type = rs.getString("Type");
+                    double latitude = rs.getDouble("Latitude");
+                    double longitude = rs.getDouble("Longitude");
+
+                    int aid = rs.getInt("AID");
+                    String address = rs.getString("Address");
+                    String city = rs.getString("City");
+                    String country = rs.getString("Country");
+                    String postalCode = rs.getString("PostalCode");
+
+                    Address newAddress = new Address(aid, address, city, country, postalCode);
+                    result.add(new Listing(lid, type, latitude, longitude, newAddress));
+                }
+                return result;
+            }
         }
-        return result;
     }
 
     public int createListing(int hid, String type, double latitude, double longitude, int aid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement(
-                "INSERT INTO Listings(UID, Type, Latitude, Longitude, AID, Status) " +
-                        "VALUES (?, ?, ?, ?, ?, ?)");
-        stmt.setInt(1, hid);
-        stmt.setString(2, type);
-        stmt.setDouble(3, latitude);
-        stmt.setDouble(4, longitude);
-        stmt.setInt(5, aid);
-        stmt.setString(6, "ACTIVE");
-        stmt.executeUpdate();
-        return getListingID(aid);
+        indexLock.readLock().lock();
+        try {
+            try (Connection conn = pool.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO Listings(UID, Type, Latitude, Longitude, AID, Status) " +
+                            "VALUES (?, ?, ?, ?, ?, ?)")) {
+                stmt.setInt(1, hid);
+                stmt.setString(2, type);
+                stmt.setDouble(3, latitude);
+                stmt.setDouble(4, longitude);
+                stmt.setInt(5, aid);
+                stmt.setString(6, "ACTIVE");
+                stmt.executeUpdate();
+            }
+            int lid = getListingID(aid);
+            spatialIndex.add(lid, latitude, longitude);
+            if (priceCube.isLoaded() || reportAggregates.isLoaded()) {
+                try (Connection conn = pool.getConnection();
+                     PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT Country, City, PostalCode FROM Addresses WHERE AID = ?")) {
+                    stmt.setInt(1, aid);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            priceCube.addListing(lid, type, rs.getString("Country"), rs.getString("City"),
+                                    rs.getString("PostalCode"));
+                            reportAggregates.addListing(lid, hid, rs.getString("Country"), rs.getString("City"),
+                                    rs.getString("PostalCode"), true);
+                        }
+                    }
+                }
+            }
+            return lid;
+        } finally {
+            indexLock.readLock().unlock();
+        }
     }
 
     public void offerAmenity(int lid, String description) throws SQLException{
-        PreparedStatement stmt = conn.prepareStatement("INSERT INTO Offers VALUES (?, ?)");
-        stmt.setInt(1, lid);
-        stmt.setString(2, description);
-        stmt.executeUpdate();
+        indexLock.readLock().lock();
+        try {
+            try (Connection conn = pool.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("INSERT INTO Offers VALUES (?, ?)")) {
+                stmt.setInt(1, lid);
+                stmt.setString(2, description);
+                stmt.executeUpdate();
+            }
+            amenityIndex.add(lid, description);
+            priceCube.addAmenity(lid, description);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /* Creates the host's listings, with their addresses, amenities and availability, in one transaction of a few
+     * multi-row statements for the whole batch, where createListing and offerAmenity take several round trips per
+     * listing. Every row comes back with its new LID, or with the reason it was not created: its address already
+     * has a listing, or is repeated by an earlier row of the batch. If the transaction fails, the rows are retried
+     * one at a time, so only those at fault are lost. */
+    public List<ListingImporter.Row> importListings(int hid, List<ListingImporter.Row> rows) throws SQLException {
+        indexLock.readLock().lock();
+        try {
+            List<ListingImporter.Row> created = null;
+            try (Connection conn = pool.getConnection()) {
+                conn.setAutoCommit(false);
+                try {
+                    created = insertListings(conn, hid, rows);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    if (rows.size() == 1) {
+                        rows.get(0).setLid(-1);
+                        rows.get(0).setError("Could not be saved: " + e.getMessage());
+                        return rows;
+                    }
+                }
+            }
+            if (created == null) {
+                for (ListingImporter.Row row : rows) {
+                    row.setLid(-1);
+                    row.setError(null);
+                    importListings(hid, List.of(row));
+                }
+                return rows;
+            }
+            for (ListingImporter.Row row : created) {
+                listingImported(hid, row);
+            }
+            return rows;
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /* Writes the rows that can be created and returns them, with their LIDs set. Nothing is committed. */
+    private List<ListingImporter.Row> insertListings(Connection conn, int hid, List<ListingImporter.Row> rows)
+            throws SQLException {
+        // find the rows' addresses, adding those that are new
+        Set<List<String>> keys = new HashSet<>();
+        for (ListingImporter.Row row : rows) {
+            keys.add(addressKey(row));
+        }
+        Map<List<String>, Integer> aids = findAddresses(conn, keys);
+        if (aids.size() < keys.size()) {
+            try (BulkInsert addresses = new BulkInsert(conn, "Addresses", "Address", "City", "Country",
+                    "PostalCode")) {
+                for (List<String> key : keys) {
+                    if (!aids.containsKey(key)) {
+                        addresses.add(key.toArray());
+                    }
+                }
+                addresses.flush();
+            }
+            keys.removeAll(aids.keySet());
+            aids.putAll(findAddresses(conn, keys));
+        }
+
+        // one listing per address, as getListingID assumes; the address rows stay locked until the transaction
+        // ends, so a concurrent import at the same address waits and then finds this listing
+        Set<Integer> listed = findListed(conn, aids.values());
+        Map<Integer, ListingImporter.Row> claimed = new HashMap<>();
+        List<ListingImporter.Row> created = new ArrayList<>();
+        try (BulkInsert listings = BulkInsert.returningKeys(conn, "Listings", "UID", "Type", "Latitude", "Longitude",
+                "AID", "Status")) {
+            for (ListingImporter.Row row : rows) {
+                int aid = aids.get(addressKey(row));
+                if (listed.contains(aid)) {
+                    row.setError("The address already has a listing");
+                } else if (claimed.containsKey(aid)) {
+                    row.setError("The address is also on line " + claimed.get(aid).getLine());
+                } else {
+                    claimed.put(aid, row);
+                    created.add(row);
+                    listings.add(hid, row.getType(), row.getLatitude(), row.getLongitude(), aid, "ACTIVE");
+                }
+            }
+            listings.flush();
+            for (int i = 0; i < created.size(); i++) {
+                created.get(i).setLid(listings.getGeneratedKeys().get(i));
+            }
+        }
+
+        try (BulkInsert offers = new BulkInsert(conn, "Offers", "LID", "Description");
+             BulkInsert calendars = new BulkInsert(conn, "Calendars", "LID", "Day", "Price", "Status")) {
+            for (ListingImporter.Row row : created) {
+                for (String description : row.getAmenities()) {
+                    offers.add(row.getLid(), description);
+                }
+                for (ListingImporter.Range range : row.getAvailability()) {
+                    LocalDate day = range.getStart();
+                    while (!day.isAfter(range.getEnd())) {
+                        calendars.add(row.getLid(), day.toString(), range.getPrice(), "AVAILABLE");
+                        day = day.plusDays(1);
+                    }
+                }
+            }
+            offers.flush();
+            calendars.flush();
+        }
+        return created;
+    }
+
+    private static List<String> addressKey(ListingImporter.Row row) {
+        return List.of(row.getAddress(), row.getCity(), row.getCountry(), row.getPostalCode());
+    }
+
+    /* The AIDs of those of the addresses that exist, each a list of address, city, country and postal code. The
+     * rows read are locked for the rest of the transaction. */
+    private Map<List<String>, Integer> findAddresses(Connection conn, Collection<List<String>> keys)
+            throws SQLException {
+        Set<String> streets = new HashSet<>();
+        for (List<String> key : keys) {
+            streets.add(key.get(0));
+        }
+        List<String> distinct = new ArrayList<>(streets);
+        Map<List<String>, Integer> aids = new HashMap<>();
+        for (int from = 0; from < distinct.size(); from += IMPORT_LOOKUP_CHUNK) {
+            List<String> chunk = distinct.subList(from, Math.min(distinct.size(), from + IMPORT_LOOKUP_CHUNK));
+            String marks = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT AID, Address, City, Country, PostalCode FROM Addresses WHERE Address IN (" + marks + ") " +
+                    "FOR UPDATE")) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setString(i + 1, chunk.get(i));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        List<String> key = List.of(rs.getString("Address"), rs.getString("City"),
+                                rs.getString("Country"), rs.getString("PostalCode"));
+                        if (keys.contains(key)) {
+                            aids.putIfAbsent(key, rs.getInt("AID"));
+                        }
+                    }
+                }
+            }
+        }
+        return aids;
+    }
+
+    /* Those of the addresses that already have a listing. */
+    private Set<Integer> findListed(Connection conn, Collection<Integer> aids) throws SQLException {
+        List<Integer> distinct = new ArrayList<>(new HashSet<>(aids));
+        Set<Integer> listed = new HashSet<>();
+        for (int from = 0; from < distinct.size(); from += IMPORT_LOOKUP_CHUNK) {
+            List<Integer> chunk = distinct.subList(from, Math.min(distinct.size(), from + IMPORT_LOOKUP_CHUNK));
+            String marks = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT AID FROM Listings WHERE AID IN (" + marks + ")")) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setInt(i + 1, chunk.get(i));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        listed.add(rs.getInt("AID"));
+                    }
+                }
+            }
+        }
+        return listed;
+    }
+
+    /* Brings the in-memory indexes up to date with an imported listing. Its calendar is known in full, so nothing
+     * is read back. */
+    private void listingImported(int hid, ListingImporter.Row row) {
+        int lid = row.getLid();
+        spatialIndex.add(lid, row.getLatitude(), row.getLongitude());
+        if (priceCube.isLoaded() || reportAggregates.isLoaded()) {
+            priceCube.addListing(lid, row.getType(), row.getCountry(), row.getCity(), row.getPostalCode());
+            reportAggregates.addListing(lid, hid, row.getCountry(), row.getCity(), row.getPostalCode(), true);
+        }
+        for (String description : row.getAmenities()) {
+            amenityIndex.add(lid, description);
+            priceCube.addAmenity(lid, description);
+        }
+        int days = 0;
+        double total = 0;
+        double min = 0;
+        double max = 0;
+        for (ListingImporter.Range range : row.getAvailability()) {
+            for (long day = range.getStart().toEpochDay(); day <= range.getEnd().toEpochDay(); day++) {
+                if (availabilityIndex.isLoaded()) {
+                    availabilityIndex.set(lid, day, range.getPrice(), "AVAILABLE");
+                }
+                min = days == 0 ? range.getPrice() : Math.min(min, range.getPrice());
+                max = days == 0 ? range.getPrice() : Math.max(max, range.getPrice());
+                total += range.getPrice();
+                days++;
+            }
+        }
+        if (priceIndex.isLoaded()) {
+            priceIndex.put(lid, new PriceIndex.Summary(days, total, min, max));
+        }
+        if (priceCube.isLoaded()) {
+            priceCube.setPrice(lid, days == 0 ? Double.NaN : total / days);
+        }
     }
 
     public Booking getBooking(int lid, String startDate, String endDate) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Bookings " +
-                "WHERE LID = ? AND StartDate = ? AND endDate = ?");
-        stmt.setInt(1, lid);
-        stmt.setString(2, startDate);
-        stmt.setString(3, endDate);
-
-        ResultSet rs = stmt.executeQuery();
-        Booking booking = null;
-        if (rs.next()) {
-            int bid = rs.getInt("BID");
-            int rid = rs.getInt("RID");
-            Double cost = rs.getDouble("Cost");
-            String status = rs.getString("Status");
-            String review = rs.getString("Review");
-            int rating = rs.getInt("Rating");
-            booking = new Booking(bid, rid, lid, startDate, endDate, cost, status, review, rating);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Bookings " +
+                "WHERE LID = ? AND StartDate = ? AND endDate = ?")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, startDate);
+            stmt.setString(3, endDate);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                Booking booking = null;
+                if (rs.next()) {
+                    int bid = rs.getInt("BID");
+                    int rid = rs.getInt("RID");
+                    Double cost = rs.getDouble("Cost");
+                    String status = rs.getString("Status");
+                    String review = rs.getString("Review");
+                    int rating = rs.getInt("Rating");
+                    booking = new Booking(bid, rid, lid, startDate, endDate, cost, status, review, rating);
+                }
+                return booking;
+            }
         }
-        return booking;
     }
 
     public boolean checkAvailability(int lid, String startDate, String endDate) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT LID FROM Calendars C " +
+        if (availabilityIndex.isLoaded()) {
+            return availabilityIndex.isAvailable(lid, epochDay(startDate), epochDay(endDate));
+        }
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT LID FROM Calendars C " +
                 "WHERE Status='AVAILABLE' AND LID = ? AND Day BETWEEN ? AND ? " +
-                "GROUP BY LID HAVING COUNT(*)=DATEDIFF(?, ?)+1");
-        stmt.setInt(1, lid);
-        stmt.setString(2, startDate);
-        stmt.setString(3, endDate);
-        stmt.setString(4, endDate);
-        stmt.setString(5, startDate);
-        return stmt.executeQuery().next();
+                "GROUP BY LID HAVING COUNT(*)=DATEDIFF(?, ?)+1")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, startDate);
+            stmt.setString(3, endDate);
+            stmt.setString(4, endDate);
+            stmt.setString(5, startDate);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    public double getCost(int lid, String startDate, String endDate) throws SQLException {
+        if (availabilityIndex.isLoaded()) {
+            return availabilityIndex.cost(lid, epochDay(startDate), epochDay(endDate));
+        }
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT SUM(Price) as Cost FROM Calendars " +
+                "WHERE LID = ? AND Day BETWEEN ? AND ?")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, startDate);
+            stmt.setString(3, endDate);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getDouble("Cost");
+                }
+                return -1;
+            }
+        }
     }
 
-    public double getCost(int lid, String startDate, String endDate) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT SUM(Price) as Cost FROM Calendars " +
-                "WHERE LID = ? AND Day BETWEEN ? AND ?");
-        stmt.setInt(1, lid);
-        stmt.setString(2, startDate);
-        stmt.setString(3, endDate);
-        ResultSet rs = stmt.executeQuery();
-        if (rs.next()) {
-            return rs.getDouble("Cost");
+    public void updateCalendar(int lid, String startDate, String endDate, String status) throws SQLException {
+        indexLock.readLock().lock();
+        try (Connection conn = pool.getConnection()) {
+            updateCalendar(conn, lid, startDate, endDate, status);
+            calendarChanged(conn, lid, startDate, endDate);
+        } finally {
+            indexLock.readLock().unlock();
         }
-        return -1;
     }
 
-    public void updateCalendar(int lid, String startDate, String endDate, String status) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("UPDATE Calendars SET Status = ? " +
-                "WHERE LID = ? AND Day BETWEEN ? AND ?");
-        stmt.setString(1, status);
-        stmt.setInt(2, lid);
-        stmt.setString(3, startDate);
-        stmt.setString(4, endDate);
-        stmt.executeUpdate();
+    private void updateCalendar(Connection conn, int lid, String startDate, String endDate,
+                                String status) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("UPDATE Calendars SET Status = ? " +
+                "WHERE LID = ? AND Day BETWEEN ? AND ?")) {
+            stmt.setString(1, status);
+            stmt.setInt(2, lid);
+            stmt.setString(3, startDate);
+            stmt.setString(4, endDate);
+            stmt.executeUpdate();
+        }
     }
 
     public Booking createBooking(int rid, int lid, String startDate,
                                  String endDate, double cost) throws SQLException {
         // update calendar
         // create a new booking given listing and date range if available
-        PreparedStatement stmt = conn.prepareStatement("INSERT INTO " +
-                "Bookings(RID, LID, StartDate, EndDate, Cost, Status) VALUES(?, ?, ?, ?, ?, 'UPCOMING')");
-        stmt.setInt(1, rid);
-        stmt.setInt(2, lid);
-        stmt.setString(3, startDate);
-        stmt.setString(4, endDate);
-        stmt.setDouble(5, cost);
-        stmt.executeUpdate();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("INSERT INTO " +
+                "Bookings(RID, LID, StartDate, EndDate, Cost, Status) VALUES(?, ?, ?, ?, ?, 'UPCOMING')")) {
+            stmt.setInt(1, rid);
+            stmt.setInt(2, lid);
+            stmt.setString(3, startDate);
+            stmt.setString(4, endDate);
+            stmt.setDouble(5, cost);
+            stmt.executeUpdate();
+        }
 
         return getBooking(lid, startDate, endDate);
     }
 
+    /* Books every day of the range for the renter in one transaction. The calendar rows are locked while they are
+     * checked, so two renters racing for the same dates cannot both succeed. Returns null if the listing is not
+     * available for the whole range. */
+    public Booking reserveBooking(int rid, int lid, String startDate, String endDate) throws SQLException {
+        long days = ChronoUnit.DAYS.between(LocalDate.parse(startDate, DateTimeFormatter.ISO_LOCAL_DATE),
+                LocalDate.parse(endDate, DateTimeFormatter.ISO_LOCAL_DATE)) + 1;
+        if (days <= 0) {
+            return null;
+        }
+
+        indexLock.readLock().lock();
+        try {
+            return reserveBooking(rid, lid, startDate, endDate, days);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private Booking reserveBooking(int rid, int lid, String startDate, String endDate, long days) throws SQLException {
+        Booking booking;
+        for (int attempt = 1; ; attempt++) {
+            try (Connection conn = pool.getConnection()) {
+                conn.setAutoCommit(false);
+                try {
+                    booking = reserveBooking(conn, rid, lid, startDate, endDate, days);
+                    conn.commit();
+                    break;
+                } catch (SQLException e) {
+                    conn.rollback();
+                    // deadlocks and lock wait timeouts are safe to retry since nothing was committed
+                    if (!(e instanceof SQLTransactionRollbackException) || attempt >= BOOKING_ATTEMPTS) {
+                        throw e;
+                    }
+                    bookingRetries.incrementAndGet();
+                }
+            }
+            try {
+                Thread.sleep((long) (Math.random() * 10 * attempt));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while retrying booking", ie);
+            }
+        }
+        if (booking != null) {
+            try (Connection conn = pool.getConnection()) {
+                calendarChanged(conn, lid, startDate, endDate);
+            }
+            reportAggregates.addBooking(booking.getBid(), rid, lid, epochDay(startDate), epochDay(endDate), false);
+        }
+        return booking;
+    }
+
+    private Booking reserveBooking(Connection conn, int rid, int lid, String startDate, String endDate,
+                                   long days) throws SQLException {
+        int available = 0;
+        double cost = 0;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT Price, Status FROM Calendars " +
+                "WHERE LID = ? AND Day BETWEEN ? AND ? FOR UPDATE")) {
+            stmt.setInt(1, lid);
+            stmt.setString(2, startDate);
+            stmt.setString(3, endDate);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (rs.getString("Status").equals("AVAILABLE")) {
+                        available++;
+                    }
+                    cost += rs.getDouble("Price");
+                }
+            }
+        }
+        if (available != days) {
+            return null;
+        }
+
+        updateCalendar(conn, lid, startDate, endDate, "BOOKED");
+
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO " +
+                "Bookings(RID, LID, StartDate, EndDate, Cost, Status) VALUES(?, ?, ?, ?, ?, 'UPCOMING')",
+                Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setInt(1, rid);
+            stmt.setInt(2, lid);
+            stmt.setString(3, startDate);
+            stmt.setString(4, endDate);
+            stmt.setDouble(5, cost);
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("Booking was created but no BID was returned");
+                }
+                return new Booking(keys.getInt(1), rid, lid, startDate, endDate, cost, "UPCOMING", null, 0);
+            }
+        }
+    }
+
     public List<Booking> getRentersBookings(String status, int rid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Bookings WHERE Status = ? AND RID = ?");
-        stmt.setString(1, status);
-        stmt.setInt(2, rid);
-        ResultSet rs = stmt.executeQuery();
-
-        List<Booking> bookings = new ArrayList<Booking>();
-        while (rs.next()) {
-            int bid = rs.getInt("BID");
-            int lid = rs.getInt("LID");
-            String startDate = rs.getString("StartDate");
-            String endDate = rs.getString("EndDate");
-            Double cost = rs.getDouble("Cost");
-            String review = rs.getString("Review");
-            int rating = rs.getInt("Rating");
-            bookings.add(new Booking(bid, rid, lid, startDate, endDate, cost, status, review, rating));
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Bookings WHERE Status = ? AND RID = ?")) {
+            stmt.setString(1, status);
+            stmt.setInt(2, rid);
+            try (ResultSet rs = stmt.executeQuery()) {
+
+                List<Booking> bookings = new ArrayList<Booking>();
+                while (rs.next()) {
+                    int bid = rs.getInt("BID");
+                    int lid = rs.getInt("LID");
+                    String startDate = rs.getString("StartDate");
+                    String endDate = rs.getString("EndDate");
+                    Double cost = rs.getDouble("Cost");
+                    String review = rs.getString("Review");
+                    int rating = rs.getInt("Rating");
+                    bookings.add(new Booking(bid, rid, lid, startDate, endDate, cost, status, review, rating));
+                }
+                return bookings;
+            }
         }
-        return bookings;
     }
 
     public List<Booking> getHostsBookings(String status, int hid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT B.* FROM Bookings B, Listings L " +
-                "WHERE B.LID=L.LID AND B.Status = ? AND L.UID = ?");
-        stmt.setString(1, status);
-        stmt.setInt(2, hid);
-        ResultSet rs = stmt.executeQuery();
-
-        List<Booking> bookings = new ArrayList<Booking>();
-        while (rs.next()) {
-            int bid = rs.getInt("BID");
-            int rid = rs.getInt("RID");
-            int lid = rs.getInt("LID");
-            String startDate = rs.getString("StartDate");
-            String endDate = rs.getString("EndDate");
-            Double cost = rs.getDouble("Cost");
-            String review = rs.getString("Review");
-            int rating = rs.getInt("Rating");
-            bookings.add(new Booking(bid, rid, lid, startDate, endDate, cost, status, review, rating));
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT B.* FROM Bookings B, Listings L " +
+                "WHERE B.LID=L.LID AND B.Status = ? AND L.UID = ?")) {
+            stmt.setString(1, status);
+            stmt.setInt(2, hid);
+            try (ResultSet rs = stmt.executeQuery()) {
+
+                List<Booking> bookings = new ArrayList<Booking>();
+                while (rs.next()) {
+                    int bid = rs.getInt("BID");
+                    int rid = rs.getInt("RID");
+                    int lid = rs.getInt("LID");
+                    String startDate = rs.getString("StartDate");
+                    String endDate = rs.getString("EndDate");
+                    Double cost = rs.getDouble("Cost");
+                    String review = rs.getString("Review");
+                    int rating = rs.getInt("Rating");
+                    bookings.add(new Booking(bid, rid, lid, startDate, endDate, cost, status, review, rating));
+                }
+                return bookings;
+            }
         }
-        return bookings;
     }
 
     public Listing getListingFromID(int lid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Listings " +
-                "NATURAL JOIN Addresses WHERE LID=?");
-        stmt.setInt(1, lid);
-        ResultSet rs = stmt.executeQuery();
-        if (rs.next()) {
-            String type = rs.getString("Type");
-            double latitude = rs.getDouble("Latitude");
-            double longitude = rs.getDouble("Longitude");
-
-            int aid = rs.getInt("AID");
-            String address = rs.getString("Address");
-            String city = rs.getString("City");
-            String country = rs.getString("Country");
-            String postalCode = rs.getString("PostalCode");
-
-            Address newAddress = new Address(aid, address, city, country, postalCode);
-            return new Listing(lid, type, latitude, longitude, newAddress);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Listings " +
+                "NATURAL JOIN Addresses WHERE LID=?")) {
+            stmt.setInt(1, lid);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    String type = rs.getString("Type");
+                    double latitude = rs.getDouble("Latitude");
+                    double longitude = rs.getDouble("Longitude");
+
+                    int aid = rs.getInt("AID");
+                    String address = rs.getString("Address");
+                    String city = rs.getString("City");
+                    String country = rs.getString("Country");
+                    String postalCode = rs.getString("PostalCode");
+
+                    Address newAddress = new Address(aid, address, city, country, postalCode);
+                    return new Listing(lid, type, latitude, longitude, newAddress);
+                }
+                return null;
+            }
         }
-        return null;
     }
 
     public void updateBookingsStatus() throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("UPDATE Bookings SET Status='PAST' " +
-                "WHERE EndDate < CURDATE() AND Status='UPCOMING'");
-        stmt.executeUpdate();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("UPDATE Bookings SET Status='PAST' " +
+                "WHERE EndDate < CURDATE() AND Status='UPCOMING'")) {
+            stmt.executeUpdate();
+        }
+    }
+
+    /* Cancels the booking and frees its days, in one transaction. Only an upcoming booking is cancelled, so of two
+     * racing cancels of the same booking just one reopens its days. Returns whether this call cancelled it. */
+    public boolean cancelBooking(int bid) throws SQLException {
+        indexLock.readLock().lock();
+        try {
+            int rid;
+            int lid;
+            String startDate;
+            String endDate;
+            try (Connection conn = pool.getConnection()) {
+                conn.setAutoCommit(false);
+                try {
+                    try (PreparedStatement stmt = conn.prepareStatement("SELECT RID, LID, StartDate, EndDate " +
+                            "FROM Bookings WHERE BID = ? AND Status = 'UPCOMING' FOR UPDATE")) {
+                        stmt.setInt(1, bid);
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            if (!rs.next()) {
+                                conn.rollback();
+                                return false;
+                            }
+                            rid = rs.getInt("RID");
+                            lid = rs.getInt("LID");
+                            startDate = rs.getString("StartDate");
+                            endDate = rs.getString("EndDate");
+                        }
+                    }
+                    try (PreparedStatement stmt = conn.prepareStatement("UPDATE Bookings SET Status = 'CANCELED' " +
+                            "WHERE BID = ? AND Status = 'UPCOMING'")) {
+                        stmt.setInt(1, bid);
+                        if (stmt.executeUpdate() != 1) {
+                            conn.rollback();
+                            return false;
+                        }
+                    }
+                    updateCalendar(conn, lid, startDate, endDate, "AVAILABLE");
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+                calendarChanged(conn, lid, startDate, endDate);
+            }
+            if (reportAggregates.isLoaded()) {
+                reportAggregates.cancelBooking(bid, rid, lid, epochDay(startDate), epochDay(endDate));
+            }
+            return true;
+        } finally {
+            indexLock.readLock().unlock();
+        }
     }
 
     public void updateBooking(int bid) throws SQLException {
+        indexLock.readLock().lock();
+        try (Connection conn = pool.getConnection()) {
+            updateBooking(conn, bid);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private void updateBooking(Connection conn, int bid) throws SQLException {
+        // the booking as it was, so the report aggregates can move it to the cancellations
+        boolean wasCancelled = true;
+        int rid = 0;
+        int lid = 0;
+        long start = 0;
+        long end = 0;
+        if (reportAggregates.isLoaded()) {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT RID, LID, StartDate, EndDate, Status " +
+                    "FROM Bookings WHERE BID = ?")) {
+                stmt.setInt(1, bid);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        wasCancelled = rs.getString("Status").equals("CANCELED");
+                        rid = rs.getInt("RID");
+                        lid = rs.getInt("LID");
+                        start = epochDay(rs.getString("StartDate"));
+                        end = epochDay(rs.getString("EndDate"));
+                    }
+                }
+            }
+        }
         // update calendar
-        PreparedStatement stmt = conn.prepareStatement("UPDATE Bookings SET Status='CANCELED' " +
-                "WHERE BID = ?");
-        stmt.setInt(1, bid);
-        stmt.executeUpdate();
+        try (PreparedStatement stmt = conn.prepareStatement("UPDATE Bookings SET Status='CANCELED' " +
+                "WHERE BID = ?")) {
+            stmt.setInt(1, bid);
+            stmt.executeUpdate();
+        }
+        if (!wasCancelled) {
+            reportAggregates.cancelBooking(bid, rid, lid, start, end);
+        }
     }
 
+    /* Saves the review and marks it for the next noun phrase count, in one transaction. */
     public void reviewBooking(int bid, String review, int rating) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("UPDATE bookings SET Review = ?, Rating = ? WHERE BID = ?");
-        stmt.setString(1, review);
-        stmt.setInt(2, rating);
-        stmt.setInt(3, bid);
-        stmt.executeUpdate();
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "UPDATE bookings SET Review = ?, Rating = ? WHERE BID = ?")) {
+                    stmt.setString(1, review);
+                    stmt.setInt(2, rating);
+                    stmt.setInt(3, bid);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM CountedReviews WHERE BID = ?")) {
+                    stmt.setInt(1, bid);
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
     }
 
     public List<User> getHostsOfRenter(int rid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT U.* FROM Bookings B, Listings L, Users U " +
-                "WHERE B.LID = L.LID AND L.UID = U.UID AND B.RID = ? AND B.Status = 'PAST'");
-        stmt.setInt(1, rid);
-        ResultSet rs = stmt.executeQuery();
-        List<User> users = new ArrayList<>();
-        while (rs.next()) {
-            int uid = rs.getInt("UID");
-            String sin = rs.getString("SIN");
-            String email = rs.getString("Email");
-            String occupation = rs.getString("Occupation");
-            String password = rs.getString("Password");
-            String dob = rs.getString("DOB");
-            String name = rs.getString("Name");
-            int aid = rs.getInt("AID");
-            String status = rs.getString("Status");
-            users.add(new User(uid, sin, email, occupation, password, dob, name, aid, status));
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT U.* FROM Bookings B, Listings L, Users U " +
+                "WHERE B.LID = L.LID AND L.UID = U.UID AND B.RID = ? AND B.Status = 'PAST'")) {
+            stmt.setInt(1, rid);
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<User> users = new ArrayList<>();
+                while (rs.next()) {
+                    int uid = rs.getInt("UID");
+                    String sin = rs.getString("SIN");
+                    String email = rs.getString("Email");
+                    String occupation = rs.getString("Occupation");
+                    String password = rs.getString("Password");
+                    String dob = rs.getString("DOB");
+                    String name = rs.getString("Name");
+                    int aid = rs.getInt("AID");
+                    String status = rs.getString("Status");
+                    users.add(new User(uid, sin, email, occupation, password, dob, name, aid, status));
+                }
+                return users;
+            }
         }
-        return users;
     }
 
     public List<User> getRentersOfHost(int hid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT U.* FROM Bookings B, Listings L, Users U " +
-                "WHERE B.LID = L.LID AND B.RID = U.UID AND L.UID = ? AND B.Status = 'PAST'");
-        stmt.setInt(1, hid);
-        ResultSet rs = stmt.executeQuery();
-        List<User> users = new ArrayList<>();
-        while (rs.next()) {
-            int uid = rs.getInt("UID");
-            String sin = rs.getString("SIN");
-            String email = rs.getString("Email");
-            String occupation = rs.getString("Occupation");
-            String password = rs.getString("Password");
-            String dob = rs.getString("DOB");
-            String name = rs.getString("Name");
-            int aid = rs.getInt("AID");
-            String status = rs.getString("Status");
-            users.add(new User(uid, sin, email, occupation, password, dob, name, aid, status));
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT U.* FROM Bookings B, Listings L, Users U " +
+                "WHERE B.LID = L.LID AND B.RID = U.UID AND L.UID = ? AND B.Status = 'PAST'")) {
+            stmt.setInt(1, hid);
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<User> users = new ArrayList<>();
+                while (rs.next()) {
+                    int uid = rs.getInt("UID");
+                    String sin = rs.getString("SIN");
+                    String email = rs.getString("Email");
+                    String occupation = rs.getString("Occupation");
+                    String password = rs.getString("Password");
+                    String dob = rs.getString("DOB");
+                    String name = rs.getString("Name");
+                    int aid = rs.getInt("AID");
+                    String status = rs.getString("Status");
+                    users.add(new User(uid, sin, email, occupation, password, dob, name, aid, status));
+                }
+                return users;
+            }
         }
-        return users;
     }
 
     public void reviewUser(int reviewer, int reviewee, String review, int rating) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("INSERT INTO Reviews" +
-                "(Reviewer, Reviewee, Comment, Rating) VALUES (?, ?, ?, ?)");
-        stmt.setInt(1, reviewer);
-        stmt.setInt(2, reviewee);
-        stmt.setString(3, review);
-        stmt.setInt(4, rating);
-        stmt.executeUpdate();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("INSERT INTO Reviews" +
+                "(Reviewer, Reviewee, Comment, Rating) VALUES (?, ?, ?, ?)")) {
+            stmt.setInt(1, reviewer);
+            stmt.setInt(2, reviewee);
+            stmt.setString(3, review);
+            stmt.setInt(4, rating);
+            stmt.executeUpdate();
+        }
     }
 
     public void deleteRenter(int uid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Bookings " +
-                "WHERE Status = 'UPCOMING' AND RID = ?");
-        stmt.setInt(1, uid);
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-            int lid = rs.getInt("LID");
-            int bid = rs.getInt("BID");
-            String startDate = rs.getString("StartDate");
-            String endDate = rs.getString("EndDate");
-            updateCalendar(lid, startDate, endDate, "AVAILABLE");
-            updateBooking(bid);
-        }
-        PreparedStatement stmt1 = conn.prepareStatement("UPDATE Users SET Status = 'INACTIVE' WHERE UID = ?");
-        stmt1.setInt(1, uid);
-        stmt1.executeUpdate();
+        indexLock.readLock().lock();
+        try (Connection conn = pool.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Bookings " +
+                    "WHERE Status = 'UPCOMING' AND RID = ?")) {
+                stmt.setInt(1, uid);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        int lid = rs.getInt("LID");
+                        int bid = rs.getInt("BID");
+                        String startDate = rs.getString("StartDate");
+                        String endDate = rs.getString("EndDate");
+                        updateCalendar(conn, lid, startDate, endDate, "AVAILABLE");
+                        updateBooking(conn, bid);
+                        calendarChanged(conn, lid, startDate, endDate);
+                    }
+                }
+            }
+            try (PreparedStatement stmt1 = conn.prepareStatement("UPDATE Users SET Status = 'INACTIVE' WHERE UID = ?")) {
+                stmt1.setInt(1, uid);
+                stmt1.executeUpdate();
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
         // cancel relevant bookings
     }
 
     public void removeListing(int lid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Bookings " +
-                "WHERE Status = 'UPCOMING' AND LID = ?");
-        stmt.setInt(1, lid);
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-            int bid = rs.getInt("BID");
-            String startDate = rs.getString("StartDate");
-            String endDate = rs.getString("EndDate");
-            updateCalendar(lid, startDate, endDate, "AVAILABLE");
-            updateBooking(bid);
-        }
-        PreparedStatement stmt1 = conn.prepareStatement("UPDATE Listings SET Status = 'INACTIVE' WHERE LID = ?");
-        stmt1.setInt(1, lid);
-        stmt1.executeUpdate();
+        indexLock.readLock().lock();
+        try (Connection conn = pool.getConnection()) {
+            removeListing(conn, lid);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private void removeListing(Connection conn, int lid) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Bookings " +
+                "WHERE Status = 'UPCOMING' AND LID = ?")) {
+            stmt.setInt(1, lid);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int bid = rs.getInt("BID");
+                    String startDate = rs.getString("StartDate");
+                    String endDate = rs.getString("EndDate");
+                    updateCalendar(conn, lid, startDate, endDate, "AVAILABLE");
+                    updateBooking(conn, bid);
+                    calendarChanged(conn, lid, startDate, endDate);
+                }
+            }
+        }
+        try (PreparedStatement stmt1 = conn.prepareStatement("UPDATE Listings SET Status = 'INACTIVE' WHERE LID = ?")) {
+            stmt1.setInt(1, lid);
+            stmt1.executeUpdate();
+        }
+        spatialIndex.remove(lid);
+        reportAggregates.removeListing(lid);
         // cancel relevant bookings
     }
 
     public void deleteHost(int uid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Listings " +
-                "WHERE Status = 'ACTIVE' AND UID = ?");
-        stmt.setInt(1, uid);
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-            int lid = rs.getInt("LID");
-            removeListing(lid);
+        indexLock.readLock().lock();
+        try (Connection conn = pool.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT * FROM Listings " +
+                    "WHERE Status = 'ACTIVE' AND UID = ?")) {
+                stmt.setInt(1, uid);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        int lid = rs.getInt("LID");
+                        removeListing(conn, lid);
+                    }
+                }
+            }
+            try (PreparedStatement stmt1 = conn.prepareStatement("UPDATE Users SET Status = 'INACTIVE' WHERE UID = ?")) {
+                stmt1.setInt(1, uid);
+                stmt1.executeUpdate();
+            }
+        } finally {
+            indexLock.readLock().unlock();
         }
-        PreparedStatement stmt1 = conn.prepareStatement("UPDATE Users SET Status = 'INACTIVE' WHERE UID = ?");
-        stmt1.setInt(1, uid);
-        stmt1.executeUpdate();
         // remove listings
         // cancel relevant bookings
     }
 
     // Reports to support
     public int reportNumBookings(String startDate, String endDate, String postalCode) throws SQLException {
+        return reportNumBookings(startDate, endDate, postalCode, System.out);
+    }
+
+    public int reportNumBookings(String startDate, String endDate, String postalCode, PrintStream out)
+            throws SQLException {
+        if (reportAggregates.isLoaded()) {
+            Map<String, Integer> counts;
+            try {
+                counts = reportAggregates.bookingsByCity(epochDay(startDate), epochDay(endDate),
+                        postalCode.equals("y"));
+            } catch (DateTimeParseException e) {
+                out.println("Invalid date");
+                return 0;
+            }
+            counts.forEach((place, num) -> out.println(place + ", " + num));
+            return 0;
+        }
         // return num of bookings given a date range
         // group by city or postal code within a city
-        PreparedStatement stmt;
+        String query;
         if (postalCode.equals("y")){
-            stmt = conn.prepareStatement("SELECT City, PostalCode, COUNT(*) AS NumBookings " +
+            query = "SELECT City, PostalCode, COUNT(*) AS NumBookings " +
                     "FROM Bookings b, Listings l, Addresses a " +
                     "WHERE b.LID=l.LID AND l.AID=a.AID AND StartDate >= ? AND EndDate <= ? " +
-                    "AND b.Status != 'CANCELLED' GROUP BY City, PostalCode");
+                    "AND b.Status != 'CANCELED' GROUP BY City, PostalCode";
         } else {
-            stmt = conn.prepareStatement("SELECT City, COUNT(*) AS NumBookings " +
+            query = "SELECT City, COUNT(*) AS NumBookings " +
                     "FROM Bookings b, Listings l, Addresses a " +
                     "WHERE b.LID=l.LID AND l.AID=a.AID AND StartDate >= ? AND EndDate <= ? " +
-                    "AND b.Status != 'CANCELLED' GROUP BY City");
+                    "AND b.Status != 'CANCELED' GROUP BY City";
         }
-        stmt.setString(1, startDate);
-        stmt.setString(2, endDate);
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()) {
-            String city = rs.getString("City");
-            int num = rs.getInt("NumBookings");
-            if (postalCode.equals("y")) {
-                String code = rs.getString("PostalCode");
-                System.out.println(city + ", " + code + ", " + num);
-            }else {
-                System.out.println(city + ", " + num);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, startDate);
+            stmt.setString(2, endDate);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while(rs.next()) {
+                    String city = rs.getString("City");
+                    int num = rs.getInt("NumBookings");
+                    if (postalCode.equals("y")) {
+                        String code = rs.getString("PostalCode");
+                        out.println(city + ", " + code + ", " + num);
+                    }else {
+                        out.println(city + ", " + num);
+                    }
+                }
             }
         }
         return 0;
     }
 
     public void reportNumListings(String includeCity, String includeCode) throws SQLException {
+        reportNumListings(includeCity, includeCode, System.out);
+    }
+
+    public void reportNumListings(String includeCity, String includeCode, PrintStream out) throws SQLException {
+        if (reportAggregates.isLoaded()) {
+            reportAggregates.listingsByPlace(includeCity.equals("y"), includeCode.equals("y"))
+                    .forEach((place, num) -> out.println(place + ", " + num));
+            return;
+        }
         // return num of listings by country, by country and city, by country, city, and postal code
-        PreparedStatement stmt;
+        String query;
         if (includeCity.equals("y")){
             if (includeCode.equals(("y"))) {
-                stmt = conn.prepareStatement("SELECT Country, City, PostalCode, COUNT(*) AS NumListings " +
+                query = "SELECT Country, City, PostalCode, COUNT(*) AS NumListings " +
                         "FROM Listings NATURAL JOIN Addresses WHERE Status = 'ACTIVE' " +
-                        "GROUP BY Country, City, PostalCode");
+                        "GROUP BY Country, City, PostalCode";
             } else {
-                stmt = conn.prepareStatement("SELECT Country, City, COUNT(*) AS NumListings " +
+                query = "SELECT Country, City, COUNT(*) AS NumListings " +
                         "FROM Listings NATURAL JOIN Addresses WHERE Status = 'ACTIVE' " +
-                        "GROUP BY Country, City");
+                        "GROUP BY Country, City";
             }
         } else {
-            stmt = conn.prepareStatement("SELECT Country, COUNT(*) AS NumListings " +
+            query = "SELECT Country, COUNT(*) AS NumListings " +
                     "FROM Listings NATURAL JOIN Addresses WHERE Status = 'ACTIVE' " +
-                    "GROUP BY Country");
+                    "GROUP BY Country";
         }
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()) {
-            String country = rs.getString("Country");
-            int num = rs.getInt("NumListings");
-            if (includeCity.equals("y")) {
-                String city = rs.getString("City");
-                if(includeCode.equals("y")) {
-                    String code = rs.getString("PostalCode");
-                    System.out.println(country + ", " + city + ", " + code + ", " + num);
-                } else {
-                    System.out.println(country + ", " + city + ", " + num);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query);
+             ResultSet rs = stmt.executeQuery()) {
+            while(rs.next()) {
+                String country = rs.getString("Country");
+                int num = rs.getInt("NumListings");
+                if (includeCity.equals("y")) {
+                    String city = rs.getString("City");
+                    if(includeCode.equals("y")) {
+                        String code = rs.getString("PostalCode");
+                        out.println(country + ", " + city + ", " + code + ", " + num);
+                    } else {
+                        out.println(country + ", " + city + ", " + num);
+                    }
+                }else {
+                    out.println(country + ", " + num);
                 }
-            }else {
-                System.out.println(country + ", " + num);
             }
         }
     }
 
     public void rankHosts(String input) throws SQLException {
+        rankHosts(input, 0);
+    }
+
+    /* Ranks hosts by their number of active listings in each country, or in each city if input is "y", showing the
+     * first limit hosts of each, or all of them if limit is 0. Countries are ranked in parallel, each on its own
+     * connection, and printed in order. */
+    public void rankHosts(String input, int limit) throws SQLException {
+        rankHosts(input, limit, System.out);
+    }
+
+    public void rankHosts(String input, int limit, PrintStream out) throws SQLException {
+        boolean byCity = input.equals("y");
+        if (reportAggregates.isLoaded()) {
+            List<ReportAggregates.Row> rows = reportAggregates.listingsPerHost(byCity, limit);
+            Map<Integer, String> names = getNames(rows);
+            for (ReportAggregates.Row row : rows) {
+                out.println(row.getPlace() + ", " + names.get(row.getUid()) + ", " + row.getCount());
+            }
+            return;
+        }
         // rank hosts by total number of listings by country (optionally by city)
-        PreparedStatement stmt;
-        if (input.equals("y")) {
-            stmt = conn.prepareStatement("SELECT Country, City, Name, Count(*) as Num FROM " +
-                    "Listings l, Addresses a, Users u WHERE l.AID=a.AID and l.UID=u.UID and l.Status='ACTIVE' " +
-                    "GROUP BY Country, City, l.UID ORDER BY Country, City, count(*) DESC");
-        } else {
-            stmt = conn.prepareStatement("SELECT Country, Name, Count(*) as Num FROM " +
-                    "Listings l, Addresses a, Users u WHERE l.AID=a.AID and l.UID=u.UID and l.Status='ACTIVE' " +
-                    "GROUP BY Country, l.UID ORDER BY Country, count(*) DESC");
+        // ties are broken by UID, as the report aggregates break them
+        String query = "SELECT " + (byCity ? "City, " : "") + "Name, Num FROM (" +
+                "SELECT " + (byCity ? "a.City, " : "") + "l.UID, u.Name, COUNT(*) AS Num, " +
+                "ROW_NUMBER() OVER (" + (byCity ? "PARTITION BY a.City " : "") + "ORDER BY COUNT(*) DESC, l.UID) " +
+                "AS Place " +
+                "FROM Listings l JOIN Addresses a ON a.AID = l.AID JOIN Users u ON u.UID = l.UID " +
+                "WHERE l.Status = 'ACTIVE' AND a.Country = ? " +
+                "GROUP BY " + (byCity ? "a.City, " : "") + "l.UID, u.Name) R " +
+                "WHERE Place <= ? ORDER BY " + (byCity ? "City, " : "") + "Num DESC, UID";
+        List<Callable<List<String>>> tasks = new ArrayList<>();
+        for (String country : getCountries(true)) {
+            tasks.add(() -> {
+                List<String> lines = new ArrayList<>();
+                try (Connection conn = pool.getConnection();
+                     PreparedStatement stmt = conn.prepareStatement(query)) {
+                    stmt.setString(1, country);
+                    stmt.setInt(2, limit > 0 ? limit : Integer.MAX_VALUE);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            String name = rs.getString("Name");
+                            int num = rs.getInt("Num");
+                            if (byCity) {
+                                String city = rs.getString("City");
+                                lines.add(country + ", " + city + ", " + name + ", " + num);
+                            } else {
+                                lines.add(country + ", " + name + ", " + num);
+                            }
+                        }
+                    }
+                }
+                return lines;
+            });
         }
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()) {
-            String country = rs.getString("Country");
-            String name = rs.getString("Name");
-            int num = rs.getInt("Num");
-            if (input.equals("y")) {
-                String city = rs.getString("City");
-                System.out.println(country + ", " + city + ", " + name + ", " + num);
-            } else {
-                System.out.println(country + ", " + name + ", " + num);
-            }
+        for (List<String> lines : runInParallel(tasks)) {
+            lines.forEach(out::println);
         }
     }
 
     /* Reports the hosts that have a num of listings more than 10% the num of listings in that city, country */
     public void reportHost() throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) AS NumListing, City, Country, u.Name " +
-                "FROM Listings l NATURAL JOIN Addresses a1, Users u " +
-                "WHERE l.Status='ACTIVE' AND u.UID=l.UID " +
-                "GROUP BY Country, City, l.UID " +
-                "HAVING NumListing >= 0.1 * ( " +
-                "    SELECT COUNT(*) " +
-                "    FROM Listings c NATURAL JOIN Addresses a2 " +
-                "    WHERE Status='ACTIVE' AND a2.Country=a1.Country AND a1.City=a2.City) " +
-                "ORDER BY City, Country");
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-            String name = rs.getString("Name");
-            String city = rs.getString("City");
-            String country = rs.getString("Country");
-            int numListing = rs.getInt("NumListing");
-            if (numListing == 1) {
-                System.out.println(name + " with " + numListing + " listing in " + city + ", " + country);
-            } else {
-                System.out.println(name + " with " + numListing + " listings in " + city + ", " + country);
+        reportHost(DOMINANT_HOST_SHARE);
+    }
+
+    /* Reports the hosts owning at least the given share, between 0 and 1, of the active listings in their city and
+     * country. Each host's count is compared with its city's total from the same grouped pass. */
+    public void reportHost(double share) throws SQLException {
+        reportHost(share, System.out);
+    }
+
+    public void reportHost(double share, PrintStream out) throws SQLException {
+        if (reportAggregates.isLoaded()) {
+            List<ReportAggregates.Row> rows = reportAggregates.dominantHosts(share);
+            Map<Integer, String> names = getNames(rows);
+            for (ReportAggregates.Row row : rows) {
+                out.println(names.get(row.getUid()) + " with " + row.getCount() +
+                        (row.getCount() == 1 ? " listing in " : " listings in ") + row.getPlace());
+            }
+            return;
+        }
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT H.Num AS NumListing, H.City, H.Country, " +
+                "u.Name FROM (" +
+                "    SELECT a.Country, a.City, l.UID, COUNT(*) AS Num, " +
+                "        SUM(COUNT(*)) OVER (PARTITION BY a.Country, a.City) AS Total " +
+                "    FROM Listings l JOIN Addresses a ON a.AID = l.AID " +
+                "    WHERE l.Status='ACTIVE' " +
+                "    GROUP BY a.Country, a.City, l.UID) H " +
+                "JOIN Users u ON u.UID = H.UID " +
+                "WHERE H.Num >= ? * H.Total " +
+                "ORDER BY H.City, H.Country")) {
+            stmt.setDouble(1, share);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String name = rs.getString("Name");
+                    String city = rs.getString("City");
+                    String country = rs.getString("Country");
+                    int numListing = rs.getInt("NumListing");
+                    if (numListing == 1) {
+                        out.println(name + " with " + numListing + " listing in " + city + ", " + country);
+                    } else {
+                        out.println(name + " with " + numListing + " listings in " + city + ", " + country);
+                    }
+                }
             }
         }
     }
 
     /* Ranks renters by num of bookings */
     public void rankRenters(String startDate, String endDate, String input) throws SQLException {
-        PreparedStatement stmt;
-        if (input.equals("y")) {
-            stmt = conn.prepareStatement("SELECT Name, COUNT(b.RID) AS Num, City, Country " +
-                    "FROM Bookings b, Users u, Addresses a, Listings l " +
-                    "WHERE b.StartDate >= ? AND b.EndDate <= ? AND b.RID=u.UID AND b.LID=l.LID AND l.AID=a.AID AND b.Status!='CANCELLED' " +
-                    "GROUP BY b.RID, City, Country " +
-                    "HAVING COUNT(b.RID) >= 2 " +
-                    "ORDER BY Num DESC, Country DESC, City DESC");
-        } else {
-            stmt = conn.prepareStatement("SELECT Name, COUNT(b.RID) AS Num FROM Bookings b, Users u " +
-                    "WHERE b.StartDate >= ? AND b.EndDate <= ? AND b.RID=u.UID AND b.Status!='CANCELLED' " +
-                    "GROUP BY b.RID " +
-                    "ORDER BY Num DESC");
-        }
-        stmt.setString(1, startDate);
-        stmt.setString(2, endDate);
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-            String name = rs.getString("Name");
-            int num = rs.getInt("Num");
-            if (input.equals("y")) {
-                String country = rs.getString("Country");
-                String city = rs.getString("City");
-                System.out.println(name + ", " + city + ", " + country + ", " + num);
+        rankRenters(startDate, endDate, input, 0);
+    }
+
+    /* Ranks renters by their number of bookings in the date range, overall or, if input is "y", in each city where
+     * they have at least two. Shows the first limit renters overall or of each city, or all of them if limit is 0.
+     * By city, countries are ranked in parallel, each on its own connection, then merged in order. */
+    public void rankRenters(String startDate, String endDate, String input, int limit) throws SQLException {
+        rankRenters(startDate, endDate, input, limit, System.out);
+    }
+
+    public void rankRenters(String startDate, String endDate, String input, int limit, PrintStream out)
+            throws SQLException {
+        boolean byCity = input.equals("y");
+        if (reportAggregates.isLoaded()) {
+            List<ReportAggregates.Row> rows;
+            try {
+                rows = reportAggregates.bookingsPerRenter(epochDay(startDate), epochDay(endDate), byCity, limit);
+            } catch (DateTimeParseException e) {
+                out.println("Invalid date");
+                return;
+            }
+            printRenterRanks(rows, byCity, out);
+            return;
+        }
+        if (!byCity) {
+            try (Connection conn = pool.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("SELECT Name, COUNT(b.RID) AS Num " +
+                    "FROM Bookings b, Users u " +
+                    "WHERE b.StartDate >= ? AND b.EndDate <= ? AND b.RID=u.UID AND b.Status!='CANCELED' " +
+                    "GROUP BY b.RID, Name " +
+                    "ORDER BY Num DESC, b.RID LIMIT ?")) {
+                stmt.setString(1, startDate);
+                stmt.setString(2, endDate);
+                stmt.setInt(3, limit > 0 ? limit : Integer.MAX_VALUE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        out.println(rs.getString("Name") + ", " + rs.getInt("Num"));
+                    }
+                }
+            }
+            return;
+        }
+
+        String query = "SELECT RID, City, Num FROM (" +
+                "SELECT b.RID, a.City, COUNT(*) AS Num, " +
+                "ROW_NUMBER() OVER (PARTITION BY a.City ORDER BY COUNT(*) DESC, b.RID) AS Place " +
+                "FROM Bookings b JOIN Listings l ON l.LID = b.LID JOIN Addresses a ON a.AID = l.AID " +
+                "WHERE b.StartDate >= ? AND b.EndDate <= ? AND b.Status != 'CANCELED' AND a.Country = ? " +
+                "GROUP BY b.RID, a.City " +
+                "HAVING COUNT(*) >= 2) R " +
+                "WHERE Place <= ?";
+        List<Callable<List<ReportAggregates.Row>>> tasks = new ArrayList<>();
+        for (String country : getCountries(false)) {
+            tasks.add(() -> {
+                List<ReportAggregates.Row> rows = new ArrayList<>();
+                try (Connection conn = pool.getConnection();
+                     PreparedStatement stmt = conn.prepareStatement(query)) {
+                    stmt.setString(1, startDate);
+                    stmt.setString(2, endDate);
+                    stmt.setString(3, country);
+                    stmt.setInt(4, limit > 0 ? limit : Integer.MAX_VALUE);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            rows.add(new ReportAggregates.Row(country + '\0' + rs.getString("City"),
+                                    rs.getInt("RID"), rs.getInt("Num")));
+                        }
+                    }
+                }
+                return rows;
+            });
+        }
+        List<ReportAggregates.Row> rows = new ArrayList<>();
+        for (List<ReportAggregates.Row> countryRows : runInParallel(tasks)) {
+            rows.addAll(countryRows);
+        }
+        ReportAggregates.sortRenterRanksByCity(rows);
+        printRenterRanks(rows, true, out);
+    }
+
+    private void printRenterRanks(List<ReportAggregates.Row> rows, boolean byCity, PrintStream out)
+            throws SQLException {
+        Map<Integer, String> names = getNames(rows);
+        for (ReportAggregates.Row row : rows) {
+            if (byCity) {
+                out.println(names.get(row.getUid()) + ", " + row.getPlace() + ", " + row.getCount());
             } else {
-                System.out.println(name + ", " + num);
+                out.println(names.get(row.getUid()) + ", " + row.getCount());
+            }
+        }
+    }
+
+    /* Countries with at least one listing, or one active listing, in order. */
+    private List<String> getCountries(boolean activeOnly) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT DISTINCT a.Country FROM Listings l " +
+                "JOIN Addresses a ON a.AID = l.AID" + (activeOnly ? " WHERE l.Status = 'ACTIVE'" : "") +
+                " ORDER BY a.Country");
+             ResultSet rs = stmt.executeQuery()) {
+            List<String> countries = new ArrayList<>();
+            while (rs.next()) {
+                countries.add(rs.getString("Country"));
+            }
+            return countries;
+        }
+    }
+
+    /* Runs the tasks on the report workers and returns their results in the order of the tasks. */
+    private <T> List<T> runInParallel(List<Callable<T>> tasks) throws SQLException {
+        List<Future<T>> futures = new ArrayList<>();
+        for (Callable<T> task : tasks) {
+            futures.add(getReportWorkers().submit(task));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while running a report", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
             }
+            throw new SQLException("Could not run a report", e.getCause());
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /* Shared pool for the partitions of ranking reports, created on first use. It takes at most half the
+     * connection pool so a report never starves other callers. Its threads are daemons so they never keep the
+     * program alive. */
+    private synchronized ExecutorService getReportWorkers() {
+        if (reportWorkers == null) {
+            reportWorkers = Executors.newFixedThreadPool(Math.max(1, pool.getMaxSize() / 2), r -> {
+                Thread t = new Thread(r, "report-worker");
+                t.setDaemon(true);
+                return t;
+            });
         }
+        return reportWorkers;
     }
 
+    /* Reports the hosts, renters, or both with the most cancelled bookings starting or ending in the year. */
     public void reportCancellations(String hostRenter, String year) throws SQLException {
-        PreparedStatement stmt;
-        if (hostRenter.equals("host")) {
-            stmt = conn.prepareStatement("SELECT Name, COUNT(*) AS Num " +
-                    "FROM Users u, Bookings b, Listings l " +
-                    "WHERE b.Status='CANCELED' AND b.lid=l.LID AND l.uid=u.UID AND (YEAR(b.StartDate)=? OR YEAR(b.EndDate)=?) " +
-                    "GROUP BY u.UID " +
-                    "ORDER BY Num DESC " +
-                    "LIMIT 5");
-        } else if (hostRenter.equals("renter")) {
-            stmt = conn.prepareStatement("SELECT Name, COUNT(*) AS Num " +
-                    "FROM Users u, Bookings b " +
-                    "WHERE u.UID=b.RID AND b.Status='CANCELED' AND (YEAR(b.StartDate)=? OR YEAR(b.EndDate)=?) " +
-                    "GROUP BY u.UID " +
-                    "ORDER BY Num DESC " +
-                    "LIMIT 5");
-        } else {
-            stmt = conn.prepareStatement("(SELECT Name, COUNT(*) AS Num " +
-                    "FROM Users u, Bookings b " +
-                    "WHERE u.UID=b.RID AND b.Status='CANCELED' AND (YEAR(b.StartDate)=? OR YEAR(b.EndDate)=?) " +
-                    "GROUP BY u.UID) " +
-                    "UNION  " +
-                    "(SELECT Name, COUNT(*) AS Num " +
-                    "FROM Users u, Bookings b, Listings l " +
-                    "WHERE b.Status='CANCELED' AND b.lid=l.LID AND l.uid=u.UID AND (YEAR(b.StartDate)=? OR YEAR(b.EndDate)=?) " +
-                    "GROUP BY u.UID) " +
-                    "ORDER BY Num DESC " +
-                    "LIMIT 5");
-            stmt.setString(3, year);
-            stmt.setString(4, year);
-        }
-        stmt.setString(1, year);
-        stmt.setString(2, year);
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-            String name = rs.getString("Name");
-            int num = rs.getInt("Num");
-            System.out.println(name + ", " + num);
-        }
-    }
-
-    /* Returns a ResultSet that contains reviews for all active listings */
-    public ResultSet getAllListingReviews() throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT l.LID, b.Review " +
-                "FROM Listings l, Bookings b " +
-                "WHERE b.LID=l.LID AND l.Status='ACTIVE' AND b.review IS NOT NULL " +
-                "ORDER BY l.LID");
-        return stmt.executeQuery();
-    }
-
-    /* Returns a linkedhashmap of listings to number of reviews that listing has */
-    public LinkedHashMap<Integer, Integer> getListingReviewNum() throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT l.lid, COUNT(*) AS ReviewNum " +
-                "FROM Listings l, Bookings b " +
-                "WHERE b.LID=l.LID AND b.review IS NOT NULL " +
-                "GROUP BY l.LID " +
-                "ORDER BY l.LID");
-        ResultSet rs = stmt.executeQuery();
-        LinkedHashMap<Integer, Integer> result = new LinkedHashMap<>();
-        while (rs.next()) {
-            int lid = rs.getInt("lid");
-            int reviewNum = rs.getInt("ReviewNum");
-            result.put(lid, reviewNum);
-        }
-        return result;
+        int y;
+        try {
+            y = Integer.parseInt(year.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid year");
+            return;
+        }
+        reportCancellations(hostRenter, String.format("%04d-01-01", y), String.format("%04d-12-31", y));
     }
 
-    public List<Amenity> getAmenitiesListByLID(int lid) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT Category, Description FROM Offers " +
-                "NATURAL JOIN Amenities WHERE LID = ?");
-        stmt.setInt(1, lid);
-        ResultSet rs = stmt.executeQuery();
-        List<Amenity> amenities = new ArrayList<>();
-        while(rs.next()) {
-            String description = rs.getString("Description");
-            String category = rs.getString("Category");
-            amenities.add(new Amenity(description, category));
-        }
-        return amenities;
-    }
-
-    public String amenitiesListToString(List<Amenity> amenities) {
-        StringBuilder set = new StringBuilder();
-        set.append("(");
-        for (int i=0; i<amenities.size(); i++) {
-            if (i==0) {
-                set.append("'" + amenities.get(i).getDescription() + "'");
+    /* Reports the hosts, renters, or both with the most cancelled bookings starting or ending between from and to,
+     * inclusive. Host and renter counts come from the same pass, over the report aggregates once they are loaded,
+     * otherwise over the cancelled bookings in range. */
+    public void reportCancellations(String hostRenter, String from, String to) throws SQLException {
+        reportCancellations(hostRenter, from, to, System.out);
+    }
+
+    public void reportCancellations(String hostRenter, String from, String to, PrintStream out)
+            throws SQLException {
+        Map<Integer, Integer> byHost = new HashMap<>();
+        Map<Integer, Integer> byRenter = new HashMap<>();
+        try {
+            if (reportAggregates.isLoaded()) {
+                reportAggregates.cancellations(epochDay(from), epochDay(to), byHost, byRenter);
             } else {
-                set.append("," + "'" + amenities.get(i).getDescription() + "'");
+                epochDay(from);
+                epochDay(to);
+                countCancellations(from, to, byHost, byRenter);
+            }
+        } catch (DateTimeParseException e) {
+            out.println("Invalid date");
+            return;
+        }
+
+        List<ReportAggregates.Row> rows = new ArrayList<>();
+        if (!hostRenter.equals("host")) {
+            for (Map.Entry<Integer, Integer> entry : TopK.top(byRenter, CANCELLATION_TOP)) {
+                rows.add(new ReportAggregates.Row(null, entry.getKey(), entry.getValue()));
+            }
+        }
+        if (!hostRenter.equals("renter")) {
+            for (Map.Entry<Integer, Integer> entry : TopK.top(byHost, CANCELLATION_TOP)) {
+                rows.add(new ReportAggregates.Row(null, entry.getKey(), entry.getValue()));
+            }
+        }
+        Map<Integer, String> names = getNames(rows);
+        // a name and count shared by a host and a renter is shown once
+        Map<String, Integer> top = new LinkedHashMap<>();
+        rows.sort(Comparator.comparing(ReportAggregates.Row::getCount, Comparator.reverseOrder()));
+        for (ReportAggregates.Row row : rows) {
+            if (top.size() == CANCELLATION_TOP) {
+                break;
+            }
+            top.putIfAbsent(names.get(row.getUid()) + ", " + row.getCount(), row.getCount());
+        }
+        top.keySet().forEach(out::println);
+    }
+
+    /* Adds the number of cancelled bookings starting or ending between from and to of each host to byHost and of
+     * each renter to byRenter. Each branch of the query is a range on one of the booking date indexes. */
+    private void countCancellations(String from, String to, Map<Integer, Integer> byHost,
+                                    Map<Integer, Integer> byRenter) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(CANCELLATIONS_QUERY)) {
+                setCancellationRange(stmt, from, to);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        int num = rs.getInt("Num");
+                        byHost.merge(rs.getInt("HID"), num, Integer::sum);
+                        byRenter.merge(rs.getInt("RID"), num, Integer::sum);
+                    }
+                }
             }
         }
-        set.append(")");
-        return set.toString();
     }
 
-    public double avgPriceOfListings(String type, List<Amenity> amenities, String country) throws SQLException{
-        String set = amenitiesListToString(amenities);
-        PreparedStatement stmt = null;
-        if (amenities.isEmpty()) {
-            stmt = conn.prepareStatement("WITH Filter1 AS " +
-                    "(SELECT LID FROM Listings NATURAL JOIN Addresses WHERE Type = ? AND Country = ?), " +
-                    "temp AS (SELECT AVG(Price) AS Price FROM Calendars " +
-                    "WHERE LID IN (SELECT * FROM Filter1) " +
-                    "GROUP BY LID) SELECT AVG(Price) AS RESULT FROM temp");
-        } else {
-            stmt = conn.prepareStatement("WITH Filter1 AS " +
-                    "(SELECT LID FROM Listings NATURAL JOIN Addresses WHERE Type = ? AND Country = ?), " +
-                    "Filter2 AS (SELECT LID FROM Listings NATURAL JOIN Offers " +
-                    "WHERE Description IN " + set + " GROUP BY LID HAVING COUNT(*)=" + amenities.size() + "), " +
-                    "temp AS (SELECT AVG(Price) AS Price FROM Calendars " +
-                    "WHERE LID IN (SELECT * FROM Filter1) AND LID IN (SELECT * FROM Filter2) " +
-                    "GROUP BY LID) SELECT AVG(Price) AS RESULT FROM temp");
+    private static void setCancellationRange(PreparedStatement stmt, String from, String to) throws SQLException {
+        stmt.setString(1, from);
+        stmt.setString(2, to);
+        stmt.setString(3, from);
+        stmt.setString(4, to);
+        stmt.setString(5, from);
+    }
+
+    /* The database's plan for the cancellation report's query over the range, one line per row of EXPLAIN. */
+    public List<String> explainCancellations(String from, String to) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("EXPLAIN " + CANCELLATIONS_QUERY)) {
+            setCancellationRange(stmt, from, to);
+            try (ResultSet rs = stmt.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                while (rs.next()) {
+                    StringBuilder line = new StringBuilder();
+                    for (int i = 1; i <= meta.getColumnCount(); i++) {
+                        if (rs.getObject(i) != null) {
+                            line.append(line.length() == 0 ? "" : ", ").append(meta.getColumnLabel(i))
+                                    .append(": ").append(rs.getObject(i));
+                        }
+                    }
+                    plan.add(line.toString());
+                }
+            }
         }
-        stmt.setString(1, type);
-        stmt.setString(2, country);
-        ResultSet rs = stmt.executeQuery();
-        if (rs.next()) {
-            return rs.getDouble("RESULT");
+        return plan;
+    }
+
+    /* Creates the indexes the cancellation report ranges over, if they do not exist yet. Both lead with Status and
+     * carry LID and RID, so each branch of the query is answered from its index alone. This is a setup step, run
+     * once against a new database by DatabaseSetup, DataGenerator or Benchmark; the reports never change the
+     * schema. */
+    public void createReportIndexes() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            Set<String> existing = new HashSet<>();
+            try (ResultSet rs = conn.getMetaData().getIndexInfo(conn.getCatalog(), null, "Bookings", false, true)) {
+                while (rs.next()) {
+                    if (rs.getString("INDEX_NAME") != null) {
+                        existing.add(rs.getString("INDEX_NAME").toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+            try (Statement stmt = conn.createStatement()) {
+                if (!existing.contains("bookingsbystart")) {
+                    stmt.executeUpdate("CREATE INDEX BookingsByStart ON Bookings(Status, StartDate, LID, RID)");
+                }
+                if (!existing.contains("bookingsbyend")) {
+                    stmt.executeUpdate("CREATE INDEX BookingsByEnd ON Bookings(Status, EndDate, StartDate, LID, " +
+                            "RID)");
+                }
+            }
         }
-        return -1;
     }
 
-    public double avgPriceOfListings(String type, List<Amenity> amenities, String country,
-                                     String city) throws SQLException{
-        String set = amenitiesListToString(amenities);
-        PreparedStatement stmt = null;
-        if (amenities.isEmpty()) {
-            stmt = conn.prepareStatement("WITH Filter1 AS " +
-                    "(SELECT LID FROM Listings NATURAL JOIN Addresses " +
-                    "WHERE Type = ? AND Country = ? AND City = ?), " +
-                    "temp AS (SELECT AVG(Price) AS Price FROM Calendars " +
-                    "WHERE LID IN (SELECT * FROM Filter1) " +
-                    "GROUP BY LID) SELECT AVG(Price) AS RESULT FROM temp");
-        } else {
-            stmt = conn.prepareStatement("WITH Filter1 AS " +
-                    "(SELECT LID FROM Listings NATURAL JOIN Addresses " +
-                    "WHERE Type = ? AND Country = ? AND City = ?), " +
-                    "Filter2 AS (SELECT LID FROM Listings NATURAL JOIN Offers " +
-                    "WHERE Description IN " + set + " GROUP BY LID HAVING COUNT(*)=" + amenities.size() + "), " +
-                    "temp AS (SELECT AVG(Price) AS Price FROM Calendars " +
-                    "WHERE LID IN (SELECT * FROM Filter1) AND LID IN (SELECT * FROM Filter2) " +
-                    "GROUP BY LID) SELECT AVG(Price) AS RESULT FROM temp");
+    /* Names of the users of the rows, looked up a chunk of UIDs at a time. */
+    private Map<Integer, String> getNames(List<ReportAggregates.Row> rows) throws SQLException {
+        Set<Integer> distinct = new HashSet<>();
+        for (ReportAggregates.Row row : rows) {
+            distinct.add(row.getUid());
+        }
+        List<Integer> uids = new ArrayList<>(distinct);
+        Map<Integer, String> names = new HashMap<>();
+        try (Connection conn = pool.getConnection()) {
+            for (int from = 0; from < uids.size(); from += NAME_LOOKUP_CHUNK) {
+                List<Integer> chunk = uids.subList(from, Math.min(uids.size(), from + NAME_LOOKUP_CHUNK));
+                String marks = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT UID, Name FROM Users WHERE UID IN (" + marks + ")")) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        stmt.setInt(i + 1, chunk.get(i));
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            names.put(rs.getInt("UID"), rs.getString("Name"));
+                        }
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    /* Creates the tables holding the stored noun phrase counts if they do not exist yet. Each engine keeps its own
+     * counts. ReviewPhrases keeps each review's own counts so a rewritten review can be taken back out of its
+     * listing's totals in ListingPhrases. CountedReviews holds the BID of every review whose current text is
+     * included in those counts. This is a setup step, run once against a new database by DatabaseSetup or
+     * DataGenerator; reviews and the review report expect the tables to be there. */
+    public void createPhraseTables() throws SQLException {
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS ReviewPhrases(BID INT, Engine VARCHAR(10), LID INT, " +
+                    "Phrase VARCHAR(" + PHRASE_LENGTH + "), Frequency INT, PRIMARY KEY(BID, Engine, Phrase))");
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS ListingPhrases(LID INT, Engine VARCHAR(10), " +
+                    "Phrase VARCHAR(" + PHRASE_LENGTH + "), Frequency INT, PRIMARY KEY(LID, Engine, Phrase))");
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS CountedReviews(BID INT, Engine VARCHAR(10), " +
+                    "PRIMARY KEY(BID, Engine))");
+        }
+    }
+
+    /* Streams the reviews written or changed since their noun phrases were last counted by the engine, grouped by
+     * listing. The cursor keeps a pooled connection until it is closed. */
+    public ReviewCursor streamUncountedReviews(NounPhrases.Engine engine) throws SQLException {
+        Connection conn = pool.getConnection();
+        try {
+            PreparedStatement stmt = conn.prepareStatement("SELECT B.* FROM Bookings B " +
+                    "LEFT JOIN CountedReviews C ON C.BID = B.BID AND C.Engine = ? " +
+                    "WHERE B.Review IS NOT NULL AND C.BID IS NULL ORDER BY B.LID, B.BID",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setString(1, engine.name());
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            return new ReviewCursor(conn, stmt, stmt.executeQuery());
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+    }
+
+    /* Reviewed bookings, read one row at a time. */
+    public static class ReviewCursor implements AutoCloseable {
+        private final Connection conn;
+        private final Statement stmt;
+        private final ResultSet rs;
+
+        private ReviewCursor(Connection conn, Statement stmt, ResultSet rs) {
+            this.conn = conn;
+            this.stmt = stmt;
+            this.rs = rs;
+        }
+
+        /* Returns the next reviewed booking, or null once there are no more. */
+        public Booking next() throws SQLException {
+            if (!rs.next()) {
+                return null;
+            }
+            return new Booking(rs.getInt("BID"), rs.getInt("RID"), rs.getInt("LID"), rs.getString("StartDate"),
+                    rs.getString("EndDate"), rs.getDouble("Cost"), rs.getString("Status"), rs.getString("Review"),
+                    rs.getInt("Rating"));
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                rs.close();
+                stmt.close();
+            } finally {
+                conn.close();
+            }
+        }
+    }
+
+    /* Stores the engine's noun phrase counts of the booking's review, replacing the counts of its previous text in
+     * its listing's totals. Returns false, storing nothing, if the review was changed since it was read; it stays
+     * uncounted until the next pass. */
+    public boolean saveReviewPhrases(Booking booking, NounPhrases.Engine engine, Map<String, Integer> counts)
+            throws SQLException {
+        Map<String, Integer> stored = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            String phrase = entry.getKey().trim();
+            if (phrase.length() > PHRASE_LENGTH) {
+                phrase = phrase.substring(0, PHRASE_LENGTH).trim();
+            }
+            stored.merge(phrase, entry.getValue(), Integer::sum);
+        }
+
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                // lock the booking so the review cannot change until the counts are stored
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT Review FROM Bookings WHERE BID = ? FOR UPDATE")) {
+                    stmt.setInt(1, booking.getBid());
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (!rs.next() || !booking.getReview().equals(rs.getString("Review"))) {
+                            conn.rollback();
+                            return false;
+                        }
+                    }
+                }
+
+                // change in each phrase's total: the new counts minus the counts of the previous text
+                Map<String, Integer> delta = new HashMap<>(stored);
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT Phrase, Frequency FROM ReviewPhrases WHERE BID = ? AND Engine = ?")) {
+                    stmt.setInt(1, booking.getBid());
+                    stmt.setString(2, engine.name());
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            delta.merge(rs.getString("Phrase"), -rs.getInt("Frequency"), Integer::sum);
+                        }
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "DELETE FROM ReviewPhrases WHERE BID = ? AND Engine = ?")) {
+                    stmt.setInt(1, booking.getBid());
+                    stmt.setString(2, engine.name());
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO ReviewPhrases(BID, Engine, LID, Phrase, Frequency) VALUES (?, ?, ?, ?, ?)")) {
+                    for (Map.Entry<String, Integer> entry : stored.entrySet()) {
+                        stmt.setInt(1, booking.getBid());
+                        stmt.setString(2, engine.name());
+                        stmt.setInt(3, booking.getLid());
+                        stmt.setString(4, entry.getKey());
+                        stmt.setInt(5, entry.getValue());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO ListingPhrases(LID, Engine, " +
+                        "Phrase, Frequency) VALUES (?, ?, ?, ?) " +
+                        "ON DUPLICATE KEY UPDATE Frequency = Frequency + VALUES(Frequency)")) {
+                    for (Map.Entry<String, Integer> entry : delta.entrySet()) {
+                        if (entry.getValue() != 0) {
+                            stmt.setInt(1, booking.getLid());
+                            stmt.setString(2, engine.name());
+                            stmt.setString(3, entry.getKey());
+                            stmt.setInt(4, entry.getValue());
+                            stmt.addBatch();
+                        }
+                    }
+                    stmt.executeBatch();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "DELETE FROM ListingPhrases WHERE LID = ? AND Engine = ? AND Frequency <= 0")) {
+                    stmt.setInt(1, booking.getLid());
+                    stmt.setString(2, engine.name());
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("INSERT IGNORE INTO CountedReviews VALUES (?, ?)")) {
+                    stmt.setInt(1, booking.getBid());
+                    stmt.setString(2, engine.name());
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /* Returns the engine's k most frequent stored noun phrases of every active listing with counted reviews,
+     * ordered by listing, most frequent first */
+    public LinkedHashMap<Integer, List<Map.Entry<String, Integer>>> getTopPhrases(NounPhrases.Engine engine, int k)
+            throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT P.LID, P.Phrase, P.Frequency " +
+                    "FROM ListingPhrases P, Listings L " +
+                    "WHERE P.LID = L.LID AND P.Engine = ? AND L.Status = 'ACTIVE' " +
+                    "ORDER BY P.LID, P.Frequency DESC, P.Phrase")) {
+                stmt.setString(1, engine.name());
+                stmt.setFetchSize(STREAM_FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    LinkedHashMap<Integer, List<Map.Entry<String, Integer>>> result = new LinkedHashMap<>();
+                    while (rs.next()) {
+                        List<Map.Entry<String, Integer>> top =
+                                result.computeIfAbsent(rs.getInt("LID"), lid -> new ArrayList<>());
+                        if (top.size() < k) {
+                            top.add(Map.entry(rs.getString("Phrase"), rs.getInt("Frequency")));
+                        }
+                    }
+                    return result;
+                }
+            }
         }
-        stmt.setString(1, type);
-        stmt.setString(2, country);
-        stmt.setString(3, city);
-        ResultSet rs = stmt.executeQuery();
-        if (rs.next()) {
-            return rs.getDouble("RESULT");
+    }
+
+    public List<Amenity> getAmenitiesListByLID(int lid) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT Category, Description FROM Offers " +
+                "NATURAL JOIN Amenities WHERE LID = ?")) {
+            stmt.setInt(1, lid);
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<Amenity> amenities = new ArrayList<>();
+                while(rs.next()) {
+                    String description = rs.getString("Description");
+                    String category = rs.getString("Category");
+                    amenities.add(new Amenity(description, category));
+                }
+                return amenities;
+            }
         }
-        return -1;
+    }
+
+    public double avgPriceOfListings(String type, List<Amenity> amenities, String country) throws SQLException{
+        return avgPriceOfListings(type, amenities, new String[]{country});
+    }
+
+    public double avgPriceOfListings(String type, List<Amenity> amenities, String country,
+                                     String city) throws SQLException{
+        return avgPriceOfListings(type, amenities, new String[]{country, city});
     }
 
     public double avgPriceOfListings(String type, List<Amenity> amenities, String country,
                                      String city, String postalCode) throws SQLException{
-        String set = amenitiesListToString(amenities);
-        PreparedStatement stmt = null;
-        if (amenities.isEmpty()) {
-            stmt = conn.prepareStatement("WITH Filter1 AS " +
-                    "(SELECT LID FROM Listings NATURAL JOIN Addresses " +
-                    "WHERE Type = ? AND Country = ? AND City = ? AND PostalCode = ?), " +
-                    "temp AS (SELECT AVG(Price) AS Price FROM Calendars " +
-                    "WHERE LID IN (SELECT * FROM Filter1) " +
-                    "GROUP BY LID) SELECT AVG(Price) AS RESULT FROM temp");
-        } else {
-            stmt = conn.prepareStatement("WITH Filter1 AS " +
-                    "(SELECT LID FROM Listings NATURAL JOIN Addresses " +
-                    "WHERE Type = ? AND Country = ? AND City = ? AND PostalCode = ?), " +
-                    "Filter2 AS (SELECT LID FROM Listings NATURAL JOIN Offers " +
-                    "WHERE Description IN " + set + " GROUP BY LID HAVING COUNT(*)=" + amenities.size() + "), " +
-                    "temp AS (SELECT AVG(Price) AS Price FROM Calendars " +
-                    "WHERE LID IN (SELECT * FROM Filter1) AND LID IN (SELECT * FROM Filter2) " +
-                    "GROUP BY LID) SELECT AVG(Price) AS RESULT FROM temp");
-        }
-        stmt.setString(1, type);
-        stmt.setString(2, country);
-        stmt.setString(3, city);
-        stmt.setString(4, postalCode);
-        ResultSet rs = stmt.executeQuery();
-        if (rs.next()) {
-            return rs.getDouble("RESULT");
-        }
-        return -1;
-    }
-
-    public List<Amenity> getCommonEssentials(List<Amenity> offered) throws SQLException {
-//        Map<Amenity, Double> result = new HashMap<>();
-        String set = amenitiesListToString(offered);
-        List<Amenity> result = new ArrayList<>();
-        PreparedStatement stmt = null;
-        if (offered.isEmpty()) {
-            stmt = conn.prepareStatement("SELECT Amenities.*, COUNT(*)/" +
-                    "(SELECT COUNT(*) FROM LISTINGS) as Prop FROM Offers " +
-                    "NATURAL JOIN Amenities WHERE Category IN ('essentials', 'safety') " +
-                    "GROUP BY Description ORDER BY Prop DESC LIMIT 5");
-        } else {
-            stmt = conn.prepareStatement("SELECT Amenities.*, COUNT(*)/" +
-                    "(SELECT COUNT(*) FROM LISTINGS) as Prop FROM Offers " +
-                    "NATURAL JOIN Amenities WHERE Category IN ('essentials', 'safety') " +
-                    "AND Description NOT IN " + set +
-                    " GROUP BY Description ORDER BY Prop DESC LIMIT 5");
-        }
-
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()) {
-            String description = rs.getString("Description");
-            String category = rs.getString("Category");
-            Double ratio = rs.getDouble("Prop");
-//            result.put(new Amenity(description, category), ratio);
-            result.add(new Amenity(description, category));
-        }
-        return result;
-    }
-
-    public List<Amenity> getUncommonFeatures(List<Amenity> offered) throws SQLException {
-//        Map<Amenity, Double> result = new HashMap<>();
-        String set = amenitiesListToString(offered);
-        List<Amenity> result = new ArrayList<>();
-        PreparedStatement stmt = null;
-        if (offered.isEmpty()) {
-            stmt = conn.prepareStatement("SELECT Amenities.*, COUNT(*)/" +
-                    "(SELECT COUNT(*) FROM LISTINGS) as Prop FROM Offers " +
-                    "NATURAL JOIN Amenities WHERE Category='features' " +
-                    "GROUP BY Description ORDER BY Prop ASC LIMIT 5");
-        } else {
-            stmt = conn.prepareStatement("SELECT Amenities.*, COUNT(*)/" +
-                    "(SELECT COUNT(*) FROM LISTINGS) as Prop FROM Offers " +
-                    "NATURAL JOIN Amenities WHERE Category='features' " +
-                    "AND Description NOT IN " + set +
-                    "GROUP BY Description ORDER BY Prop ASC LIMIT 5");
+        return avgPriceOfListings(type, amenities, new String[]{country, city, postalCode});
+    }
+
+    /* Average over listings of the given type and location of each listing's average nightly price over its
+     * available days, or 0 if there are none. location holds the country, then optionally the city and postal code.
+     * Listings must offer every amenity given. Answered from the price cube once it is loaded; otherwise the amenity
+     * and price indexes are used once they are loaded. */
+    private double avgPriceOfListings(String type, List<Amenity> amenities, String[] location) throws SQLException {
+        if (priceCube.isLoaded()) {
+            List<String> descriptions = new ArrayList<>();
+            for (Amenity amenity : amenities) {
+                descriptions.add(amenity.getDescription());
+            }
+            return priceCube.average(type, location[0], location.length > 1 ? location[1] : null,
+                    location.length > 2 ? location[2] : null, descriptions);
+        }
+        String[] columns = {"Country", "City", "PostalCode"};
+        List<String> params = new ArrayList<>();
+        StringBuilder listings = new StringBuilder("SELECT LID FROM Listings NATURAL JOIN Addresses WHERE Type = ?");
+        params.add(type);
+        for (int i = 0; i < location.length; i++) {
+            listings.append(" AND ").append(columns[i]).append(" = ?");
+            params.add(location[i]);
+        }
+
+        BitSet offering = null;
+        if (!amenities.isEmpty()) {
+            List<String> descriptions = new ArrayList<>();
+            for (Amenity amenity : amenities) {
+                descriptions.add(amenity.getDescription());
+            }
+            if (amenityIndex.isLoaded()) {
+                offering = amenityIndex.listingsOfferingAll(descriptions);
+                if (offering.isEmpty()) {
+                    return 0;
+                }
+            } else {
+                listings.append(" AND LID IN (SELECT LID FROM Offers WHERE Description IN (");
+                for (int i = 0; i < descriptions.size(); i++) {
+                    listings.append(i == 0 ? "?" : ", ?");
+                    params.add(descriptions.get(i));
+                }
+                listings.append(") GROUP BY LID HAVING COUNT(*)=").append(descriptions.size()).append(")");
+            }
+        }
+
+        boolean indexedPrices = priceIndex.isLoaded();
+        String query = indexedPrices ? listings.toString() : "SELECT LID, AVG(Price) AS Price FROM Calendars " +
+                "WHERE Status='AVAILABLE' AND LID IN (" + listings + ") GROUP BY LID";
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            for (int i = 0; i < params.size(); i++) {
+                stmt.setString(i + 1, params.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                double sum = 0;
+                int count = 0;
+                while (rs.next()) {
+                    int lid = rs.getInt("LID");
+                    if (offering != null && !offering.get(lid)) {
+                        continue;
+                    }
+                    if (indexedPrices) {
+                        PriceIndex.Summary summary = priceIndex.get(lid);
+                        if (summary != null) {
+                            sum += summary.getAverage();
+                            count++;
+                        }
+                    } else {
+                        sum += rs.getDouble("Price");
+                        count++;
+                    }
+                }
+                return count == 0 ? 0 : sum / count;
+            }
         }
+    }
 
-        ResultSet rs = stmt.executeQuery();
-        while(rs.next()) {
-            String description = rs.getString("Description");
-            String category = rs.getString("Category");
-            Double ratio = rs.getDouble("Prop");
-//            result.put(new Amenity(description, category), ratio);
-            result.add(new Amenity(description, category));
+    /* Reads every listing of the given type in the given country with its location, amenities and average nightly
+     * price over its available days. One query once the price index is loaded, otherwise two. */
+    public PriceSlice getPriceSlice(String type, String country) throws SQLException {
+        PriceSlice slice = new PriceSlice();
+        try (Connection conn = pool.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT L.LID, A.City, A.PostalCode, O.Description " +
+                    "FROM Listings L JOIN Addresses A ON A.AID = L.AID LEFT JOIN Offers O ON O.LID = L.LID " +
+                    "WHERE L.Type = ? AND A.Country = ?")) {
+                stmt.setString(1, type);
+                stmt.setString(2, country);
+                stmt.setFetchSize(STREAM_FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        slice.add(rs.getInt("LID"), rs.getString("City"), rs.getString("PostalCode"),
+                                rs.getString("Description"));
+                    }
+                }
+            }
+
+            if (priceIndex.isLoaded()) {
+                for (int lid : slice.getLids()) {
+                    PriceIndex.Summary summary = priceIndex.get(lid);
+                    if (summary != null) {
+                        slice.setPrice(lid, summary.getAverage());
+                    }
+                }
+            } else {
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT C.LID, AVG(C.Price) AS Price " +
+                        "FROM Calendars C, Listings L, Addresses A WHERE C.LID = L.LID AND L.AID = A.AID " +
+                        "AND C.Status='AVAILABLE' AND L.Type = ? AND A.Country = ? GROUP BY C.LID")) {
+                    stmt.setString(1, type);
+                    stmt.setString(2, country);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            slice.setPrice(rs.getInt("LID"), rs.getDouble("Price"));
+                        }
+                    }
+                }
+            }
+        }
+        return slice;
+    }
+
+    /* Returns every amenity offered by at least one listing with the number of listings offering it, most offered
+     * first */
+    public LinkedHashMap<Amenity, Integer> getAmenityCounts() throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT A.Description, A.Category, COUNT(*) AS Num " +
+                "FROM Offers O, Amenities A WHERE O.Description = A.Description " +
+                "GROUP BY A.Description, A.Category ORDER BY Num DESC, A.Description");
+             ResultSet rs = stmt.executeQuery()) {
+            LinkedHashMap<Amenity, Integer> result = new LinkedHashMap<>();
+            while (rs.next()) {
+                result.put(new Amenity(rs.getString("Description"), rs.getString("Category")), rs.getInt("Num"));
+            }
+            return result;
         }
-        return result;
     }
 
     public boolean isLegalAge(String dob) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("SELECT TIMESTAMPDIFF(YEAR, ?, CURDATE()) >= 18 AS RESULT");
-        stmt.setString(1, dob);
-        ResultSet rs = stmt.executeQuery();
-        if (rs.next()) {
-            return rs.getInt("RESULT") == 1;
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT TIMESTAMPDIFF(YEAR, ?, CURDATE()) >= 18 AS RESULT")) {
+            stmt.setString(1, dob);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("RESULT") == 1;
+                }
+                return false;
+            }
         }
-        return false;
     }
 
     public void updateUserStatus(int uid, String status) throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("UPDATE Users SET Status = ? WHERE UID = ?");
-        stmt.setString(1, status);
-        stmt.setInt(2, uid);
-        stmt.executeUpdate();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("UPDATE Users SET Status = ? WHERE UID = ?")) {
+            stmt.setString(1, status);
+            stmt.setInt(2, uid);
+            stmt.executeUpdate();
+        }
     }
 
     public void updateCalendarsStatus() throws SQLException {
-        PreparedStatement stmt = conn.prepareStatement("UPDATE Calendars SET Status='UNAVAILABLE' " +
-                "WHERE Day < CURDATE() AND Status = 'AVAILABLE'");
-        stmt.executeUpdate();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("UPDATE Calendars SET Status='UNAVAILABLE' " +
+                "WHERE Day < CURDATE() AND Status = 'AVAILABLE'")) {
+            stmt.executeUpdate();
+        }
+        if (priceIndex.isLoaded()) {
+            loadPriceIndex();
+        }
+        if (availabilityIndex.isLoaded()) {
+            loadAvailabilityIndex();
+        }
+        if (priceCube.isLoaded()) {
+            loadPriceCube();
+        }
     }
 
     public void close() throws SQLException {
-        conn.close();
+        pool.close();
     }
 }
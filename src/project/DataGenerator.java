@@ -0,0 +1,629 @@
+package project;
+
+import java.io.PrintStream;
+import java.sql.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Generates a synthetic MyBnB dataset at a chosen scale and bulk loads it, to test at production size. Each unit of
+ * scale is 1,000 hosts and 10,000 renters. Most hosts own one listing and a few property managers own dozens. The
+ * listings are spread around real cities in proportion to their size, and each is priced around its city's going
+ * rate by type, weekday and season. Every listing gets a calendar of the given number of days, centred on today,
+ * booked at its city's occupancy. Most past stays are reviewed and a few bookings are cancelled. Every user, host
+ * and listing has its own generator seeded by the seed and its index, so the same arguments produce the same data
+ * on a given day, however many threads load it.
+ *
+ * Each thread writes on its own connection with multi-row INSERT statements and commits in large batches. The
+ * tables' secondary indexes are dropped first and built once at the end, and on MySQL the loading sessions also turn
+ * off unique and foreign key checks. IDs are assigned up front from the tables' current maxima, so nothing is read
+ * back; nothing else should write to the database while it loads. */
+public class DataGenerator {
+
+    public static final int HOSTS_PER_SCALE = 1000;
+    public static final int RENTERS_PER_SCALE = 10000;
+    public static final int DEFAULT_DAYS = 365;
+    public static final long DEFAULT_SEED = 42;
+
+    // rows buffered by a thread before it commits
+    private static final int ROWS_PER_COMMIT = 50000;
+    // users, or hosts with their listings, handed to a thread at a time
+    private static final int USERS_PER_TASK = 1000;
+    private static final int HOSTS_PER_TASK = 100;
+    private static final String[] LOADED_TABLES = {"Addresses", "Users", "Hosts", "Renters", "Listings", "Offers",
+            "Calendars", "Bookings", "Reviews"};
+
+    // generator streams, so users, hosts and listings with the same index do not share random numbers
+    private static final long USER_STREAM = 1;
+    private static final long HOST_STREAM = 2;
+    private static final long LISTING_STREAM = 3;
+
+    private static final City[] CITIES = {
+            new City("canada", "toronto", "m5v", 43.6532, -79.3832, 28, 170, 0.70),
+            new City("canada", "montreal", "h2x", 45.5017, -73.5673, 20, 140, 0.65),
+            new City("canada", "vancouver", "v6b", 49.2827, -123.1207, 14, 200, 0.72),
+            new City("canada", "ottawa", "k1p", 45.4215, -75.6972, 6, 130, 0.55),
+            new City("canada", "calgary", "t2p", 51.0447, -114.0719, 7, 125, 0.50),
+            new City("usa", "new york", "100", 40.7128, -74.0060, 40, 260, 0.78),
+            new City("usa", "los angeles", "900", 34.0522, -118.2437, 30, 220, 0.70),
+            new City("usa", "chicago", "606", 41.8781, -87.6298, 18, 170, 0.62),
+            new City("usa", "miami", "331", 25.7617, -80.1918, 12, 230, 0.74),
+            new City("usa", "san francisco", "941", 37.7749, -122.4194, 10, 280, 0.72),
+            new City("france", "paris", "750", 48.8566, 2.3522, 30, 190, 0.80),
+            new City("france", "nice", "060", 43.7102, 7.2620, 6, 170, 0.66),
+            new City("united kingdom", "london", "ec1", 51.5074, -0.1278, 36, 210, 0.78),
+            new City("united kingdom", "edinburgh", "eh1", 55.9533, -3.1883, 6, 160, 0.65),
+            new City("japan", "tokyo", "160", 35.6762, 139.6503, 30, 150, 0.75),
+            new City("japan", "kyoto", "600", 35.0116, 135.7681, 8, 140, 0.70),
+            new City("australia", "sydney", "200", -33.8688, 151.2093, 14, 190, 0.70),
+            new City("australia", "melbourne", "300", -37.8136, 144.9631, 12, 160, 0.66)};
+    private static final String[] TYPES = {"apartment", "house", "guesthouse", "hotel"};
+    private static final double[] TYPE_WEIGHTS = {45, 30, 15, 10};
+    private static final double[] TYPE_PRICES = {1.0, 1.45, 0.75, 1.2};
+    private static final String[] FIRST_NAMES = {"Olivia", "Liam", "Emma", "Noah", "Amelia", "Oliver", "Ava",
+            "Elijah", "Sophia", "Lucas", "Mia", "Mateo", "Chloe", "Hiro", "Aiko", "Priya", "Arjun", "Fatima", "Omar",
+            "Zoe", "Leo", "Chen", "Mei", "Santiago", "Lucia"};
+    private static final String[] LAST_NAMES = {"Smith", "Tremblay", "Nguyen", "Martin", "Brown", "Wilson",
+            "Gagnon", "Singh", "Patel", "Kim", "Sato", "Suzuki", "Garcia", "Rossi", "Dubois", "Lee", "Chen", "Khan",
+            "Taylor", "Roy", "Murphy", "Cohen", "Silva", "Novak"};
+    private static final String[] OCCUPATIONS = {"engineer", "teacher", "nurse", "student", "accountant",
+            "designer", "developer", "lawyer", "chef", "manager", "artist", "retired"};
+    private static final String[] STREETS = {"king st", "queen st", "main st", "park ave", "maple rd", "oak st",
+            "river rd", "church st", "high st", "station rd", "lake shore blvd", "hill ave"};
+    private static final String[] ADJECTIVES = {"clean", "cozy", "spacious", "quiet", "bright", "modern", "noisy",
+            "small", "charming", "comfortable"};
+    private static final String[] NOUNS = {"bedroom", "kitchen", "view", "neighbourhood", "host", "bathroom",
+            "location", "balcony", "living room", "bed"};
+    private static final double[] RATING_WEIGHTS = {3, 5, 12, 35, 45};
+    private static final double[] CITY_WEIGHTS = Arrays.stream(CITIES).mapToDouble(city -> city.weight).toArray();
+
+    private final DAO dao;
+    private final int hosts;
+    private final int renters;
+    private final int days;
+    private final int threads;
+    private final long seed;
+    private final LocalDate today = LocalDate.now();
+    private final LocalDate firstDay;
+    private final String[] dates;
+
+    private final Map<String, AtomicLong> rowCounts = new ConcurrentHashMap<>();
+    private final List<String> amenities = new ArrayList<>();
+    private boolean mysql;
+    private int firstUid;
+    private int firstAid;
+    private int firstLid;
+    // no two of a listing's bookings start on the same day, so a booking's BID is taken from its listing and day
+    private int firstBid;
+    // the index of each host's first listing, and of the listing after the last host's
+    private int[] firstListing;
+
+    public DataGenerator(DAO dao, int scale, int days, int threads, long seed) {
+        if (scale <= 0 || days <= 0 || threads <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.dao = dao;
+        this.hosts = scale * HOSTS_PER_SCALE;
+        this.renters = scale * RENTERS_PER_SCALE;
+        this.days = days;
+        this.threads = threads;
+        this.seed = seed;
+        this.firstDay = today.minusDays(days / 2);
+        this.dates = new String[days];
+        for (int d = 0; d < days; d++) {
+            dates[d] = firstDay.plusDays(d).toString();
+        }
+    }
+
+    /* Usage: DataGenerator [scale] [days] [threads] [seed] */
+    public static void main(String[] args) {
+        int scale = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DAYS;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED;
+        try {
+            DAO dao = new DAO(Driver.dbName, Driver.user, Driver.password);
+            int threads = args.length > 2 ? Integer.parseInt(args[2])
+                    : Math.min(dao.getPool().getMaxSize(), Runtime.getRuntime().availableProcessors());
+            new DataGenerator(dao, scale, days, threads, seed).run(System.out);
+            dao.close();
+        } catch (SQLException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* Loads the users, then the hosts' listings, then builds the dropped indexes, the report indexes and the phrase
+     * tables, printing the time of each phase and the rows written to each table. The indexes are built even if
+     * loading fails. */
+    public void run(PrintStream out) throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        List<IndexDefinition> dropped;
+        try (Connection conn = dao.getPool().getConnection()) {
+            mysql = conn.getMetaData().getDatabaseProductName().equals("MySQL");
+            firstUid = max(conn, "UID", "Users") + 1;
+            firstAid = max(conn, "AID", "Addresses") + 1;
+            firstLid = max(conn, "LID", "Listings") + 1;
+            firstBid = max(conn, "BID", "Bookings") + 1;
+            dropped = dropSecondaryIndexes(conn, out);
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "data-generator");
+            t.setDaemon(true);
+            return t;
+        });
+        Throwable failure = null;
+        try {
+            for (String category : new String[]{"essentials", "features", "location", "safety"}) {
+                amenities.addAll(dao.getAmenitiesListByCategory(category));
+            }
+            Collections.sort(amenities);
+            planListings();
+            out.printf("Generating %d hosts with %d listings, %d renters and %d days of calendar from %s%n", hosts,
+                    firstListing[hosts], renters, days, firstDay);
+
+            List<Task> users = new ArrayList<>();
+            for (int from = 0; from < hosts + renters; from += USERS_PER_TASK) {
+                int first = from;
+                int last = Math.min(hosts + renters, from + USERS_PER_TASK);
+                users.add(loader -> loadUsers(loader, first, last));
+            }
+            runPhase(workers, users, "Users", out);
+
+            List<Task> listings = new ArrayList<>();
+            for (int from = 0; from < hosts; from += HOSTS_PER_TASK) {
+                int first = from;
+                int last = Math.min(hosts, from + HOSTS_PER_TASK);
+                listings.add(loader -> loadListings(loader, first, last));
+            }
+            runPhase(workers, listings, "Listings", out);
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            workers.shutdownNow();
+            // the dropped indexes come back even if loading failed, or every later query would scan whole tables
+            try {
+                createIndexes(dropped, out);
+            } catch (SQLException e) {
+                if (failure == null) {
+                    throw e;
+                }
+                failure.addSuppressed(e);
+            }
+        }
+
+        long total = 0;
+        for (String table : LOADED_TABLES) {
+            long rows = rowCounts.getOrDefault(table, new AtomicLong()).get();
+            total += rows;
+            out.printf("%-10s %,14d rows%n", table, rows);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("Loaded %,d rows in %.1f s, %,.0f rows/s%n", total, seconds, total / seconds);
+    }
+
+    /* Builds the dropped indexes again, then the report indexes and the phrase tables, one at a time, since
+     * building indexes in parallel mostly contends for the same locks. */
+    private void createIndexes(List<IndexDefinition> dropped, PrintStream out) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection conn = dao.getPool().getConnection()) {
+            for (IndexDefinition index : dropped) {
+                index.create(conn);
+            }
+        }
+        dao.createReportIndexes();
+        dao.createPhraseTables();
+        out.printf("Indexes: %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    private void runPhase(ExecutorService workers, List<Task> tasks, String phase, PrintStream out)
+            throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (Task task : tasks) {
+            futures.add(workers.submit(() -> {
+                try (Loader loader = new Loader()) {
+                    task.run(loader);
+                    loader.finish();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                for (Future<?> other : futures) {
+                    other.cancel(true);
+                }
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        out.printf("%s: %.1f s%n", phase, (System.nanoTime() - start) / 1e9);
+    }
+
+    // Users: hosts take the first indexes, renters the rest. Each has an address of its own.
+
+    private void loadUsers(Loader loader, int first, int last) throws SQLException {
+        for (int i = first; i < last; i++) {
+            Random random = random(USER_STREAM, i);
+            int uid = firstUid + i;
+            int aid = firstAid + i;
+            City city = pick(random);
+            loader.add(loader.addresses, aid, (1 + random.nextInt(999)) + " " + pick(random, STREETS), city.city,
+                    city.country, postalCode(random, city));
+            String name = pick(random, FIRST_NAMES) + " " + pick(random, LAST_NAMES);
+            String dob = LocalDate.of(1950, 1, 1).plusDays(random.nextInt(53 * 365)).toString();
+            loader.add(loader.users, uid, String.format("%09d", 100000000L + uid), name, dob,
+                    pick(random, OCCUPATIONS), "user" + uid + "@mybnb.test", "password", aid, "ACTIVE");
+            if (i < hosts) {
+                loader.add(loader.hostRows, uid);
+            } else {
+                loader.add(loader.renterRows, uid, String.format("4%015d", Math.floorMod(random.nextLong(),
+                        1000000000000000L)));
+            }
+        }
+    }
+
+    // Listings: how many each host has is drawn first from the host's generator, so every host's LIDs are known
+    // before any thread starts.
+
+    private void planListings() {
+        firstListing = new int[hosts + 1];
+        for (int h = 0; h < hosts; h++) {
+            firstListing[h + 1] = firstListing[h] + listingCount(random(HOST_STREAM, h));
+        }
+    }
+
+    /* One listing for 70% of hosts, two or three for 20%, four to ten for 9% and up to fifty for the rest. */
+    private static int listingCount(Random random) {
+        double r = random.nextDouble();
+        if (r < 0.70) {
+            return 1;
+        } else if (r < 0.90) {
+            return 2 + random.nextInt(2);
+        } else if (r < 0.99) {
+            return 4 + random.nextInt(7);
+        }
+        return 11 + random.nextInt(40);
+    }
+
+    private void loadListings(Loader loader, int first, int last) throws SQLException {
+        for (int h = first; h < last; h++) {
+            Random hostRandom = random(HOST_STREAM, h);
+            listingCount(hostRandom);
+            City home = pick(hostRandom);
+            for (int n = firstListing[h]; n < firstListing[h + 1]; n++) {
+                Random random = random(LISTING_STREAM, n);
+                // most hosts keep to their own city
+                City city = random.nextDouble() < 0.8 ? home : pick(random);
+                loadListing(loader, firstUid + h, firstLid + n, firstAid + hosts + renters + n, city, random);
+            }
+        }
+    }
+
+    private void loadListing(Loader loader, int uid, int lid, int aid, City city, Random random) throws SQLException {
+        int type = pickWeighted(random, TYPE_WEIGHTS);
+        loader.add(loader.addresses, aid, (1 + random.nextInt(999)) + " " + pick(random, STREETS), city.city,
+                city.country, postalCode(random, city));
+        double latitude = city.latitude + random.nextGaussian() * 0.04;
+        double longitude = city.longitude + random.nextGaussian() * 0.04 / Math.cos(Math.toRadians(city.latitude));
+        loader.add(loader.listings, lid, uid, TYPES[type], latitude, longitude, aid, "ACTIVE");
+
+        if (!amenities.isEmpty()) {
+            List<String> offered = new ArrayList<>(amenities);
+            Collections.shuffle(offered, random);
+            for (String description : offered.subList(0, Math.min(offered.size(), 3 + random.nextInt(8)))) {
+                loader.add(loader.offers, lid, description);
+            }
+        }
+
+        // lognormal around the city's rate for the type, then by weekday and season
+        double base = city.price * TYPE_PRICES[type] * Math.exp(0.35 * random.nextGaussian());
+        double[] prices = new double[days];
+        String[] statuses = new String[days];
+        for (int d = 0; d < days; d++) {
+            LocalDate day = firstDay.plusDays(d);
+            boolean weekend = day.getDayOfWeek() == DayOfWeek.FRIDAY || day.getDayOfWeek() == DayOfWeek.SATURDAY;
+            double season = 1 + 0.15 * Math.cos(2 * Math.PI * (day.getDayOfYear() - 196) / 365.0);
+            prices[d] = Math.max(20, Math.round(base * season * (weekend ? 1.2 : 1.0)));
+            statuses[d] = "AVAILABLE";
+        }
+
+        // stays average 2.5 nights; starting one on an open day with this chance gives the city's occupancy
+        double occupancy = Math.min(0.95, Math.max(0.05, city.occupancy + random.nextGaussian() * 0.1));
+        double startChance = occupancy / (2.5 * (1 - occupancy) + occupancy);
+        int d = 0;
+        while (d < days) {
+            if (random.nextDouble() < 0.01) {
+                // the host blocks a stretch off
+                int blocked = 3 + random.nextInt(12);
+                for (int i = d; i < Math.min(days, d + blocked); i++) {
+                    statuses[i] = "UNAVAILABLE";
+                }
+                d += blocked;
+                continue;
+            }
+            if (random.nextDouble() >= startChance) {
+                d++;
+                continue;
+            }
+            int nights = 1;
+            while (nights < 14 && d + nights < days && random.nextDouble() < 0.6) {
+                nights++;
+            }
+            loadBooking(loader, uid, lid, firstBid + (lid - firstLid) * days + d, d, d + nights - 1, prices,
+                    statuses, random);
+            d += nights;
+        }
+
+        long todayIndex = today.toEpochDay() - firstDay.toEpochDay();
+        for (int i = 0; i < days; i++) {
+            // past days nobody booked are closed, as DAO.updateCalendarsStatus leaves them
+            String status = i < todayIndex && statuses[i].equals("AVAILABLE") ? "UNAVAILABLE" : statuses[i];
+            loader.add(loader.calendars, lid, dates[i], prices[i], status);
+        }
+    }
+
+    private void loadBooking(Loader loader, int hostUid, int lid, int bid, int start, int end, double[] prices,
+                             String[] statuses, Random random) throws SQLException {
+        // a few renters book far more than the rest
+        int rid = firstUid + hosts + (int) (renters * Math.pow(random.nextDouble(), 2));
+        boolean past = firstDay.plusDays(end).isBefore(today);
+        double cost = 0;
+        for (int i = start; i <= end; i++) {
+            cost += prices[i];
+        }
+        if (random.nextDouble() < (past ? 0.04 : 0.08)) {
+            // cancelled, so the days stay open
+            loader.add(loader.bookings, bid, rid, lid, dates[start], dates[end], cost, "CANCELED", null, null);
+            return;
+        }
+        for (int i = start; i <= end; i++) {
+            statuses[i] = "BOOKED";
+        }
+        if (!past || random.nextDouble() >= 0.65) {
+            loader.add(loader.bookings, bid, rid, lid, dates[start], dates[end], cost, past ? "PAST" : "UPCOMING",
+                    null, null);
+            return;
+        }
+        int rating = 1 + pickWeighted(random, RATING_WEIGHTS);
+        loader.add(loader.bookings, bid, rid, lid, dates[start], dates[end], cost, "PAST", review(random), rating);
+        if (random.nextDouble() < 0.3) {
+            loader.add(loader.reviews, rid, hostUid, review(random), 1 + pickWeighted(random, RATING_WEIGHTS));
+        }
+        if (random.nextDouble() < 0.2) {
+            loader.add(loader.reviews, hostUid, rid, "Great guest, " + pick(random, ADJECTIVES) + " and tidy.",
+                    1 + pickWeighted(random, RATING_WEIGHTS));
+        }
+    }
+
+    /* A short review of a stay, drawn from the generator. */
+    public static String review(Random random) {
+        String review = "The " + pick(random, ADJECTIVES) + " " + pick(random, NOUNS) + " was "
+                + pick(random, ADJECTIVES) + ".";
+        if (random.nextBoolean()) {
+            review += " We loved the " + pick(random, NOUNS) + " and the " + pick(random, NOUNS) + ".";
+        }
+        return review;
+    }
+
+    // Generators
+
+    /* java.util.Random starts out alike for close seeds, so the seed, stream and index are mixed first. */
+    private Random random(long stream, long index) {
+        long z = seed * 0x9E3779B97F4A7C15L + stream * 0xD1B54A32D192ED03L + index;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(z ^ (z >>> 31));
+    }
+
+    /* A city, more likely the bigger it is. */
+    private static City pick(Random random) {
+        return CITIES[pickWeighted(random, CITY_WEIGHTS)];
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static int pickWeighted(Random random, double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double r = random.nextDouble() * total;
+        for (int i = 0; i < weights.length - 1; i++) {
+            r -= weights[i];
+            if (r < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    private static String postalCode(Random random, City city) {
+        return city.postalPrefix + random.nextInt(10) + (char) ('a' + random.nextInt(26)) + random.nextInt(10);
+    }
+
+    // Indexes
+
+    private static int max(Connection conn, String column, String table) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(" + column + "), 0) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /* Drops the non-unique indexes of the loaded tables, so they are built once from the loaded rows instead of
+     * being updated row by row. Indexes the database will not drop, e.g. those backing foreign keys in MySQL, are
+     * kept. Returns the ones dropped. */
+    private List<IndexDefinition> dropSecondaryIndexes(Connection conn, PrintStream out) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        List<IndexDefinition> dropped = new ArrayList<>();
+        for (String table : LOADED_TABLES) {
+            Map<String, IndexDefinition> indexes = new LinkedHashMap<>();
+            for (String name : new String[]{table, table.toLowerCase(Locale.ROOT), table.toUpperCase(Locale.ROOT)}) {
+                try (ResultSet rs = meta.getIndexInfo(conn.getCatalog(), null, name, false, false)) {
+                    while (rs.next()) {
+                        String index = rs.getString("INDEX_NAME");
+                        if (index == null || !rs.getBoolean("NON_UNIQUE")) {
+                            continue;
+                        }
+                        indexes.computeIfAbsent(index, k -> new IndexDefinition(table, k))
+                                .columns.put(rs.getInt("ORDINAL_POSITION"), rs.getString("COLUMN_NAME"));
+                    }
+                }
+                if (!indexes.isEmpty()) {
+                    break;
+                }
+            }
+            for (IndexDefinition index : indexes.values()) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate("DROP INDEX " + index.name + " ON " + table);
+                    dropped.add(index);
+                } catch (SQLException e) {
+                    out.println("Keeping index " + index.name + " on " + table + ": " + e.getMessage());
+                }
+            }
+        }
+        return dropped;
+    }
+
+    private static class IndexDefinition {
+        private final String table;
+        private final String name;
+        private final SortedMap<Integer, String> columns = new TreeMap<>();
+
+        private IndexDefinition(String table, String name) {
+            this.table = table;
+            this.name = name;
+        }
+
+        private void create(Connection conn) throws SQLException {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("CREATE INDEX " + name + " ON " + table + "(" +
+                        String.join(", ", columns.values()) + ")");
+            }
+        }
+    }
+
+    // Loading
+
+    private interface Task {
+        void run(Loader loader) throws SQLException;
+    }
+
+    /* One thread's connection and inserters. Once any inserter has a full statement's worth of rows, all of them
+     * are flushed, parents first, so no row is written before the rows it refers to. */
+    private class Loader implements AutoCloseable {
+        private final Connection conn;
+        private final BulkInsert addresses;
+        private final BulkInsert users;
+        private final BulkInsert hostRows;
+        private final BulkInsert renterRows;
+        private final BulkInsert listings;
+        private final BulkInsert offers;
+        private final BulkInsert calendars;
+        private final BulkInsert bookings;
+        private final BulkInsert reviews;
+        private final BulkInsert[] inOrder;
+        private int uncommitted = 0;
+
+        private Loader() throws SQLException {
+            conn = dao.getPool().getConnection();
+            conn.setAutoCommit(false);
+            if (mysql) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("SET unique_checks = 0, foreign_key_checks = 0");
+                }
+            }
+            addresses = new BulkInsert(conn, "Addresses", "AID", "Address", "City", "Country", "PostalCode");
+            users = new BulkInsert(conn, "Users", "UID", "SIN", "Name", "DOB", "Occupation", "Email", "Password",
+                    "AID", "Status");
+            hostRows = new BulkInsert(conn, "Hosts", "UID");
+            renterRows = new BulkInsert(conn, "Renters", "UID", "CreditCard");
+            listings = new BulkInsert(conn, "Listings", "LID", "UID", "Type", "Latitude", "Longitude", "AID",
+                    "Status");
+            offers = new BulkInsert(conn, "Offers", "LID", "Description");
+            calendars = new BulkInsert(conn, "Calendars", "LID", "Day", "Price", "Status");
+            bookings = new BulkInsert(conn, "Bookings", "BID", "RID", "LID", "StartDate", "EndDate", "Cost", "Status",
+                    "Review", "Rating");
+            reviews = new BulkInsert(conn, "Reviews", "Reviewer", "Reviewee", "Comment", "Rating");
+            inOrder = new BulkInsert[]{addresses, users, hostRows, renterRows, listings, offers, calendars, bookings,
+                    reviews};
+        }
+
+        private void add(BulkInsert insert, Object... row) throws SQLException {
+            insert.add(row);
+            if (insert.isFull()) {
+                flush();
+                if (uncommitted >= ROWS_PER_COMMIT) {
+                    conn.commit();
+                    uncommitted = 0;
+                }
+            }
+        }
+
+        private void flush() throws SQLException {
+            for (BulkInsert insert : inOrder) {
+                uncommitted += insert.getBuffered();
+                insert.flush();
+            }
+        }
+
+        private void finish() throws SQLException {
+            flush();
+            conn.commit();
+            for (int i = 0; i < inOrder.length; i++) {
+                rowCounts.computeIfAbsent(LOADED_TABLES[i], k -> new AtomicLong())
+                        .addAndGet(inOrder[i].getRowCount());
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                for (BulkInsert insert : inOrder) {
+                    insert.close();
+                }
+                if (mysql) {
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.execute("SET unique_checks = 1, foreign_key_checks = 1");
+                    }
+                }
+            } finally {
+                // rolls back anything not finished
+                conn.close();
+            }
+        }
+    }
+
+    private static class City {
+        private final String country;
+        private final String city;
+        private final String postalPrefix;
+        private final double latitude;
+        private final double longitude;
+        private final double weight;
+        private final double price;
+        private final double occupancy;
+
+        private City(String country, String city, String postalPrefix, double latitude, double longitude,
+                     double weight, double price, double occupancy) {
+            this.country = country;
+            this.city = city;
+            this.postalPrefix = postalPrefix;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.weight = weight;
+            this.price = price;
+            this.occupancy = occupancy;
+        }
+    }
+}
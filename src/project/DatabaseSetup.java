@@ -0,0 +1,20 @@
+package project;
+
+import java.sql.SQLException;
+
+/* One-time setup of a database that already has the MyBnB tables: creates the indexes the reports rely on and the
+ * tables the noun phrase counts are stored in. Safe to run again; indexes and tables that exist are left alone. */
+public class DatabaseSetup {
+
+    public static void main(String[] args) {
+        try {
+            DAO dao = new DAO(Driver.dbName, Driver.user, Driver.password);
+            dao.createReportIndexes();
+            dao.createPhraseTables();
+            System.out.println("Report indexes and phrase tables are in place");
+            dao.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
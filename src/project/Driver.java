@@ -1,5 +1,10 @@
 package project;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.*;
 
@@ -8,6 +13,8 @@ public class Driver {
     public static final String dbName = "project";
     public static final String user = "root";
     public static final String password = "HAVISHU19";
+    // listings shown per page of search results
+    public static final int PAGE_SIZE = 20;
 
     private static Scanner scanner;
     private static DAO dao;
@@ -32,20 +39,21 @@ public class Driver {
 
     public static void displayHostMenu() {
         System.out.println("1: Create A Listing"); // -> take necessary input
-        System.out.println("2: View Your Listings"); // -> can select a listing and then update price or availability
-        System.out.println("3: View Upcoming Bookings"); // -> can cancel a booking
-        System.out.println("4: View Past Bookings"); // -> can select a booking to leave a review
-        System.out.println("5: View Canceled Bookings");
-        System.out.println("6: Leave A Review About A Renter"); // -> take text and rating input
-        System.out.println("7: Delete Account");
-        System.out.println("8: Log Out");
+        System.out.println("2: Import Listings From A CSV File");
+        System.out.println("3: View Your Listings"); // -> can select a listing and then update price or availability
+        System.out.println("4: View Upcoming Bookings"); // -> can cancel a booking
+        System.out.println("5: View Past Bookings"); // -> can select a booking to leave a review
+        System.out.println("6: View Canceled Bookings");
+        System.out.println("7: Leave A Review About A Renter"); // -> take text and rating input
+        System.out.println("8: Delete Account");
+        System.out.println("9: Log Out");
     }
 
     public static void displayReportsMenu() {
         System.out.println("1: Number of bookings in a date range and city (and postal code)");
         System.out.println("2: Number of listings per country (and city (and postal code))");
         System.out.println("3: Rank hosts based on number of listings per country (or city)");
-        System.out.println("4: Display hosts with more than 10% listings in that city and country");
+        System.out.println("4: Display hosts with more than a share (10% by default) of listings in that city and country");
         System.out.println("5: Rank renters based on number of bookings in a date range (and city)");
         System.out.println("6: Hosts or renters with highest number of cancellations");
         System.out.println("7: Display popular noun phrases for each listing");
@@ -156,14 +164,13 @@ public class Driver {
         System.out.println("2: Listings near a coordinate");
         System.out.println("3: Listings near a postal code");
         System.out.println("4: Listings at an address");
+        System.out.println("5: Listings closest to a coordinate");
 
         System.out.print("Enter Input: ");
         int input = scanner.nextInt();
 
-        boolean coordinateSearch = false;
-        StringBuilder query = new StringBuilder();
+        ListingSearch search = new ListingSearch();
 
-        query.append("SELECT * FROM Listings NATURAL JOIN Addresses WHERE Status='ACTIVE'");
         switch (input) {
             case 2:
                 System.out.print("Enter latitude (-90 to 90) longitude (-180 to 180): ");
@@ -171,20 +178,11 @@ public class Driver {
                 double longitude = scanner.nextDouble();
                 System.out.print("Specify distance(km) or enter -1 for default: ");
                 double distance = scanner.nextDouble()*1000;
-                if (distance < 0) {
-                    distance = 5000;
-                }
-                query.setLength(0);
-                query.append("WITH temp AS (SELECT *, ST_Distance_Sphere(point("+longitude+", "+latitude+"), " +
-                        "point(Longitude, Latitude)) as Distance FROM Listings NATURAL JOIN Addresses " +
-                        "WHERE Status='ACTIVE') " +
-                        "SELECT * FROM temp WHERE Distance <= " +distance+ " ORDER BY Distance");
-                coordinateSearch = true;
+                search.nearCoordinate(latitude, longitude, distance);
                 break;
             case 3:
                 System.out.print("Enter postal code (length >3): ");
-                String postalCode = scanner.next().toLowerCase(Locale.ROOT).substring(0, 3);
-                query.append(" AND SUBSTRING(PostalCode, 1, 3)='" + postalCode + "'");
+                search.nearPostalCode(scanner.next().toLowerCase(Locale.ROOT));
                 break;
             case 4:
                 scanner.nextLine();
@@ -194,103 +192,96 @@ public class Driver {
                 String city = scanner.nextLine().toLowerCase(Locale.ROOT).trim();
                 System.out.print("Country: ");
                 String country = scanner.nextLine().toLowerCase(Locale.ROOT).trim();
-                query.append((" AND Address='%s' AND City='%s' AND Country='%s'").formatted(address, city, country));
+                search.atAddress(address, city, country);
+                break;
+            case 5:
+                System.out.print("Enter latitude (-90 to 90) longitude (-180 to 180): ");
+                double closestLatitude = scanner.nextDouble();
+                double closestLongitude = scanner.nextDouble();
+                System.out.print("Number of listings (1 to " + ListingSearch.MAX_CLOSEST + "): ");
+                int k = scanner.nextInt();
+                try {
+                    search.closestTo(closestLatitude, closestLongitude, k);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage() + ", showing all listings.");
+                }
                 break;
             default:
                 break;
         }
 
-        String [] views = {"Base", "Filter1", "Filter2", "Filter3", "Filter4"};
-        for (String s: views) {
-            dao.deleteView(s);
-        }
-
-        dao.createView("Base", query.toString());
-
-        StringBuilder query1 = new StringBuilder();
-
-        System.out.print("Would you like to filter by date range? (y/n): ");
+        System.out.print("Would you like to filter by date range? (y/n/f for flexible dates): ");
         
         String response = scanner.next().trim().toLowerCase(Locale.ROOT);
         if (response.equals("y")) {
             System.out.print("Enter date range YYYY-MM-DD YYYY-MM-DD: ");
             String startDate = scanner.next();
             String endDate = scanner.next();
-            query1.append("SELECT * FROM Base WHERE LID IN (SELECT L.LID FROM Listings L, Calendars C " +
-                    "WHERE L.LID=C.LID AND C.Status='AVAILABLE' AND " +
-                    "Day BETWEEN '%s' AND '%s' ".formatted(startDate, endDate) +
-                    "GROUP BY L.LID HAVING COUNT(*)=DATEDIFF('%s', '%s')+1)".formatted(endDate, startDate));
-            dao.createView("Filter1", query1.toString());
-        } else {
-            dao.createView("Filter1", "SELECT * FROM BASE");
+            search.availableBetween(startDate, endDate);
+        } else if (response.equals("f")) {
+            System.out.print("Enter number of nights: ");
+            int nights = scanner.nextInt();
+            System.out.print("Enter window to stay in YYYY-MM-DD YYYY-MM-DD: ");
+            String windowStart = scanner.next();
+            String windowEnd = scanner.next();
+            if (nights > 0) {
+                search.availableForNights(nights, windowStart, windowEnd);
+            } else {
+                System.out.println("Invalid number of nights, ignoring date filter.");
+            }
         }
 
-        StringBuilder query2 = new StringBuilder();
-
         System.out.print("Would you like to filter by price range? (y/n): ");
         response = scanner.next();
         if (response.equalsIgnoreCase("y")) {
             System.out.print("Enter price range, separated by a space: ");
             Double min = scanner.nextDouble();
             Double max = scanner.nextDouble();
-            query2.append("SELECT * FROM Filter1 WHERE LID IN (SELECT L.LID FROM LISTINGS L, CALENDARS C "+
-                    "WHERE L.LID=C.LID GROUP BY L.LID HAVING AVG(Price) BETWEEN "+min+" AND "+max+")");
-            dao.createView("Filter2", query2.toString());
-        } else {
-            dao.createView("Filter2", "SELECT * FROM Filter1");
+            search.priceBetween(min, max);
         }
 
-        StringBuilder query3 = new StringBuilder();
-
         System.out.print("Would you like to filter by amenities offered? (y/n): ");
         response = scanner.next().toLowerCase(Locale.ROOT);
         if (response.equals("y")) {
             scanner.nextLine();
             System.out.print("Enter amenities (comma separated): ");
             String str = scanner.nextLine();
-            String [] amenities = str.split(",");
-            StringBuilder set = new StringBuilder();
-            set.append("(");
-            for (int i=0; i<amenities.length; i++) {
-                if (i==0) {
-                    set.append("'" + amenities[i].trim() + "'");
-                } else {
-                    set.append("," + "'" + amenities[i].trim() + "'");
-                }
+            List<String> amenities = new ArrayList<>();
+            for (String amenity : str.split(",")) {
+                amenities.add(amenity.trim());
             }
-            set.append(")");
-            query3.append("SELECT * FROM Filter2 WHERE LID IN (SELECT LID FROM Listings NATURAL JOIN Offers " +
-                    "WHERE Description IN " + set + " GROUP BY LID HAVING COUNT(*)=" + amenities.length + ")");
-            dao.createView("Filter3", query3.toString());
-        } else {
-            dao.createView("Filter3", "SELECT * FROM Filter2");
+            search.withAmenities(amenities);
         }
 
-        StringBuilder query4 = new StringBuilder();
-
         System.out.print("Would you like to filter by type? (y/n): ");
         response = scanner.next();
         if (response.equalsIgnoreCase("y")) {
             System.out.print("Enter type (house, apartment, guesthouse, hotel): ");
             String type = scanner.next().trim().toLowerCase(Locale.ROOT);
-            query4.append("SELECT * FROM Filter3 WHERE Type = '%s'".formatted(type));
-            dao.createView("Filter4", query4.toString());
-        } else {
-            dao.createView("Filter4", "SELECT * FROM Filter3");
+            search.ofType(type);
         }
 
-        ArrayList<Listing> listings;
         System.out.print("Would you like to rank by price? (asc/desc/n): ");
         String str = scanner.next().trim().toUpperCase(Locale.ROOT);
-        listings = dao.getListingsFromView("Filter4", str, coordinateSearch);
-
-        for (String s: views) {
-            dao.deleteView(s);
-        }
-
-        for (int j=0; j<listings.size(); j++) {
-            System.out.println(j + ") " + listings.get(j));
-        }
+        search.orderByPrice(str);
+
+        // show results a page at a time, so large catalogs are never read in full
+        List<Listing> listings = new ArrayList<>();
+        String token = null;
+        do {
+            ListingPage page = dao.searchListings(search, PAGE_SIZE, token);
+            for (Listing listing : page.getListings()) {
+                System.out.println(listings.size() + ") " + listing);
+                listings.add(listing);
+            }
+            token = page.getNextToken();
+            if (token != null) {
+                System.out.print("Show more listings? (y/n): ");
+                if (!scanner.next().trim().equalsIgnoreCase("y")) {
+                    break;
+                }
+            }
+        } while (token != null);
 
         return listings;
     }
@@ -299,7 +290,7 @@ public class Driver {
         // 1) num of bookings in a date range and city (optional postal code)
         // 2) num of listings per country or country and city or country and city and postal code
         // 3) rank hosts based on num of listings per country (or by city)
-        // 4) hosts that have more than 10% listings in that city, country
+        // 4) hosts that have more than a share (10% by default) of listings in that city, country
         // 5) rank renters by num of bookings in a date range (optional per city)
         // 6) hosts or renters with highest number of cancellations
         // 7) noun phrases of listing
@@ -331,10 +322,20 @@ public class Driver {
             case 3:
                 System.out.print("Would you like to rank by city? (y/n): ");
                 String input = scanner.next().trim().toLowerCase(Locale.ROOT);
-                dao.rankHosts(input);
+                System.out.print("How many hosts to show per country (or city)? (-1 for all): ");
+                int limit = scanner.nextInt();
+                dao.rankHosts(input, Math.max(0, limit));
                 break;
             case 4:
-                dao.reportHost();
+                System.out.print("Enter the share of a city's listings in percent, or -1 for default: ");
+                double percent = scanner.nextDouble();
+                if (percent < 0) {
+                    dao.reportHost();
+                } else if (percent <= 100) {
+                    dao.reportHost(percent / 100);
+                } else {
+                    System.out.println("Invalid input.");
+                }
                 break;
             case 5:
                 System.out.print("Enter start-date end-date (YYYY-MM-DD): ");
@@ -343,7 +344,9 @@ public class Driver {
 
                 System.out.print("Would you also like to rank by city? (y/n): ");
                 input = scanner.next().trim().toLowerCase(Locale.ROOT);
-                dao.rankRenters(startDate, endDate, input);
+                System.out.print("How many renters to show (per city)? (-1 for all): ");
+                limit = scanner.nextInt();
+                dao.rankRenters(startDate, endDate, input, Math.max(0, limit));
                 break;
             case 6:
                 System.out.print("Would you like to view hosts or renters? (host, renter, both): ");
@@ -354,12 +357,22 @@ public class Driver {
                     return;
                 }
 
-                System.out.print("Enter year of interest: ");
+                System.out.print("Enter year of interest, or start-date end-date (YYYY or YYYY-MM-DD YYYY-MM-DD): ");
                 String year = scanner.next().trim();
-                dao.reportCancellations(hostRenter, year);
+                if (year.contains("-")) {
+                    dao.reportCancellations(hostRenter, year, scanner.next().trim());
+                } else {
+                    dao.reportCancellations(hostRenter, year);
+                }
                 break;
             case 7:
-                Listing.displayNPs(dao);
+                System.out.print("Use the full parser or the faster chunker? (parser, chunker): ");
+                String engine = scanner.next().trim().toUpperCase(Locale.ROOT);
+                if (!engine.equals("PARSER") && !engine.equals("CHUNKER")) {
+                    System.out.println("Invalid input.");
+                    return;
+                }
+                Listing.displayNPs(dao, NounPhrases.Engine.valueOf(engine));
                 break;
             default:
                 break;
@@ -589,6 +602,26 @@ public class Driver {
 
     }
 
+    /* Imports the host's listings from a CSV file; see ListingImporter for its columns. */
+    public static void importListings() {
+        scanner.nextLine(); // flush
+        System.out.print("Path to CSV file: ");
+        String path = scanner.nextLine().trim();
+
+        long start = System.nanoTime();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            int imported = new ListingImporter(dao, loggedInUser.getUid()).importCsv(in, System.out);
+            System.out.printf("Imported %d listings in %.1f s%n", imported, (System.nanoTime() - start) / 1e9);
+        } catch (IllegalArgumentException iae) {
+            System.out.println(iae.getMessage());
+        } catch (IOException iox) {
+            System.out.println("Could not read " + path);
+        } catch (SQLException sql) {
+            sql.printStackTrace();
+            System.out.println("There was a problem importing those listings");
+        }
+    }
+
     public static void addAmenities(int lid, String type, String country, String city, String postalCode) {
         System.out.println("===== Adding amenities to listing =====");
 
@@ -654,43 +687,30 @@ public class Driver {
         System.out.println("Finished adding amenities");
     }
 
-    public static double getAvgPriceOfListings(String type, List<Amenity> offered,
-                                                String country, String city, String postalCode,
-                                                boolean recommendPrice) throws SQLException {
-        double price = dao.avgPriceOfListings(type, offered, country, city, postalCode);
-        if (price > 0) {
-            return price;
+    /* Returns up to five amenities of the given categories that the listing does not offer yet, the most offered
+     * first, or the least offered first if rarest is set. */
+    public static List<Amenity> pickAmenities(LinkedHashMap<Amenity, Integer> counts, List<String> offered,
+                                              boolean rarest, String... categories) {
+        List<Amenity> amenities = new ArrayList<>(counts.keySet());
+        if (rarest) {
+            Collections.reverse(amenities);
         }
-        if (recommendPrice) {
-            price = dao.avgPriceOfListings(type, new ArrayList<>(), country, city, postalCode);
-            if (price > 0) {
-                return price;
+        List<String> wanted = Arrays.asList(categories);
+        List<Amenity> result = new ArrayList<>();
+        for (Amenity amenity : amenities) {
+            if (result.size() == 5) {
+                break;
             }
-        }
-        price = dao.avgPriceOfListings(type, offered, country, city);
-        if (price > 0) {
-            return price;
-        }
-        if (recommendPrice) {
-            price = dao.avgPriceOfListings(type, new ArrayList<>(), country, city);
-            if (price > 0) {
-                return price;
+            if (wanted.contains(amenity.getCategory()) && !offered.contains(amenity.getDescription())) {
+                result.add(amenity);
             }
         }
-        price = dao.avgPriceOfListings(type, offered, country);
-        if (price > 0) {
-            return price;
-        }
-        if (recommendPrice) {
-            price = dao.avgPriceOfListings(type, new ArrayList<>(), country);
-        }
-        return price;
+        return result;
     }
 
-    public static void recommendAmenities(List<Amenity> amenities, List<Amenity> offered, String type, String country,
-                                        String city, String postalCode, double price) throws SQLException {
+    public static void recommendAmenities(List<Amenity> amenities, PriceSlice.Recommendation recommendation) {
 
-        if (price <= 0) {
+        if (recommendation.getComparablePrice() <= 0) {
             for (int j=0; j<2 && j<amenities.size(); j++) {
                 System.out.println(j + ") " + amenities.get(j).getDescription());
             }
@@ -702,11 +722,7 @@ public class Driver {
         Amenity amenity1 = null;
         Amenity amenity2 = null;
         while (i < amenities.size()) {
-            List<Amenity> temp = new ArrayList<>();
-            temp.addAll(offered);
-            temp.add(amenities.get(i));
-            double newPrice = getAvgPriceOfListings(type, temp, country, city, postalCode, false);
-            double priceIncrease = newPrice - price;
+            double priceIncrease = recommendation.getUplift(amenities.get(i).getDescription());
             if (priceIncrease > max1) {
                 max2 = max1;
                 amenity2 = amenity1;
@@ -738,43 +754,54 @@ public class Driver {
             System.out.println(1 + ") " + amenity2.getDescription() +
                     " with price increase of " + max2);
         }
-//        if (price <= 0 || newPrice <= 0 || newPrice <= price) {
-//            System.out.println(i + ") " + amenities.get(i).getDescription());
-//        } else {
-//            double increase = newPrice - price;
-//            System.out.println(i + ") " + amenities.get(i).getDescription() +
-//                    " with price increase of " + increase);
-//        }
-
     }
 
+    /* Recommends a price and amenities for the listing. Prices come from the price cube once it is loaded, otherwise
+     * the listings it is compared with are read once; either way every candidate is priced in memory. */
     public static void hostToolkit(int lid, String type, String country, String city, String postalCode) {
         try {
-            // ----------- recommend price -------------
             String star = "*";
             System.out.println(star.repeat(50));
-            List<Amenity> offered = dao.getAmenitiesListByLID(lid);
-            double price = getAvgPriceOfListings(type, offered, country, city, postalCode, true);
-            if (price <= 0) {
+            PriceSlice slice = dao.getPriceCube().isLoaded() ? null : dao.getPriceSlice(type, country);
+            List<String> offered = slice == null ? null : slice.getAmenities(lid);
+            if (offered == null) {
+                offered = new ArrayList<>();
+                for (Amenity amenity : dao.getAmenitiesListByLID(lid)) {
+                    offered.add(amenity.getDescription());
+                }
+            }
+            LinkedHashMap<Amenity, Integer> counts = dao.getAmenityCounts();
+            List<Amenity> essentials = pickAmenities(counts, offered, false, "essentials", "safety");
+            List<Amenity> features = pickAmenities(counts, offered, true, "features");
+            List<String> candidates = new ArrayList<>();
+            for (Amenity amenity : essentials) {
+                candidates.add(amenity.getDescription());
+            }
+            for (Amenity amenity : features) {
+                candidates.add(amenity.getDescription());
+            }
+            PriceSlice.Recommendation recommendation = slice == null
+                    ? dao.getPriceCube().recommend(type, country, city, postalCode, offered, candidates)
+                    : slice.recommend(city, postalCode, offered, candidates);
+
+            // ----------- recommend price -------------
+            if (recommendation.getPrice() <= 0) {
                 System.out.println("Not enough data to recommend price of listing");
             } else {
-                System.out.println("Recommended price: " + price);
+                System.out.println("Recommended price: " + recommendation.getPrice());
             }
             // ----------- recommend amenities -------------
-            price = getAvgPriceOfListings(type, offered, country, city, postalCode, false);
-            List<Amenity> essentials = dao.getCommonEssentials(offered);
-            List<Amenity> features = dao.getUncommonFeatures(offered);
             if (essentials.isEmpty()) {
                 System.out.println("No essentials to recommend");
             } else {
                 System.out.println("Consider adding the following essentials/safety: ");
-                recommendAmenities(essentials, offered, type, country, city, postalCode, price);
+                recommendAmenities(essentials, recommendation);
             }
             if (features.isEmpty()) {
                 System.out.println("No features to recommend");
             } else {
                 System.out.println("Consider adding the following features: ");
-                recommendAmenities(features, offered, type, country, city, postalCode, price);
+                recommendAmenities(features, recommendation);
             }
             System.out.println(star.repeat(50));
         } catch (SQLException e) {
@@ -859,9 +886,12 @@ public class Driver {
                     createListing();
                     break;
                 case 2:
-                    viewHostListings();
+                    importListings();
                     break;
                 case 3:
+                    viewHostListings();
+                    break;
+                case 4:
                     List<Booking> bookings = displayBookings("UPCOMING");
                     if (!bookings.isEmpty()) {
                         cancelBooking(bookings);
@@ -869,19 +899,19 @@ public class Driver {
                         System.out.println("No bookings to display");
                     }
                     break;
-                case 4:
+                case 5:
                     bookings = displayBookings("PAST");
                     if (bookings.isEmpty()) {
                         System.out.println("No bookings to display");
                     }
                     break;
-                case 5:
+                case 6:
                     bookings = displayBookings("CANCELED");
                     if (bookings.isEmpty()) {
                         System.out.println("No bookings to display");
                     }
                     break;
-                case 6:
+                case 7:
                     List<User> renters = displayUsers();
                     if (!renters.isEmpty()) {
                         reviewUser(renters);
@@ -889,13 +919,13 @@ public class Driver {
                         System.out.println("No renters to display");
                     }
                     break;
-                case 7:
+                case 8:
                     dao.deleteHost(loggedInUser.getUid());
                     System.out.println("User deleted successfully");
                     isLoggedIn = false;
                     loggedInUser = null;
                     break;
-                case 8:
+                case 9:
                     System.out.println("Thank you for using MyBnB!");
                     isLoggedIn = false;
                     loggedInUser = null;
@@ -933,10 +963,11 @@ public class Driver {
             return;
         }
         Booking booking = bookings.get(input);
-        dao.updateCalendar(booking.getLid(), booking.getStartDate(),
-                booking.getEndDate(), "AVAILABLE");
-        dao.updateBooking(booking.getBid());
-        System.out.println("Booking canceled successfully");
+        if (dao.cancelBooking(booking.getBid())) {
+            System.out.println("Booking canceled successfully");
+        } else {
+            System.out.println("Booking is no longer upcoming");
+        }
     }
 
     public static void reviewBooking(List<Booking> bookings) throws SQLException {
@@ -1061,6 +1092,7 @@ public class Driver {
             boolean isLoggedIn = false;
 
             dao = new DAO(dbName, user, password);
+            dao.loadIndexes();
 
             scanner = new Scanner(System.in);
             System.out.println("Welcome to MyBnB!");
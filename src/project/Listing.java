@@ -1,15 +1,6 @@
 package project;
 
-import opennlp.tools.cmdline.parser.ParserTool;
-import opennlp.tools.parser.Parse;
-import opennlp.tools.parser.Parser;
-import opennlp.tools.parser.ParserFactory;
-import opennlp.tools.parser.ParserModel;
-
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
 
@@ -59,65 +50,19 @@ public class Listing {
         }
     }
 
-    /* Displays the report for the most commonly used NPs in reviews for listings */
-    public static void displayNPs(DAO dao) {
+    /* Displays the report for the most commonly used NPs in reviews for listings, as found by the engine. Only
+     * reviews written or changed since the engine's last report are parsed; the counts of all others are read back
+     * from the database. */
+    public static void displayNPs(DAO dao, NounPhrases.Engine engine) {
         try {
-            // set up the parser
-            InputStream modelFile = new FileInputStream("en-parser-chunking.bin");
-            ParserModel model = new ParserModel(modelFile);
-            Parser parser = ParserFactory.create(model);
-
-            // get review info
-            ResultSet reviews = dao.getAllListingReviews();
-            LinkedHashMap<Integer, Integer> listingReviewNum = dao.getListingReviewNum();
-
-            Set<Integer> keys = listingReviewNum.keySet();
-
-            // loop through listingReviewNum, which stores listing to number of reviews
-            for (Integer key : keys) {
-                // get lid and review number of the current listing
-                int lid = key;
-                int numReviews = listingReviewNum.get(key);
-
-                // loop through reviews `numReviews` times to get all this listing's reviews
-                // combine into one hashmap of NPs to number of occurrences
-                HashMap<String, Integer> nounCount = new HashMap<>();
-                for (int i = 0; i < numReviews; i++) {
-                    // get individual review
-                    reviews.next();
-                    String review = reviews.getString("Review");
-
-                    // split the review into sentences
-                    String[] split = review.toLowerCase(Locale.ROOT).split("[.!?]");
-
-                    // loop through sentences and parse them
-                    for (int j = 0; j < split.length; j++) {
-                        Parse parses[] = ParserTool.parseLine(split[j], parser, 1);
-
-                        // call method to extract the NPs
-                        for (Parse p : parses) {
-                            getNounPhrases(p, nounCount);
-                        }
-                    }
-                }
+            NounPhrases.countNewReviews(dao, engine, NounPhrases.getWorkers());
 
+            for (Map.Entry<Integer, List<Map.Entry<String, Integer>>> entry : dao.getTopPhrases(engine, 5).entrySet()) {
                 // print out the top NPs for this listing
-                System.out.println("LISTING ID: " + lid);
-
-//                Object[] sorted = nounCount.entrySet().stream()
-//                                .sorted(Collections.reverseOrder(Map.Entry.comparingByValue())).toArray();
-
-                List<Map.Entry<String, Integer>> list = new LinkedList<>(nounCount.entrySet());
-                Collections.sort(list, Collections.reverseOrder(Map.Entry.comparingByValue()));
-                int i = 0;
-                for (Map.Entry<String, Integer> cur : list) {
+                System.out.println("LISTING ID: " + entry.getKey());
+                for (Map.Entry<String, Integer> cur : entry.getValue()) {
                     System.out.println("\tPhrase: " + cur.getKey() + "; Frequency: " + cur.getValue());
-                    if (i == 4) {
-                        break;
-                    }
-                    i++;
                 }
-
             }
 
         } catch (SQLException sql) {
@@ -128,23 +73,28 @@ public class Listing {
         }
     }
 
-    private static void getNounPhrases(Parse p, HashMap<String, Integer> nounCount) {
-        if (p.getType().equals("NP")) {
-            String np = p.getCoveredText();
-            if (nounCount.containsKey(np)) {
-                nounCount.put(np, nounCount.get(np) + 1);
-            } else {
-                nounCount.put(np, 1);
-            }
-        }
+    public int getLid() {
+        return lid;
+    }
 
-        for (Parse child : p.getChildren()) {
-            getNounPhrases(child, nounCount);
-        }
+    public String getType() {
+        return type;
     }
 
-    public int getLid() {
-        return lid;
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public Address getAddress() {
+        return address;
+    }
+
+    public String getAux() {
+        return aux;
     }
 
     @Override
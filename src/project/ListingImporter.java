@@ -0,0 +1,375 @@
+package project;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/* Imports a host's listings, with their amenities and availability, from a CSV file. The file is read a record at a
+ * time and every BATCH_SIZE valid rows are written by DAO.importListings in one transaction, so the file can be of
+ * any length. A row that cannot be imported is reported with its line number and the rest of the file goes on.
+ *
+ * The first line names the columns, in any order: type, latitude, longitude, address, city, country, postal_code,
+ * amenities and availability. Amenities are separated by ';'. Availability is a ';' separated list of
+ * start:end:price ranges, with both days included, e.g. 2024-06-01:2024-08-31:150. Fields holding commas or quotes
+ * are quoted, with quotes inside doubled. */
+public class ListingImporter {
+
+    public static final int BATCH_SIZE = 500;
+
+    private static final String[] COLUMNS = {"type", "latitude", "longitude", "address", "city", "country",
+            "postal_code", "amenities", "availability"};
+    private static final String[] CATEGORIES = {"essentials", "features", "location", "safety"};
+
+    private final DAO dao;
+    private final int hid;
+    // every amenity's description, keyed by its lower case form
+    private final Map<String, String> amenities = new HashMap<>();
+
+    public ListingImporter(DAO dao, int hid) throws SQLException {
+        this.dao = dao;
+        this.hid = hid;
+        for (String category : CATEGORIES) {
+            for (String description : dao.getAmenitiesListByCategory(category)) {
+                amenities.put(description.toLowerCase(Locale.ROOT), description);
+            }
+        }
+    }
+
+    /* Imports every row of the file, printing one line to out for each row that was rejected and why. Returns the
+     * number of listings created. */
+    public int importCsv(BufferedReader in, PrintStream out) throws IOException, SQLException {
+        CsvReader reader = new CsvReader(in);
+        List<String> header = reader.next();
+        if (header == null) {
+            throw new IllegalArgumentException("The file is empty");
+        }
+        int[] index = columnIndexes(header);
+
+        int imported = 0;
+        List<Row> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            List<String> record;
+            try {
+                record = reader.next();
+            } catch (IllegalArgumentException e) {
+                out.println("line " + reader.getLine() + ": " + e.getMessage());
+                break;
+            }
+            if (record == null) {
+                break;
+            }
+            if (record.size() == 1 && record.get(0).isBlank()) {
+                continue;
+            }
+            try {
+                batch.add(parse(reader.getLine(), record, index));
+            } catch (IllegalArgumentException e) {
+                out.println("line " + reader.getLine() + ": " + e.getMessage());
+            }
+            if (batch.size() == BATCH_SIZE) {
+                imported += write(batch, out);
+                batch.clear();
+            }
+        }
+        return imported + write(batch, out);
+    }
+
+    private int write(List<Row> batch, PrintStream out) throws SQLException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int imported = 0;
+        for (Row row : dao.importListings(hid, batch)) {
+            if (row.getError() == null) {
+                imported++;
+            } else {
+                out.println("line " + row.getLine() + ": " + row.getError());
+            }
+        }
+        return imported;
+    }
+
+    private static int[] columnIndexes(List<String> header) {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            positions.put(header.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        int[] index = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            Integer position = positions.get(COLUMNS[i]);
+            if (position == null) {
+                throw new IllegalArgumentException("The header has no " + COLUMNS[i] + " column");
+            }
+            index[i] = position;
+        }
+        return index;
+    }
+
+    /* Builds the row for one record, normalised as Listing.createListing would, or throws with the reason it is
+     * invalid. */
+    private Row parse(int line, List<String> record, int[] index) {
+        String[] fields = new String[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            fields[i] = index[i] < record.size() ? record.get(index[i]).trim() : "";
+        }
+        String type = fields[0].toLowerCase(Locale.ROOT);
+        double latitude = parseNumber(fields[1], "latitude");
+        double longitude = parseNumber(fields[2], "longitude");
+        String address = fields[3].toLowerCase(Locale.ROOT);
+        String city = fields[4].toLowerCase(Locale.ROOT);
+        String country = fields[5].toLowerCase(Locale.ROOT);
+        String postalCode = fields[6].toLowerCase(Locale.ROOT);
+        try {
+            Listing.validateParameters(type, latitude, longitude, address, city, country, postalCode);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Fields must be non-empty and the type one of house, apartment, " +
+                    "guesthouse or hotel");
+        }
+        if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+            throw new IllegalArgumentException("Coordinates out of range");
+        }
+
+        Set<String> offered = new LinkedHashSet<>();
+        for (String amenity : fields[7].split(";")) {
+            if (amenity.isBlank()) {
+                continue;
+            }
+            String description = amenities.get(amenity.trim().toLowerCase(Locale.ROOT));
+            if (description == null) {
+                throw new IllegalArgumentException("Unknown amenity " + amenity.trim());
+            }
+            offered.add(description);
+        }
+
+        List<Range> ranges = new ArrayList<>();
+        for (String range : fields[8].split(";")) {
+            if (!range.isBlank()) {
+                ranges.add(parseRange(range.trim()));
+            }
+        }
+        ranges.sort((a, b) -> a.start.compareTo(b.start));
+        for (int i = 1; i < ranges.size(); i++) {
+            if (!ranges.get(i).start.isAfter(ranges.get(i - 1).end)) {
+                throw new IllegalArgumentException("Availability ranges overlap");
+            }
+        }
+        return new Row(line, type, latitude, longitude, address, city, country, postalCode,
+                new ArrayList<>(offered), ranges);
+    }
+
+    private static double parseNumber(String field, String name) {
+        try {
+            return Double.parseDouble(field);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " " + field);
+        }
+    }
+
+    private static Range parseRange(String range) {
+        String[] parts = range.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Availability must be start:end:price, not " + range);
+        }
+        LocalDate start;
+        LocalDate end;
+        try {
+            start = LocalDate.parse(parts[0].trim(), DateTimeFormatter.ISO_LOCAL_DATE);
+            end = LocalDate.parse(parts[1].trim(), DateTimeFormatter.ISO_LOCAL_DATE);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date in " + range);
+        }
+        double price = parseNumber(parts[2].trim(), "price");
+        if (end.isBefore(start)) {
+            throw new IllegalArgumentException("Range ends before it starts: " + range);
+        }
+        if (!(price > 0)) {
+            throw new IllegalArgumentException("Invalid price in " + range);
+        }
+        return new Range(start, end, price);
+    }
+
+    /* One listing to import. DAO.importListings sets its LID once it is written, or the reason it was not. */
+    public static class Row {
+        private final int line;
+        private final String type;
+        private final double latitude;
+        private final double longitude;
+        private final String address;
+        private final String city;
+        private final String country;
+        private final String postalCode;
+        private final List<String> amenities;
+        private final List<Range> availability;
+        private int lid = -1;
+        private String error;
+
+        public Row(int line, String type, double latitude, double longitude, String address, String city,
+                   String country, String postalCode, List<String> amenities, List<Range> availability) {
+            this.line = line;
+            this.type = type;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.address = address;
+            this.city = city;
+            this.country = country;
+            this.postalCode = postalCode;
+            this.amenities = amenities;
+            this.availability = availability;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public String getCity() {
+            return city;
+        }
+
+        public String getCountry() {
+            return country;
+        }
+
+        public String getPostalCode() {
+            return postalCode;
+        }
+
+        public List<String> getAmenities() {
+            return amenities;
+        }
+
+        public List<Range> getAvailability() {
+            return availability;
+        }
+
+        public int getLid() {
+            return lid;
+        }
+
+        public void setLid(int lid) {
+            this.lid = lid;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public void setError(String error) {
+            this.error = error;
+        }
+    }
+
+    /* Days from start to end, both included, open at one nightly price. */
+    public static class Range {
+        private final LocalDate start;
+        private final LocalDate end;
+        private final double price;
+
+        public Range(LocalDate start, LocalDate end, double price) {
+            this.start = start;
+            this.end = end;
+            this.price = price;
+        }
+
+        public LocalDate getStart() {
+            return start;
+        }
+
+        public LocalDate getEnd() {
+            return end;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+    }
+
+    /* Splits the input into records of fields. A quoted field may hold commas, doubled quotes and line breaks. */
+    private static class CsvReader {
+        private final BufferedReader in;
+        private int lineNumber = 0;
+        private int recordLine = 0;
+
+        private CsvReader(BufferedReader in) {
+            this.in = in;
+        }
+
+        /* The line the last record returned by next() started on. */
+        private int getLine() {
+            return recordLine;
+        }
+
+        private List<String> next() throws IOException {
+            String line = in.readLine();
+            if (line == null) {
+                return null;
+            }
+            recordLine = ++lineNumber;
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            int i = 0;
+            while (true) {
+                if (i == line.length()) {
+                    if (!quoted) {
+                        break;
+                    }
+                    line = in.readLine();
+                    if (line == null) {
+                        throw new IllegalArgumentException("Unterminated quote");
+                    }
+                    lineNumber++;
+                    field.append('\n');
+                    i = 0;
+                    continue;
+                }
+                char c = line.charAt(i++);
+                if (quoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < line.length() && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package project;
+
+import java.util.List;
+
+/* One page of search results plus the token to pass back for the next page, which is null on the last page. The
+ * token is the sort key and LID of the page's last listing, so the next page starts right after it. */
+public class ListingPage {
+    private final List<Listing> listings;
+    private final String nextToken;
+
+    public ListingPage(List<Listing> listings, String nextToken) {
+        this.listings = listings;
+        this.nextToken = nextToken;
+    }
+
+    public List<Listing> getListings() {
+        return listings;
+    }
+
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+
+    public static String token(double key, int lid) {
+        return key + ":" + lid;
+    }
+
+    public static double keyOf(String token) {
+        return Double.parseDouble(token.substring(0, token.lastIndexOf(':')));
+    }
+
+    public static int lidOf(String token) {
+        return Integer.parseInt(token.substring(token.lastIndexOf(':') + 1));
+    }
+}
@@ -0,0 +1,390 @@
+package project;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/* A listing search made of a base predicate plus optional date, price, amenity and type filters. It compiles to a
+ * single parameterized SELECT that DAO.searchListings runs, so concurrent searches never touch shared views. */
+public class ListingSearch {
+
+    public static final double DEFAULT_DISTANCE = 5000; // meters
+    // most listings a closest search may ask for
+    public static final int MAX_CLOSEST = 1000;
+    // most nearby listing ids bound into the query one by one; past this the query is limited to the bounding box of
+    // the radius instead, since a prepared statement takes at most 65,535 placeholders
+    private static final int MAX_NEARBY_IDS = 1000;
+    private static final double METERS_PER_DEGREE = Math.PI * SpatialIndex.EARTH_RADIUS / 180;
+
+    /* Predicates the caller has already checked in memory, which toSql then leaves out of the query. */
+    public enum Resolved { COORDINATE, DATES, AMENITIES, PRICE }
+
+    /* What paged results are ordered by: average price when ranking by price, else distance for coordinate
+     * searches, else nothing but LID. */
+    public enum SortKey { LID, PRICE, DISTANCE }
+
+    // base predicate
+    private boolean coordinateSearch = false;
+    private double latitude;
+    private double longitude;
+    private double distance;
+    private int closest = 0;
+    private String postalPrefix;
+    private String address;
+    private String city;
+    private String country;
+
+    // filters
+    private String startDate;
+    private String endDate;
+    private int nights = 0;
+    private String windowStart;
+    private String windowEnd;
+    private Double minPrice;
+    private Double maxPrice;
+    private List<String> amenities = new ArrayList<>();
+    private String type;
+
+    // "ASC", "DESC" or null to leave unranked
+    private String priceOrder;
+
+    /* Only listings within distance meters of the coordinate, closest first. */
+    public ListingSearch nearCoordinate(double latitude, double longitude, double distance) {
+        this.coordinateSearch = true;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.distance = distance < 0 ? DEFAULT_DISTANCE : distance;
+        return this;
+    }
+
+    /* Only the k listings closest to the coordinate, closest first. */
+    public ListingSearch closestTo(double latitude, double longitude, int k) {
+        if (k <= 0 || k > MAX_CLOSEST) {
+            throw new IllegalArgumentException("Number of listings must be between 1 and " + MAX_CLOSEST);
+        }
+        this.coordinateSearch = true;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.closest = k;
+        return this;
+    }
+
+    /* Only listings whose postal code starts with the first three characters of postalCode. */
+    public ListingSearch nearPostalCode(String postalCode) {
+        this.postalPrefix = postalCode.substring(0, 3);
+        return this;
+    }
+
+    public ListingSearch atAddress(String address, String city, String country) {
+        this.address = address;
+        this.city = city;
+        this.country = country;
+        return this;
+    }
+
+    /* Only listings available on every day of the range. */
+    public ListingSearch availableBetween(String startDate, String endDate) {
+        this.startDate = startDate;
+        this.endDate = endDate;
+        return this;
+    }
+
+    /* Only listings with at least nights consecutive available days somewhere between windowStart and windowEnd.
+     * This filter is always resolved by the caller, e.g. DAO.findStays, never by the query. */
+    public ListingSearch availableForNights(int nights, String windowStart, String windowEnd) {
+        this.nights = nights;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        return this;
+    }
+
+    /* Only listings whose average nightly price is in the range. */
+    public ListingSearch priceBetween(double min, double max) {
+        this.minPrice = min;
+        this.maxPrice = max;
+        return this;
+    }
+
+    /* Only listings offering all of the given amenities. */
+    public ListingSearch withAmenities(List<String> amenities) {
+        this.amenities = new ArrayList<>(amenities);
+        return this;
+    }
+
+    public ListingSearch ofType(String type) {
+        this.type = type;
+        return this;
+    }
+
+    /* Ranks by average price, "ASC" or "DESC". Anything else leaves the results unranked. */
+    public ListingSearch orderByPrice(String order) {
+        this.priceOrder = order.equals("ASC") || order.equals("DESC") ? order : null;
+        return this;
+    }
+
+    public boolean isCoordinateSearch() {
+        return coordinateSearch;
+    }
+
+    public boolean isClosestSearch() {
+        return closest > 0;
+    }
+
+    public int getClosest() {
+        return closest;
+    }
+
+    public boolean isOrderedByPrice() {
+        return priceOrder != null;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public List<String> getAmenities() {
+        return amenities;
+    }
+
+    public boolean hasDateRange() {
+        return startDate != null;
+    }
+
+    public String getStartDate() {
+        return startDate;
+    }
+
+    public String getEndDate() {
+        return endDate;
+    }
+
+    public boolean hasFlexibleDates() {
+        return nights > 0;
+    }
+
+    public int getNights() {
+        return nights;
+    }
+
+    public String getWindowStart() {
+        return windowStart;
+    }
+
+    public String getWindowEnd() {
+        return windowEnd;
+    }
+
+    public boolean hasPriceRange() {
+        return minPrice != null;
+    }
+
+    public double getMinPrice() {
+        return minPrice;
+    }
+
+    public double getMaxPrice() {
+        return maxPrice;
+    }
+
+    public boolean isDescendingByPrice() {
+        return "DESC".equals(priceOrder);
+    }
+
+    /* Builds the SELECT for this search. Parameters are appended to params in placeholder order. */
+    public String toSql(List<Object> params) {
+        return toSql(params, null, EnumSet.noneOf(Resolved.class));
+    }
+
+    /* Builds the SELECT for this search, leaving out the resolved predicates. For COORDINATE, nearby holds the ids
+     * of the listings in range, e.g. from a SpatialIndex, and the query has no Distance column and is not ordered
+     * by distance. Past MAX_NEARBY_IDS ids, the query only keeps to the bounding box of the radius, so the caller
+     * must drop the rows that are not in nearby. For PRICE the query has no Price column and is neither filtered nor ordered by price. */
+    public String toSql(List<Object> params, Collection<Integer> nearby, Set<Resolved> resolved) {
+        boolean distanceInSql = coordinateSearch && !resolved.contains(Resolved.COORDINATE);
+        StringBuilder query = select(params, nearby, resolved, distanceInSql);
+        if (priceOrder != null && !resolved.contains(Resolved.PRICE)) {
+            query.append(" ORDER BY P.Price ").append(priceOrder);
+        } else if (distanceInSql) {
+            query.append(" ORDER BY Distance");
+        }
+        return query.toString();
+    }
+
+    /* The column results are ordered by when paging, with LID breaking ties. */
+    public SortKey getSortKey() {
+        if (priceOrder != null) {
+            return SortKey.PRICE;
+        }
+        return coordinateSearch ? SortKey.DISTANCE : SortKey.LID;
+    }
+
+    /* Builds the SELECT for one page of this search in sort key order: the rows strictly after (afterKey, afterLid),
+     * or from the start if afterLid is null, and at most limit of them, or all if limit is 0. The sort key always
+     * comes from the query, so PRICE must not be resolved when ordering by price. A resolved COORDINATE still
+     * restricts the query to nearby, but the distance is computed for the ordering. */
+    public String toPageSql(List<Object> params, Collection<Integer> nearby, Set<Resolved> resolved,
+                            Double afterKey, Integer afterLid, int limit) {
+        SortKey sortKey = getSortKey();
+        if (sortKey == SortKey.PRICE && resolved.contains(Resolved.PRICE)) {
+            throw new IllegalArgumentException("Cannot page by a resolved price");
+        }
+        StringBuilder query = select(params, nearby, resolved, sortKey == SortKey.DISTANCE);
+
+        String key = sortKey == SortKey.PRICE ? "P.Price" :
+                "ST_Distance_Sphere(point(?, ?), point(L.Longitude, L.Latitude))";
+        if (afterLid != null) {
+            if (sortKey == SortKey.LID) {
+                query.append(" AND L.LID > ?");
+            } else {
+                // a greater key, or the same key and a greater LID
+                String after = sortKey == SortKey.PRICE && priceOrder.equals("DESC") ? " < ?" : " > ?";
+                query.append(" AND (").append(key).append(after).append(" OR (").append(key).append(" = ? AND L.LID > ?))");
+                for (int i = 0; i < 2; i++) {
+                    if (sortKey == SortKey.DISTANCE) {
+                        params.add(longitude);
+                        params.add(latitude);
+                    }
+                    params.add(afterKey);
+                }
+            }
+            params.add(afterLid);
+        }
+
+        switch (sortKey) {
+            case PRICE:
+                query.append(" ORDER BY P.Price ").append(priceOrder).append(", L.LID");
+                break;
+            case DISTANCE:
+                query.append(" ORDER BY Distance, L.LID");
+                break;
+            default:
+                query.append(" ORDER BY L.LID");
+                break;
+        }
+        if (limit > 0) {
+            query.append(" LIMIT ?");
+            params.add(limit);
+        }
+        return query.toString();
+    }
+
+    /* SELECT ... WHERE with every unresolved predicate, without any ordering. */
+    private StringBuilder select(List<Object> params, Collection<Integer> nearby, Set<Resolved> resolved,
+                                 boolean distanceColumn) {
+        boolean priceInSql = !resolved.contains(Resolved.PRICE);
+        StringBuilder query = new StringBuilder("SELECT L.*, A.Address, A.City, A.Country, A.PostalCode");
+        if (priceInSql) {
+            query.append(", P.Price");
+        }
+        if (distanceColumn) {
+            query.append(", ST_Distance_Sphere(point(?, ?), point(L.Longitude, L.Latitude)) AS Distance");
+            params.add(longitude);
+            params.add(latitude);
+        }
+        query.append(" FROM Listings L JOIN Addresses A ON L.AID=A.AID");
+        if (priceInSql) {
+            // ranking by price only considers listings that have available days
+            query.append(priceOrder == null ? " LEFT JOIN" : " JOIN");
+            query.append(" (SELECT LID, AVG(Price) AS Price FROM Calendars WHERE Status='AVAILABLE' GROUP BY LID) P " +
+                    "ON P.LID=L.LID");
+        }
+        query.append(" WHERE L.Status='ACTIVE'");
+
+        if (coordinateSearch && !resolved.contains(Resolved.COORDINATE) && closest > 0) {
+            query.append(" AND L.LID IN (SELECT LID FROM (SELECT LID FROM Listings WHERE Status='ACTIVE' " +
+                    "ORDER BY ST_Distance_Sphere(point(?, ?), point(Longitude, Latitude)), LID LIMIT ?) K)");
+            params.add(longitude);
+            params.add(latitude);
+            params.add(closest);
+        } else if (coordinateSearch && !resolved.contains(Resolved.COORDINATE)) {
+            query.append(" AND ST_Distance_Sphere(point(?, ?), point(L.Longitude, L.Latitude)) <= ?");
+            params.add(longitude);
+            params.add(latitude);
+            params.add(distance);
+        } else if (coordinateSearch && nearby.size() > MAX_NEARBY_IDS) {
+            boundingBox(query, params);
+        } else if (coordinateSearch) {
+            query.append(" AND L.LID IN (");
+            int i = 0;
+            for (int lid : nearby) {
+                query.append(i++ == 0 ? "?" : ", ?");
+                params.add(lid);
+            }
+            query.append(")");
+        }
+        if (postalPrefix != null) {
+            query.append(" AND SUBSTRING(A.PostalCode, 1, 3)=?");
+            params.add(postalPrefix);
+        }
+        if (address != null) {
+            query.append(" AND A.Address=? AND A.City=? AND A.Country=?");
+            params.add(address);
+            params.add(city);
+            params.add(country);
+        }
+        if (startDate != null && !resolved.contains(Resolved.DATES)) {
+            query.append(" AND L.LID IN (SELECT LID FROM Calendars WHERE Status='AVAILABLE' AND Day BETWEEN ? AND ? " +
+                    "GROUP BY LID HAVING COUNT(*)=DATEDIFF(?, ?)+1)");
+            params.add(startDate);
+            params.add(endDate);
+            params.add(endDate);
+            params.add(startDate);
+        }
+        if (minPrice != null && priceInSql) {
+            query.append(" AND P.Price BETWEEN ? AND ?");
+            params.add(minPrice);
+            params.add(maxPrice);
+        }
+        if (!amenities.isEmpty() && !resolved.contains(Resolved.AMENITIES)) {
+            query.append(" AND L.LID IN (SELECT LID FROM Offers WHERE Description IN (");
+            for (int i = 0; i < amenities.size(); i++) {
+                query.append(i == 0 ? "?" : ", ?");
+                params.add(amenities.get(i));
+            }
+            query.append(") GROUP BY LID HAVING COUNT(*)=?)");
+            params.add(amenities.size());
+        }
+        if (type != null) {
+            query.append(" AND L.Type=?");
+            params.add(type);
+        }
+        return query;
+    }
+
+    /* Limits the query to the latitudes and longitudes within the radius of the coordinate. Near a pole, or if the
+     * radius spans every longitude, only the latitude is limited. */
+    private void boundingBox(StringBuilder query, List<Object> params) {
+        double dLat = distance / METERS_PER_DEGREE;
+        query.append(" AND L.Latitude BETWEEN ? AND ?");
+        params.add(Math.max(-90, latitude - dLat));
+        params.add(Math.min(90, latitude + dLat));
+
+        double cos = Math.cos(Math.toRadians(Math.min(90, Math.abs(latitude) + dLat)));
+        if (cos < 1e-9 || distance / (METERS_PER_DEGREE * cos) >= 180) {
+            return;
+        }
+        double dLon = distance / (METERS_PER_DEGREE * cos);
+        double west = longitude - dLon;
+        double east = longitude + dLon;
+        if (west < -180 || east > 180) {
+            // the box crosses the antimeridian, so it is the two ends of the longitude range
+            query.append(" AND (L.Longitude >= ? OR L.Longitude <= ?)");
+            params.add(west < -180 ? west + 360 : west);
+            params.add(east > 180 ? east - 360 : east);
+        } else {
+            query.append(" AND L.Longitude BETWEEN ? AND ?");
+            params.add(west);
+            params.add(east);
+        }
+    }
+}
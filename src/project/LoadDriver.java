@@ -0,0 +1,245 @@
+package project;
+
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/* Simulates many renters and hosts using MyBnBService at once and reports the throughput and the p50 and p99
+ * latency of each operation. Every simulated user has its own session; operations for all of them are interleaved
+ * on a fixed pool of worker threads over one shared DAO, the way a server would run them. Users are created with
+ * emails unique to the run, so it should be pointed at a scratch database. */
+public class LoadDriver {
+
+    private static final String[] CITIES = {"toronto", "montreal", "vancouver", "ottawa"};
+    private static final double[][] CITY_COORDINATES = {{43.65, -79.38}, {45.50, -73.57}, {49.28, -123.12},
+            {45.42, -75.70}};
+    private static final String[] TYPES = {"house", "apartment", "guesthouse", "hotel"};
+    // listings each simulated host creates, and how many days ahead they are open
+    private static final int LISTINGS_PER_HOST = 2;
+    private static final int DAYS_OPEN = 90;
+
+    private final MyBnBService service;
+    private final int renters;
+    private final int hosts;
+    private final int operationsPerUser;
+    private final int threads;
+    private final String tag = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final List<String> renterSessions = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> hostSessions = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> listings = Collections.synchronizedList(new ArrayList<>());
+
+    public LoadDriver(MyBnBService service, int renters, int hosts, int operationsPerUser, int threads) {
+        this.service = service;
+        this.renters = renters;
+        this.hosts = hosts;
+        this.operationsPerUser = operationsPerUser;
+        this.threads = threads;
+    }
+
+    /* Usage: LoadDriver [renters] [hosts] [operations per user] [threads] */
+    public static void main(String[] args) {
+        int renters = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int hosts = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 2 * ConnectionPool.DEFAULT_MAX_SIZE;
+        try {
+            DAO dao = new DAO(Driver.dbName, Driver.user, Driver.password);
+            dao.loadIndexes();
+            new LoadDriver(new MyBnBService(dao), renters, hosts, operations, threads).run(System.out);
+            dao.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* Signs every user up, then runs the mixed workload, printing the results of each phase. */
+    public void run(PrintStream out) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "load-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Runnable> signups = new ArrayList<>();
+            for (int i = 0; i < hosts; i++) {
+                int host = i;
+                signups.add(() -> signUpHost(host));
+            }
+            for (int i = 0; i < renters; i++) {
+                int renter = i;
+                signups.add(() -> signUpRenter(renter));
+            }
+            runAll(workers, signups, "Sign up", out);
+            stats.clear();
+
+            int users = renterSessions.size() + hostSessions.size();
+            List<Runnable> operations = new ArrayList<>();
+            for (int i = 0; i < users * operationsPerUser; i++) {
+                int user = i % users;
+                operations.add(() -> {
+                    if (user < renterSessions.size()) {
+                        renterOperation(renterSessions.get(user));
+                    } else {
+                        hostOperation(hostSessions.get(user - renterSessions.size()));
+                    }
+                });
+            }
+            Collections.shuffle(operations);
+            runAll(workers, operations, "Workload", out);
+            out.println("Sessions open: " + service.getSessionCount());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void runAll(ExecutorService workers, List<Runnable> tasks, String phase, PrintStream out)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (Runnable task : tasks) {
+            futures.add(workers.submit(task));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // every operation records its own failure
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("%s: %d operations in %.2f s, %.1f operations/s on %d threads%n", phase, tasks.size(), seconds,
+                tasks.size() / seconds, threads);
+        out.printf("%-14s %8s %7s %10s %9s %9s %9s%n", "operation", "count", "errors", "ops/s", "p50 ms",
+                "p99 ms", "max ms");
+        for (Map.Entry<String, Stats> entry : new TreeMap<>(stats).entrySet()) {
+            long[] nanos = entry.getValue().sorted();
+            out.printf("%-14s %8d %7d %10.1f %9.2f %9.2f %9.2f%n", entry.getKey(), nanos.length,
+                    entry.getValue().errors.size(), nanos.length / seconds, percentile(nanos, 0.50) / 1e6,
+                    percentile(nanos, 0.99) / 1e6, nanos.length == 0 ? 0 : nanos[nanos.length - 1] / 1e6);
+        }
+        for (Map.Entry<String, Stats> entry : new TreeMap<>(stats).entrySet()) {
+            Exception first = entry.getValue().errors.peek();
+            if (first != null) {
+                out.println("First " + entry.getKey() + " error: " + first);
+            }
+        }
+    }
+
+    private void signUpHost(int i) {
+        int city = i % CITIES.length;
+        String session = timed("signup host", () -> service.signupHost("Load Host " + i,
+                "load-" + tag + "-h" + i + "@mybnb.test", "password", "h" + tag + i, "1980-01-01", "host",
+                i + " host st " + tag, CITIES[city], "canada", "h" + i).getId());
+        if (session == null) {
+            return;
+        }
+        hostSessions.add(session);
+        for (int n = 0; n < LISTINGS_PER_HOST; n++) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            String address = i + "-" + n + " listing rd " + tag;
+            String postalCode = "l" + i + "n" + n;
+            Integer lid = timed("create listing", () -> service.createListing(session, TYPES[random.nextInt(4)],
+                    CITY_COORDINATES[city][0] + random.nextDouble(-0.05, 0.05),
+                    CITY_COORDINATES[city][1] + random.nextDouble(-0.05, 0.05), address, CITIES[city], "canada",
+                    postalCode));
+            if (lid == null) {
+                continue;
+            }
+            timed("availability", () -> service.addAvailability(session, lid, day(1), day(DAYS_OPEN),
+                    50 + random.nextInt(250)));
+            listings.add(lid);
+        }
+    }
+
+    private void signUpRenter(int i) {
+        String session = timed("signup renter", () -> service.signupRenter("Load Renter " + i,
+                "load-" + tag + "-r" + i + "@mybnb.test", "password", "r" + tag + i, "1990-01-01", "renter",
+                i + " renter st " + tag, CITIES[i % CITIES.length], "canada", "r" + i, "4111111111111111").getId());
+        if (session != null) {
+            renterSessions.add(session);
+        }
+    }
+
+    private void renterOperation(String session) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int choice = random.nextInt(100);
+        if (choice < 40) {
+            double[] coordinate = CITY_COORDINATES[random.nextInt(CITIES.length)];
+            ListingSearch search = new ListingSearch().nearCoordinate(coordinate[0], coordinate[1], 10000);
+            timed("search", () -> service.search(search, Driver.PAGE_SIZE, null));
+        } else if (choice < 65 && !listings.isEmpty()) {
+            int lid = listings.get(random.nextInt(listings.size()));
+            int start = 1 + random.nextInt(DAYS_OPEN - 3);
+            timed("book", () -> service.book(session, lid, day(start), day(start + random.nextInt(3))));
+        } else if (choice < 80) {
+            timed("bookings", () -> service.getBookings(session, "UPCOMING"));
+        } else if (choice < 90) {
+            timed("cancel", () -> {
+                List<Booking> bookings = service.getBookings(session, "UPCOMING");
+                if (!bookings.isEmpty()) {
+                    service.cancelBooking(session, bookings.get(random.nextInt(bookings.size())).getBid());
+                }
+                return null;
+            });
+        } else {
+            timed("report", () -> service.rankRenters(day(0), day(DAYS_OPEN), false, 10));
+        }
+    }
+
+    private void hostOperation(String session) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int choice = random.nextInt(100);
+        if (choice < 40) {
+            timed("bookings", () -> service.getBookings(session, "UPCOMING"));
+        } else if (choice < 70) {
+            timed("listings", () -> service.getListings(session));
+        } else {
+            timed("report", () -> service.rankHosts(random.nextBoolean(), 10));
+        }
+    }
+
+    /* Runs the call, recording its latency, or its failure, under the operation's name. Returns null if it
+     * failed. */
+    private <T> T timed(String operation, Call<T> call) {
+        Stats operationStats = stats.computeIfAbsent(operation, k -> new Stats());
+        long start = System.nanoTime();
+        try {
+            T result = call.run();
+            operationStats.nanos.add(System.nanoTime() - start);
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            operationStats.nanos.add(System.nanoTime() - start);
+            operationStats.errors.add(e);
+            return null;
+        }
+    }
+
+    private static String day(int daysAhead) {
+        return LocalDate.now().plusDays(daysAhead).toString();
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private interface Call<T> {
+        T run() throws SQLException;
+    }
+
+    private static class Stats {
+        private final Queue<Long> nanos = new ConcurrentLinkedQueue<>();
+        private final Queue<Exception> errors = new ConcurrentLinkedQueue<>();
+
+        private long[] sorted() {
+            long[] result = nanos.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(result);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Request oriented front to MyBnB. Every call names the session it acts for, and all per-user state lives in that
+ * Session, so one instance over a shared DAO serves any number of users from any number of threads. Bad input and
+ * refused requests are reported with IllegalArgumentException, unknown or expired sessions and requests the user's
+ * role does not allow with IllegalStateException. Nothing is printed. */
+public class MyBnBService {
+
+    public static final long DEFAULT_SESSION_TIMEOUT_MILLIS = 30 * 60 * 1000;
+
+    private final DAO dao;
+    private final long sessionTimeoutMillis;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    public MyBnBService(DAO dao) {
+        this(dao, DEFAULT_SESSION_TIMEOUT_MILLIS);
+    }
+
+    public MyBnBService(DAO dao, long sessionTimeoutMillis) {
+        this.dao = dao;
+        this.sessionTimeoutMillis = sessionTimeoutMillis;
+    }
+
+    public DAO getDao() {
+        return dao;
+    }
+
+    /* Signs up a new renter and logs them in. */
+    public Session signupRenter(String name, String email, String password, String sin, String dob,
+                                String occupation, String address, String city, String country, String postalCode,
+                                String creditCard) throws SQLException {
+        if (creditCard.isEmpty()) {
+            throw new IllegalArgumentException("Please ensure all fields are non-empty");
+        }
+        int uid = createUser(name, email, password, sin, dob, occupation, address, city, country, postalCode);
+        dao.createRenter(uid, creditCard.toLowerCase(Locale.ROOT).trim());
+        return login(false, email, password);
+    }
+
+    /* Signs up a new host and logs them in. */
+    public Session signupHost(String name, String email, String password, String sin, String dob, String occupation,
+                              String address, String city, String country, String postalCode) throws SQLException {
+        int uid = createUser(name, email, password, sin, dob, occupation, address, city, country, postalCode);
+        dao.createHost(uid);
+        return login(true, email, password);
+    }
+
+    private int createUser(String name, String email, String password, String sin, String dob, String occupation,
+                           String address, String city, String country, String postalCode) throws SQLException {
+        try {
+            User.validateParameters(name, email, password, sin, dob, occupation, address, city, country, postalCode);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Please ensure all fields are non-empty");
+        }
+        if (!dao.isLegalAge(dob)) {
+            throw new IllegalArgumentException("Must be at least 18 years old to sign up");
+        }
+        if (dao.getUserOnEmail(email.toLowerCase(Locale.ROOT).trim()) != null) {
+            throw new IllegalArgumentException("Email already registered");
+        }
+        int aid = dao.createAddress(address.toLowerCase(Locale.ROOT).trim(), city.toLowerCase(Locale.ROOT).trim(),
+                country.toLowerCase(Locale.ROOT).trim(), postalCode.toLowerCase(Locale.ROOT).trim());
+        return dao.createUser(sin.toLowerCase(Locale.ROOT).trim(), name.trim(), dob.trim(),
+                occupation.toLowerCase(Locale.ROOT).trim(), email.toLowerCase(Locale.ROOT).trim(), password, aid);
+    }
+
+    /* Opens a session for the renter, or the host, with the given email and password. */
+    public Session login(boolean asHost, String email, String password) throws SQLException {
+        User user = dao.getUserOnEmail(email.toLowerCase(Locale.ROOT).trim());
+        if (user == null) {
+            throw new IllegalArgumentException("Email is not registered");
+        }
+        User member = asHost ? dao.getHostFromUser(user) : dao.getRenterFromUser(user);
+        if (member == null) {
+            throw new IllegalArgumentException("Email is not registered as " + (asHost ? "host" : "renter"));
+        }
+        if (!member.getPassword().equals(password)) {
+            throw new IllegalArgumentException("Incorrect password entered");
+        }
+        if (member.getStatus().equals("INACTIVE")) {
+            throw new IllegalArgumentException("Account had been deleted");
+        }
+        Session session = new Session(UUID.randomUUID().toString(), member);
+        sessions.put(session.getId(), session);
+        return session;
+    }
+
+    public void logout(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    /* Returns the session and marks it used, or throws if it is unknown or has been idle too long. */
+    public Session getSession(String sessionId) {
+        Session session = sessionId == null ? null : sessions.get(sessionId);
+        if (session == null) {
+            throw new IllegalStateException("Not logged in");
+        }
+        if (System.currentTimeMillis() - session.getLastUsed() > sessionTimeoutMillis) {
+            sessions.remove(sessionId, session);
+            throw new IllegalStateException("Session expired");
+        }
+        session.touch();
+        return session;
+    }
+
+    /* Drops every session idle for longer than the timeout. Returns the number dropped. */
+    public int expireIdleSessions() {
+        long oldest = System.currentTimeMillis() - sessionTimeoutMillis;
+        int before = sessions.size();
+        sessions.values().removeIf(session -> session.getLastUsed() < oldest);
+        return before - sessions.size();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    private Session getRenterSession(String sessionId) {
+        Session session = getSession(sessionId);
+        if (!session.isRenter()) {
+            throw new IllegalStateException("Only renters can do this");
+        }
+        return session;
+    }
+
+    private Session getHostSession(String sessionId) {
+        Session session = getSession(sessionId);
+        if (!session.isHost()) {
+            throw new IllegalStateException("Only hosts can do this");
+        }
+        return session;
+    }
+
+    /* One page of the search's results. Searching needs no session. */
+    public ListingPage search(ListingSearch search, int pageSize, String token) throws SQLException {
+        return dao.searchListings(search, pageSize, token);
+    }
+
+    /* The listing's calendar days between start and end, inclusive, whatever their status. Needs no session. */
+    public List<Calendar> getAvailability(int lid, String start, String end) throws SQLException {
+        return dao.getAvailabilitiesInRange(lid, start, end);
+    }
+
+    public int createListing(String sessionId, String type, double latitude, double longitude, String address,
+                             String city, String country, String postalCode) throws SQLException {
+        Session session = getHostSession(sessionId);
+        try {
+            return Listing.createListing(dao, session.getUid(), type, latitude, longitude, address, city, country,
+                    postalCode);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid listing");
+        }
+    }
+
+    public List<Listing> getListings(String sessionId) throws SQLException {
+        return dao.getListingsFromHost(getHostSession(sessionId).getUid());
+    }
+
+    /* Opens every day between start and end of one of the host's listings at the price. Returns the number of days
+     * added. */
+    public int addAvailability(String sessionId, int lid, String start, String end, double price)
+            throws SQLException {
+        Session session = getHostSession(sessionId);
+        checkOwner(session, lid);
+        if (price <= 0) {
+            throw new IllegalArgumentException("Invalid price");
+        }
+        return dao.createAvailabilitiesInRange(lid, start, end, price);
+    }
+
+    private void checkOwner(Session session, int lid) throws SQLException {
+        for (Listing listing : dao.getListingsFromHost(session.getUid())) {
+            if (listing.getLid() == lid) {
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Invalid Listing");
+    }
+
+    /* Books the listing for the renter, or returns null if it is not available for the whole range. */
+    public Booking book(String sessionId, int lid, String startDate, String endDate) throws SQLException {
+        Session session = getRenterSession(sessionId);
+        return dao.reserveBooking(session.getUid(), lid, startDate, endDate);
+    }
+
+    /* The session's bookings with the status, as renter or as host. */
+    public List<Booking> getBookings(String sessionId, String status) throws SQLException {
+        Session session = getSession(sessionId);
+        if (session.isRenter()) {
+            return dao.getRentersBookings(status, session.getUid());
+        }
+        return dao.getHostsBookings(status, session.getUid());
+    }
+
+    /* Cancels one of the session's upcoming bookings and frees its days. */
+    public void cancelBooking(String sessionId, int bid) throws SQLException {
+        findBooking(sessionId, "UPCOMING", bid);
+        if (!dao.cancelBooking(bid)) {
+            throw new IllegalArgumentException("Booking is no longer upcoming");
+        }
+    }
+
+    /* Reviews one of the renter's past bookings, once. */
+    public void reviewBooking(String sessionId, int bid, String review, int rating) throws SQLException {
+        getRenterSession(sessionId);
+        Booking booking = findBooking(sessionId, "PAST", bid);
+        if (booking.getReview() != null) {
+            throw new IllegalArgumentException("Selected booking has already been reviewed");
+        }
+        if (rating < 0 || rating > 5) {
+            throw new IllegalArgumentException("Invalid rating");
+        }
+        dao.reviewBooking(bid, review, rating);
+    }
+
+    private Booking findBooking(String sessionId, String status, int bid) throws SQLException {
+        for (Booking booking : getBookings(sessionId, status)) {
+            if (booking.getBid() == bid) {
+                return booking;
+            }
+        }
+        throw new IllegalArgumentException("Invalid Booking");
+    }
+
+    /* The hosts a renter has stayed with, or the renters a host has had, who can be reviewed. */
+    public List<User> getReviewableUsers(String sessionId) throws SQLException {
+        Session session = getSession(sessionId);
+        if (session.isRenter()) {
+            return dao.getHostsOfRenter(session.getUid());
+        }
+        return dao.getRentersOfHost(session.getUid());
+    }
+
+    public void reviewUser(String sessionId, int uid, String review, int rating) throws SQLException {
+        Session session = getSession(sessionId);
+        if (rating < 0 || rating > 5) {
+            throw new IllegalArgumentException("Invalid rating");
+        }
+        for (User user : getReviewableUsers(sessionId)) {
+            if (user.getUid() == uid) {
+                dao.reviewUser(session.getUid(), uid, review, rating);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Invalid User");
+    }
+
+    /* Deletes the session's account, cancelling its upcoming bookings, and ends the session. */
+    public void deleteAccount(String sessionId) throws SQLException {
+        Session session = getSession(sessionId);
+        if (session.isRenter()) {
+            dao.deleteRenter(session.getUid());
+        } else {
+            dao.deleteHost(session.getUid());
+        }
+        logout(sessionId);
+    }
+
+    // Reports, returned a line at a time. They need no session.
+
+    public List<String> reportNumBookings(String startDate, String endDate, boolean byPostalCode)
+            throws SQLException {
+        return report(out -> dao.reportNumBookings(startDate, endDate, yesNo(byPostalCode), out));
+    }
+
+    public List<String> reportNumListings(boolean byCity, boolean byPostalCode) throws SQLException {
+        return report(out -> dao.reportNumListings(yesNo(byCity), yesNo(byPostalCode), out));
+    }
+
+    public List<String> rankHosts(boolean byCity, int limit) throws SQLException {
+        return report(out -> dao.rankHosts(yesNo(byCity), limit, out));
+    }
+
+    public List<String> reportHost(double share) throws SQLException {
+        return report(out -> dao.reportHost(share, out));
+    }
+
+    public List<String> rankRenters(String startDate, String endDate, boolean byCity, int limit)
+            throws SQLException {
+        return report(out -> dao.rankRenters(startDate, endDate, yesNo(byCity), limit, out));
+    }
+
+    /* hostRenter is "host", "renter" or "both". */
+    public List<String> reportCancellations(String hostRenter, String from, String to) throws SQLException {
+        return report(out -> dao.reportCancellations(hostRenter, from, to, out));
+    }
+
+    private static String yesNo(boolean flag) {
+        return flag ? "y" : "n";
+    }
+
+    /* Runs a DAO report into a buffer of its own and returns what it printed. */
+    private static List<String> report(Report report) throws SQLException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8)) {
+            report.run(out);
+        }
+        String text = buffer.toString(StandardCharsets.UTF_8);
+        return text.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(text.split("\\R")));
+    }
+
+    private interface Report {
+        void run(PrintStream out) throws SQLException;
+    }
+}
@@ -0,0 +1,295 @@
+package project;
+
+import opennlp.tools.chunker.ChunkerME;
+import opennlp.tools.chunker.ChunkerModel;
+import opennlp.tools.cmdline.parser.ParserTool;
+import opennlp.tools.parser.Parse;
+import opennlp.tools.parser.Parser;
+import opennlp.tools.parser.ParserFactory;
+import opennlp.tools.parser.ParserModel;
+import opennlp.tools.postag.POSModel;
+import opennlp.tools.postag.POSTaggerME;
+import opennlp.tools.sentdetect.SentenceDetectorME;
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.tokenize.TokenizerME;
+import opennlp.tools.tokenize.TokenizerModel;
+import opennlp.tools.util.Span;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/* Counts the noun phrases in review text with one of two engines. PARSER takes every NP node, nested ones included,
+ * of a full parse of each sentence. CHUNKER detects sentences, tokenizes and tags them, and takes the flat NP chunks,
+ * which is much cheaper. Models are loaded from disk once and shared; the OpenNLP tools built from them are not
+ * thread safe, so every worker thread gets its own. */
+public class NounPhrases {
+
+    public enum Engine { PARSER, CHUNKER }
+
+    public static final String MODEL_FILE = "en-parser-chunking.bin";
+    public static final String SENTENCE_MODEL_FILE = "en-sent.bin";
+    public static final String TOKEN_MODEL_FILE = "en-token.bin";
+    public static final String POS_MODEL_FILE = "en-pos-maxent.bin";
+    public static final String CHUNKER_MODEL_FILE = "en-chunker.bin";
+    // reviews read from the database and parsed at a time when catching up
+    private static final int REVIEW_BATCH = 1000;
+
+    private static volatile ParserModel model;
+    private static volatile ChunkerModels chunkerModels;
+    private static final ThreadLocal<Parser> parser = new ThreadLocal<>();
+    private static final ThreadLocal<ChunkerTools> chunkerTools = new ThreadLocal<>();
+    private static ExecutorService workers;
+
+    /* Returns the parser model, loading it on first use. */
+    public static ParserModel getModel() throws IOException {
+        ParserModel loaded = model;
+        if (loaded == null) {
+            synchronized (NounPhrases.class) {
+                loaded = model;
+                if (loaded == null) {
+                    try (InputStream modelFile = new FileInputStream(MODEL_FILE)) {
+                        loaded = new ParserModel(modelFile);
+                    }
+                    model = loaded;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /* Returns the models of the chunker engine, loading them on first use. */
+    private static ChunkerModels getChunkerModels() throws IOException {
+        ChunkerModels loaded = chunkerModels;
+        if (loaded == null) {
+            synchronized (NounPhrases.class) {
+                loaded = chunkerModels;
+                if (loaded == null) {
+                    loaded = new ChunkerModels();
+                    chunkerModels = loaded;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /* Loads the models the engine needs, so a missing model fails before any work starts. */
+    public static void load(Engine engine) throws IOException {
+        if (engine == Engine.PARSER) {
+            getModel();
+        } else {
+            getChunkerModels();
+        }
+    }
+
+    /* Returns the calling thread's parser, creating it from the shared model on first use. */
+    private static Parser getParser() throws IOException {
+        Parser current = parser.get();
+        if (current == null) {
+            current = ParserFactory.create(getModel());
+            parser.set(current);
+        }
+        return current;
+    }
+
+    /* Returns the calling thread's chunker tools, creating them from the shared models on first use. */
+    private static ChunkerTools getChunkerTools() throws IOException {
+        ChunkerTools current = chunkerTools.get();
+        if (current == null) {
+            current = new ChunkerTools(getChunkerModels());
+            chunkerTools.set(current);
+        }
+        return current;
+    }
+
+    /* Shared pool with one worker per core, created on first use. Its threads are daemons so they never keep the
+     * program alive. */
+    public static synchronized ExecutorService getWorkers() {
+        if (workers == null) {
+            workers = newWorkers(Runtime.getRuntime().availableProcessors());
+        }
+        return workers;
+    }
+
+    public static ExecutorService newWorkers(int threads) {
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "noun-phrase-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /* Adds the noun phrases of every sentence of the review to counts, using the calling thread's tools for the
+     * engine. Phrases are counted in lower case either way, so the two engines can be compared. */
+    public static void count(String review, Map<String, Integer> counts, Engine engine) throws IOException {
+        if (engine == Engine.PARSER) {
+            Parser threadParser = getParser();
+            // split the review into sentences
+            for (String sentence : review.toLowerCase(Locale.ROOT).split("[.!?]")) {
+                if (sentence.isBlank()) {
+                    continue;
+                }
+                for (Parse p : ParserTool.parseLine(sentence, threadParser, 1)) {
+                    collect(p, counts);
+                }
+            }
+        } else {
+            // the tagger relies on case, so the text is only lowered once the chunks are found
+            ChunkerTools tools = getChunkerTools();
+            for (String sentence : tools.sentences.sentDetect(review)) {
+                String[] tokens = tools.tokenizer.tokenize(sentence);
+                if (tokens.length == 0) {
+                    continue;
+                }
+                Span[] chunks = tools.chunker.chunkAsSpans(tokens, tools.tagger.tag(tokens));
+                for (Span chunk : chunks) {
+                    if (chunk.getType().equals("NP")) {
+                        String phrase = String.join(" ", Arrays.copyOfRange(tokens, chunk.getStart(), chunk.getEnd()));
+                        counts.merge(phrase.toLowerCase(Locale.ROOT), 1, Integer::sum);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void collect(Parse p, Map<String, Integer> counts) {
+        if (p.getType().equals("NP")) {
+            counts.merge(p.getCoveredText(), 1, Integer::sum);
+        }
+        for (Parse child : p.getChildren()) {
+            collect(child, counts);
+        }
+    }
+
+    /* Counts the noun phrases of each listing's reviews with the engine, one listing per task on the given
+     * workers. Returns the counts in the same order as reviewsByListing. */
+    public static LinkedHashMap<Integer, Map<String, Integer>> countByListing(
+            Map<Integer, List<String>> reviewsByListing, Engine engine, ExecutorService workers) throws IOException {
+        load(engine); // fail fast, before any task is queued, if a model cannot be read
+
+        LinkedHashMap<Integer, Future<Map<String, Integer>>> tasks = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<String>> entry : reviewsByListing.entrySet()) {
+            List<String> reviews = entry.getValue();
+            tasks.put(entry.getKey(), workers.submit(() -> {
+                Map<String, Integer> counts = new HashMap<>();
+                for (String review : reviews) {
+                    count(review, counts, engine);
+                }
+                return counts;
+            }));
+        }
+
+        LinkedHashMap<Integer, Map<String, Integer>> result = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<Integer, Future<Map<String, Integer>>> task : tasks.entrySet()) {
+                result.put(task.getKey(), task.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting noun phrases", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not count noun phrases", e.getCause());
+        } finally {
+            for (Future<Map<String, Integer>> task : tasks.values()) {
+                task.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    /* Parses only the reviews written or changed since the engine's last pass and stores their counts. Reviews are
+     * read from a cursor and parsed a batch at a time, one review per task on the given workers, so memory stays
+     * bounded however many reviews are waiting. Returns the number of reviews stored. */
+    public static int countNewReviews(DAO dao, Engine engine, ExecutorService workers)
+            throws SQLException, IOException {
+        int stored = 0;
+        try (DAO.ReviewCursor cursor = dao.streamUncountedReviews(engine)) {
+            List<Booking> batch = new ArrayList<>(REVIEW_BATCH);
+            Booking booking;
+            do {
+                booking = cursor.next();
+                if (booking != null) {
+                    batch.add(booking);
+                }
+                if (batch.size() == REVIEW_BATCH || (booking == null && !batch.isEmpty())) {
+                    stored += countBatch(dao, engine, workers, batch);
+                    batch.clear();
+                }
+            } while (booking != null);
+        }
+        return stored;
+    }
+
+    private static int countBatch(DAO dao, Engine engine, ExecutorService workers, List<Booking> batch)
+            throws SQLException, IOException {
+        LinkedHashMap<Integer, List<String>> reviews = new LinkedHashMap<>();
+        for (Booking booking : batch) {
+            reviews.put(booking.getBid(), List.of(booking.getReview()));
+        }
+        LinkedHashMap<Integer, Map<String, Integer>> counts = countByListing(reviews, engine, workers);
+
+        int stored = 0;
+        for (Booking booking : batch) {
+            if (dao.saveReviewPhrases(booking, engine, counts.get(booking.getBid()))) {
+                stored++;
+            }
+        }
+        return stored;
+    }
+
+    /* Weighted overlap of two phrase counts: the sum over all phrases of the smaller count divided by the sum of
+     * the larger one. 1 when the counts are identical, 0 when no phrase is shared. */
+    public static double agreement(Map<String, Integer> a, Map<String, Integer> b) {
+        long shared = 0;
+        long total = 0;
+        for (Map.Entry<String, Integer> entry : a.entrySet()) {
+            int other = b.getOrDefault(entry.getKey(), 0);
+            shared += Math.min(entry.getValue(), other);
+            total += Math.max(entry.getValue(), other);
+        }
+        for (Map.Entry<String, Integer> entry : b.entrySet()) {
+            if (!a.containsKey(entry.getKey())) {
+                total += entry.getValue();
+            }
+        }
+        return total == 0 ? 1 : (double) shared / total;
+    }
+
+    /* The shared, thread safe models of the chunker engine. */
+    private static class ChunkerModels {
+        private final SentenceModel sentences;
+        private final TokenizerModel tokenizer;
+        private final POSModel tagger;
+        private final ChunkerModel chunker;
+
+        private ChunkerModels() throws IOException {
+            try (InputStream sentenceFile = new FileInputStream(SENTENCE_MODEL_FILE);
+                 InputStream tokenFile = new FileInputStream(TOKEN_MODEL_FILE);
+                 InputStream posFile = new FileInputStream(POS_MODEL_FILE);
+                 InputStream chunkerFile = new FileInputStream(CHUNKER_MODEL_FILE)) {
+                sentences = new SentenceModel(sentenceFile);
+                tokenizer = new TokenizerModel(tokenFile);
+                tagger = new POSModel(posFile);
+                chunker = new ChunkerModel(chunkerFile);
+            }
+        }
+    }
+
+    /* One thread's chunker engine tools. */
+    private static class ChunkerTools {
+        private final SentenceDetectorME sentences;
+        private final TokenizerME tokenizer;
+        private final POSTaggerME tagger;
+        private final ChunkerME chunker;
+
+        private ChunkerTools(ChunkerModels models) {
+            sentences = new SentenceDetectorME(models.sentences);
+            tokenizer = new TokenizerME(models.tokenizer);
+            tagger = new POSTaggerME(models.tagger);
+            chunker = new ChunkerME(models.chunker);
+        }
+    }
+}
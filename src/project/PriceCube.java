@@ -0,0 +1,201 @@
+package project;
+
+import java.util.*;
+
+/* Sum and count of listings' average nightly prices for every listing type and location, at the country, city and
+ * postal code levels, broken down by the exact set of amenities the listings offer. An average over listings that
+ * offer some amenities adds up the sets containing them, so a lookup costs the number of distinct amenity sets at
+ * one location, however many listings or calendar rows there are. DAO keeps it up to date as listings, amenities and
+ * calendars change. */
+public class PriceCube {
+
+    private final Map<Integer, Member> members = new HashMap<>();
+    // location key to the cells of each amenity set at that location; the sets are never changed once used as keys
+    private final Map<String, Map<BitSet, Cell>> cells = new HashMap<>();
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private volatile boolean loaded = false;
+
+    /* Records a listing. It counts towards averages once it has a price. */
+    public synchronized void addListing(int lid, String type, String country, String city, String postalCode) {
+        if (!members.containsKey(lid)) {
+            members.put(lid, new Member(type, country, city, postalCode));
+        }
+    }
+
+    /* Records one amenity the listing offers. */
+    public synchronized void addAmenity(int lid, String description) {
+        Member member = members.get(lid);
+        if (member == null) {
+            return;
+        }
+        int ordinal = ordinals.computeIfAbsent(description, k -> ordinals.size());
+        if (member.amenities.get(ordinal)) {
+            return;
+        }
+        remove(member);
+        BitSet amenities = (BitSet) member.amenities.clone();
+        amenities.set(ordinal);
+        member.amenities = amenities;
+        add(member);
+    }
+
+    /* Sets the listing's average nightly price over its available days, or NaN if it has none. */
+    public synchronized void setPrice(int lid, double price) {
+        Member member = members.get(lid);
+        if (member == null) {
+            return;
+        }
+        remove(member);
+        member.price = price;
+        add(member);
+    }
+
+    public void setLoaded(boolean loaded) {
+        this.loaded = loaded;
+    }
+
+    /* True once the cube has been filled from the database, so pricing can rely on it. */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /* Average price of the listings of the type at the location that offer every amenity given, or 0 if there are
+     * none. city and postalCode may be null to average over a whole country or city. */
+    public synchronized double average(String type, String country, String city, String postalCode,
+                                       Collection<String> amenities) {
+        BitSet required = toBits(amenities);
+        if (required == null) {
+            return 0;
+        }
+        double sum = 0;
+        int count = 0;
+        Map<BitSet, Cell> location = cells.getOrDefault(key(type, country, city, postalCode), Map.of());
+        for (Map.Entry<BitSet, Cell> cell : location.entrySet()) {
+            if (contains(cell.getKey(), required)) {
+                sum += cell.getValue().sum;
+                count += cell.getValue().count;
+            }
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /* Same answer as PriceSlice.recommend for the listings of the type in the country, from three cell lookups. */
+    public synchronized PriceSlice.Recommendation recommend(String type, String country, String city,
+                                                            String postalCode, Collection<String> offered,
+                                                            List<String> candidates) {
+        int columns = candidates.size() + 2;
+        double[][] sums = new double[PriceSlice.COUNTRY + 1][columns];
+        int[][] counts = new int[PriceSlice.COUNTRY + 1][columns];
+        String[] keys = new String[PriceSlice.COUNTRY + 1];
+        keys[PriceSlice.POSTAL_CODE] = key(type, country, city, postalCode);
+        keys[PriceSlice.CITY] = key(type, country, city, null);
+        keys[PriceSlice.COUNTRY] = key(type, country, null, null);
+
+        BitSet required = toBits(offered);
+        Integer[] candidateOrdinals = new Integer[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            candidateOrdinals[i] = ordinals.get(candidates.get(i));
+        }
+
+        for (int level = PriceSlice.POSTAL_CODE; level <= PriceSlice.COUNTRY; level++) {
+            for (Map.Entry<BitSet, Cell> entry : cells.getOrDefault(keys[level], Map.of()).entrySet()) {
+                BitSet amenities = entry.getKey();
+                Cell cell = entry.getValue();
+                sums[level][0] += cell.sum;
+                counts[level][0] += cell.count;
+                if (required == null || !contains(amenities, required)) {
+                    continue;
+                }
+                sums[level][1] += cell.sum;
+                counts[level][1] += cell.count;
+                for (int i = 0; i < candidateOrdinals.length; i++) {
+                    if (candidateOrdinals[i] != null && amenities.get(candidateOrdinals[i])) {
+                        sums[level][i + 2] += cell.sum;
+                        counts[level][i + 2] += cell.count;
+                    }
+                }
+            }
+        }
+        return PriceSlice.recommendation(sums, counts, candidates);
+    }
+
+    /* The amenities as bits, or null if one of them is offered by no listing. */
+    private BitSet toBits(Collection<String> amenities) {
+        BitSet bits = new BitSet();
+        for (String description : amenities) {
+            Integer ordinal = ordinals.get(description);
+            if (ordinal == null) {
+                return null;
+            }
+            bits.set(ordinal);
+        }
+        return bits;
+    }
+
+    private static boolean contains(BitSet amenities, BitSet required) {
+        for (int i = required.nextSetBit(0); i >= 0; i = required.nextSetBit(i + 1)) {
+            if (!amenities.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String key(String type, String country, String city, String postalCode) {
+        StringBuilder key = new StringBuilder().append(type).append('\0').append(country);
+        if (city != null) {
+            key.append('\0').append(city);
+            if (postalCode != null) {
+                key.append('\0').append(postalCode);
+            }
+        }
+        return key.toString();
+    }
+
+    private void add(Member member) {
+        if (Double.isNaN(member.price)) {
+            return;
+        }
+        for (String key : member.keys) {
+            Cell cell = cells.computeIfAbsent(key, k -> new HashMap<>())
+                    .computeIfAbsent(member.amenities, k -> new Cell());
+            cell.sum += member.price;
+            cell.count++;
+        }
+    }
+
+    private void remove(Member member) {
+        if (Double.isNaN(member.price)) {
+            return;
+        }
+        for (String key : member.keys) {
+            Map<BitSet, Cell> location = cells.get(key);
+            Cell cell = location.get(member.amenities);
+            cell.sum -= member.price;
+            cell.count--;
+            if (cell.count == 0) {
+                location.remove(member.amenities);
+                if (location.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    private static class Member {
+        // location keys at the country, city and postal code levels
+        private final String[] keys;
+        private BitSet amenities = new BitSet();
+        private double price = Double.NaN;
+
+        private Member(String type, String country, String city, String postalCode) {
+            keys = new String[]{key(type, country, null, null), key(type, country, String.valueOf(city), null),
+                    key(type, country, String.valueOf(city), String.valueOf(postalCode))};
+        }
+    }
+
+    private static class Cell {
+        private double sum;
+        private int count;
+    }
+}
@@ -0,0 +1,70 @@
+package project;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* In-memory price summary of every listing's available days, so searches and pricing read one entry per listing
+ * instead of aggregating its Calendars rows. DAO refreshes a listing's entry whenever it writes to its calendar. */
+public class PriceIndex {
+
+    private final Map<Integer, Summary> summaries = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    /* Replaces the listing's summary. A listing without available days has no summary. */
+    public void put(int lid, Summary summary) {
+        if (summary == null || summary.getDays() == 0) {
+            summaries.remove(lid);
+        } else {
+            summaries.put(lid, summary);
+        }
+    }
+
+    /* Returns the listing's summary, or null if it has no available days. */
+    public Summary get(int lid) {
+        return summaries.get(lid);
+    }
+
+    public void setLoaded(boolean loaded) {
+        this.loaded = loaded;
+    }
+
+    /* True once the index has been filled from the database, so searches can rely on it. */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /* Count, sum, min and max of the nightly prices of a listing's available days. */
+    public static class Summary {
+        private final int days;
+        private final double total;
+        private final double min;
+        private final double max;
+
+        public Summary(int days, double total, double min, double max) {
+            this.days = days;
+            this.total = total;
+            this.min = min;
+            this.max = max;
+        }
+
+        public int getDays() {
+            return days;
+        }
+
+        public double getTotal() {
+            return total;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getAverage() {
+            return total / days;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package project;
+
+import java.util.*;
+
+/* The listings of one type in one country with the city, postal code, amenities and average nightly price of each.
+ * The host toolkit reads it once, then prices a listing and weighs every candidate amenity at every level of location
+ * in memory, falling back from the postal code to the city to the country like the separate queries did. */
+public class PriceSlice {
+
+    // levels of location, narrowest first
+    static final int POSTAL_CODE = 0;
+    static final int CITY = 1;
+    static final int COUNTRY = 2;
+
+    private final Map<Integer, Entry> entries = new LinkedHashMap<>();
+    // position of each amenity in the entries' bitsets
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final List<String> descriptions = new ArrayList<>();
+
+    /* Records a listing, and one amenity it offers if description is not null. */
+    public void add(int lid, String city, String postalCode, String description) {
+        Entry entry = entries.computeIfAbsent(lid, k -> new Entry(city, postalCode));
+        if (description != null) {
+            Integer ordinal = ordinals.get(description);
+            if (ordinal == null) {
+                ordinal = descriptions.size();
+                ordinals.put(description, ordinal);
+                descriptions.add(description);
+            }
+            entry.amenities.set(ordinal);
+        }
+    }
+
+    /* Sets the listing's average nightly price over its available days. Listings without one are not priced. */
+    public void setPrice(int lid, double price) {
+        Entry entry = entries.get(lid);
+        if (entry != null) {
+            entry.price = price;
+        }
+    }
+
+    public Set<Integer> getLids() {
+        return entries.keySet();
+    }
+
+    /* Returns the amenities the listing offers, or null if it is not in the slice. */
+    public List<String> getAmenities(int lid) {
+        Entry entry = entries.get(lid);
+        if (entry == null) {
+            return null;
+        }
+        List<String> amenities = new ArrayList<>();
+        for (int i = entry.amenities.nextSetBit(0); i >= 0; i = entry.amenities.nextSetBit(i + 1)) {
+            amenities.add(descriptions.get(i));
+        }
+        return amenities;
+    }
+
+    /* Prices a listing in the given city and postal code that offers the given amenities, and works out how much
+     * each candidate amenity would add to that price, in a single pass over the slice. */
+    public Recommendation recommend(String city, String postalCode, Collection<String> offered,
+                                    List<String> candidates) {
+        // column 0 ignores amenities, column 1 needs the offered ones and column 2 + i also needs candidate i
+        int columns = candidates.size() + 2;
+        double[][] sums = new double[COUNTRY + 1][columns];
+        int[][] counts = new int[COUNTRY + 1][columns];
+
+        // an amenity no listing offers leaves its columns empty
+        BitSet required = new BitSet();
+        boolean offeredKnown = true;
+        for (String description : offered) {
+            Integer ordinal = ordinals.get(description);
+            if (ordinal == null) {
+                offeredKnown = false;
+            } else {
+                required.set(ordinal);
+            }
+        }
+        int[] candidateOrdinals = new int[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            candidateOrdinals[i] = ordinals.getOrDefault(candidates.get(i), -1);
+        }
+
+        for (Entry entry : entries.values()) {
+            if (Double.isNaN(entry.price)) {
+                continue;
+            }
+            int narrowest = !Objects.equals(entry.city, city) ? COUNTRY
+                    : Objects.equals(entry.postalCode, postalCode) ? POSTAL_CODE : CITY;
+            boolean offersAll = offeredKnown && entry.offersAll(required);
+            for (int level = narrowest; level <= COUNTRY; level++) {
+                sums[level][0] += entry.price;
+                counts[level][0]++;
+                if (!offersAll) {
+                    continue;
+                }
+                sums[level][1] += entry.price;
+                counts[level][1]++;
+                for (int i = 0; i < candidateOrdinals.length; i++) {
+                    if (candidateOrdinals[i] >= 0 && entry.amenities.get(candidateOrdinals[i])) {
+                        sums[level][i + 2] += entry.price;
+                        counts[level][i + 2]++;
+                    }
+                }
+            }
+        }
+
+        return recommendation(sums, counts, candidates);
+    }
+
+    /* Turns the sums and counts of each level and column into prices, as laid out by recommend. Also used by
+     * PriceCube, which fills them from its cells instead of from listings. */
+    static Recommendation recommendation(double[][] sums, int[][] counts, List<String> candidates) {
+        double comparable = fallback(sums, counts, 1, false);
+        Map<String, Double> uplifts = new HashMap<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            uplifts.put(candidates.get(i), fallback(sums, counts, i + 2, false) - comparable);
+        }
+        return new Recommendation(fallback(sums, counts, 1, true), comparable, uplifts);
+    }
+
+    /* The average price of the column at the narrowest level that has one, or 0. If anyAmenities is set, each level
+     * falls back to listings with any amenities before moving to the next level. */
+    private static double fallback(double[][] sums, int[][] counts, int column, boolean anyAmenities) {
+        double price = 0;
+        for (int level = POSTAL_CODE; level <= COUNTRY; level++) {
+            price = counts[level][column] == 0 ? 0 : sums[level][column] / counts[level][column];
+            if (price > 0) {
+                return price;
+            }
+            if (anyAmenities) {
+                price = counts[level][0] == 0 ? 0 : sums[level][0] / counts[level][0];
+                if (price > 0) {
+                    return price;
+                }
+            }
+        }
+        return price;
+    }
+
+    private static class Entry {
+        private final String city;
+        private final String postalCode;
+        private final BitSet amenities = new BitSet();
+        private double price = Double.NaN;
+
+        private Entry(String city, String postalCode) {
+            this.city = city;
+            this.postalCode = postalCode;
+        }
+
+        private boolean offersAll(BitSet required) {
+            for (int i = required.nextSetBit(0); i >= 0; i = required.nextSetBit(i + 1)) {
+                if (!amenities.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /* The toolkit's answer for one listing. */
+    public static class Recommendation {
+        private final double price;
+        private final double comparablePrice;
+        private final Map<String, Double> uplifts;
+
+        public Recommendation(double price, double comparablePrice, Map<String, Double> uplifts) {
+            this.price = price;
+            this.comparablePrice = comparablePrice;
+            this.uplifts = uplifts;
+        }
+
+        /* The recommended price: the average of listings offering the same amenities, or else of listings nearby
+         * with any amenities. 0 if there is not enough data. */
+        public double getPrice() {
+            return price;
+        }
+
+        /* The average of listings offering the same amenities only, which uplifts are measured from. */
+        public double getComparablePrice() {
+            return comparablePrice;
+        }
+
+        /* How much the average price of comparable listings rises when they also offer the amenity. */
+        public double getUplift(String description) {
+            return uplifts.getOrDefault(description, 0.0);
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package project;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/* In-memory counts behind the reports, so they read aggregates instead of grouping Bookings, Listings and Addresses
+ * on every run. Active listings are counted by place and by place and host as they are created and removed. Bookings
+ * that are not cancelled are kept in buckets by start day, so a date range report only visits the bookings starting
+ * inside the range. Cancelled bookings are bucketed by both start day and end day, so cancellations starting or
+ * ending in any range are found the same way. DAO updates it on every booking and listing change. */
+public class ReportAggregates {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded = false;
+
+    // every place a listing is at, by id, and its id by key
+    private final List<Place> places = new ArrayList<>();
+    private final Map<String, Integer> placeIds = new HashMap<>();
+    // place and host of each listing by LID, -1 for unknown listings
+    private int[] placeOf = new int[0];
+    private int[] hostOf = new int[0];
+    private final BitSet active = new BitSet();
+    // active listings at each place, overall and by host
+    private final Map<Integer, Integer> activeAtPlace = new HashMap<>();
+    private final Map<Integer, Map<Integer, Integer>> activeAtPlaceByHost = new HashMap<>();
+    // bookings that are not cancelled, by start day
+    private final TreeMap<Long, Bucket> bookingsByStart = new TreeMap<>();
+    // cancelled bookings by start day, and again by end day
+    private final TreeMap<Long, Bucket> cancelledByStart = new TreeMap<>();
+    private final TreeMap<Long, Bucket> cancelledByEnd = new TreeMap<>();
+
+    public void addListing(int lid, int uid, String country, String city, String postalCode, boolean isActive) {
+        lock.writeLock().lock();
+        try {
+            ensure(lid);
+            if (placeOf[lid] >= 0) {
+                return;
+            }
+            String key = country + '\0' + city + '\0' + postalCode;
+            Integer place = placeIds.get(key);
+            if (place == null) {
+                place = places.size();
+                places.add(new Place(country, city, postalCode));
+                placeIds.put(key, place);
+            }
+            placeOf[lid] = place;
+            hostOf[lid] = uid;
+            if (isActive) {
+                active.set(lid);
+                countActive(lid, 1);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeListing(int lid) {
+        lock.writeLock().lock();
+        try {
+            if (lid < placeOf.length && active.get(lid)) {
+                active.clear(lid);
+                countActive(lid, -1);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* Records a booking of a known listing, with its start and end as epoch days. */
+    public void addBooking(int bid, int rid, int lid, long start, long end, boolean cancelled) {
+        lock.writeLock().lock();
+        try {
+            if (lid >= placeOf.length || placeOf[lid] < 0) {
+                return;
+            }
+            if (cancelled) {
+                addCancelled(bid, rid, lid, start, end);
+            } else {
+                bookingsByStart.computeIfAbsent(start, k -> new Bucket()).add(bid, end, lid, rid);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* Moves a booking recorded by addBooking to the cancellations. */
+    public void cancelBooking(int bid, int rid, int lid, long start, long end) {
+        lock.writeLock().lock();
+        try {
+            Bucket bucket = bookingsByStart.get(start);
+            if (bucket != null && bucket.remove(bid)) {
+                if (bucket.size == 0) {
+                    bookingsByStart.remove(start);
+                }
+                addCancelled(bid, rid, lid, start, end);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void setLoaded(boolean loaded) {
+        this.loaded = loaded;
+    }
+
+    /* True once the aggregates have been filled from the database, so reports can rely on them. */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /* Number of bookings starting and ending between start and end, inclusive, by city, or by city and postal code,
+     * in order. */
+    public Map<String, Integer> bookingsByCity(long start, long end, boolean byPostalCode) {
+        lock.readLock().lock();
+        try {
+            int[] atPlace = new int[places.size()];
+            for (Bucket bucket : startingBetween(start, end)) {
+                for (int i = 0; i < bucket.size; i++) {
+                    if (bucket.otherDayOf(i) <= end) {
+                        atPlace[placeOf[bucket.lidOf(i)]]++;
+                    }
+                }
+            }
+            Map<String, Integer> result = new TreeMap<>();
+            for (int place = 0; place < atPlace.length; place++) {
+                if (atPlace[place] > 0) {
+                    Place p = places.get(place);
+                    result.merge(byPostalCode ? p.city + '\0' + p.postalCode : p.city, atPlace[place], Integer::sum);
+                }
+            }
+            return labels(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Number of active listings by country, by country and city, or by country, city and postal code, in order. */
+    public Map<String, Integer> listingsByPlace(boolean byCity, boolean byPostalCode) {
+        lock.readLock().lock();
+        try {
+            Map<String, Integer> result = new TreeMap<>();
+            for (Map.Entry<Integer, Integer> entry : activeAtPlace.entrySet()) {
+                result.merge(places.get(entry.getKey()).key(byCity, byCity && byPostalCode), entry.getValue(),
+                        Integer::sum);
+            }
+            return labels(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Number of active listings of each host by country, or by country and city, ordered by place and then by
+     * number of listings, most first. Only the first limit hosts of each place are kept, or all if limit is 0. */
+    public List<Row> listingsPerHost(boolean byCity, int limit) {
+        lock.readLock().lock();
+        try {
+            Map<String, Map<Integer, Integer>> counts = new HashMap<>();
+            for (Map.Entry<Integer, Map<Integer, Integer>> place : activeAtPlaceByHost.entrySet()) {
+                Map<Integer, Integer> hosts = counts.computeIfAbsent(places.get(place.getKey()).key(byCity, false),
+                        k -> new HashMap<>());
+                place.getValue().forEach((uid, n) -> hosts.merge(uid, n, Integer::sum));
+            }
+            List<Row> rows = new ArrayList<>();
+            counts.forEach((key, hosts) -> addTop(rows, key, hosts, limit));
+            rows.sort(Comparator.comparing((Row row) -> row.place).thenComparing(Row::getCount, Comparator.reverseOrder())
+                    .thenComparing(Row::getUid));
+            return labelRows(rows);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Hosts owning at least the given share of the active listings of a city, with their number of listings there,
+     * ordered by city and then country. Places are labelled "city, country". */
+    public List<Row> dominantHosts(double share) {
+        lock.readLock().lock();
+        try {
+            Map<String, Integer> totals = new HashMap<>();
+            Map<String, Map<Integer, Integer>> counts = new HashMap<>();
+            for (Map.Entry<Integer, Map<Integer, Integer>> place : activeAtPlaceByHost.entrySet()) {
+                Place p = places.get(place.getKey());
+                String key = p.city + '\0' + p.country;
+                Map<Integer, Integer> hosts = counts.computeIfAbsent(key, k -> new HashMap<>());
+                for (Map.Entry<Integer, Integer> host : place.getValue().entrySet()) {
+                    hosts.merge(host.getKey(), host.getValue(), Integer::sum);
+                    totals.merge(key, host.getValue(), Integer::sum);
+                }
+            }
+            List<Row> rows = new ArrayList<>();
+            counts.forEach((key, hosts) -> hosts.forEach((uid, n) -> {
+                if (n >= share * totals.get(key)) {
+                    rows.add(new Row(key, uid, n));
+                }
+            }));
+            rows.sort(Comparator.comparing((Row row) -> row.place).thenComparing(Row::getUid));
+            return labelRows(rows);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Number of bookings starting and ending between start and end, inclusive, of each renter, most first and ties
+     * by UID. By city, only renters with at least two bookings in a city are kept, labelled "city, country", and
+     * ties are ordered by country and then city, both descending, before UID. Only the first limit renters overall,
+     * or of each city, are kept, or all if limit is 0. */
+    public List<Row> bookingsPerRenter(long start, long end, boolean byCity, int limit) {
+        lock.readLock().lock();
+        try {
+            // the renter's count at each place, rolled up to cities afterwards
+            Map<Long, int[]> counts = new HashMap<>();
+            for (Bucket bucket : startingBetween(start, end)) {
+                for (int i = 0; i < bucket.size; i++) {
+                    if (bucket.otherDayOf(i) <= end) {
+                        long key = byCity ? (long) placeOf[bucket.lidOf(i)] << 32 | bucket.ridOf(i) : bucket.ridOf(i);
+                        counts.computeIfAbsent(key, k -> new int[1])[0]++;
+                    }
+                }
+            }
+
+            List<Row> rows = new ArrayList<>();
+            if (byCity) {
+                Map<String, Map<Integer, Integer>> byRenter = new HashMap<>();
+                for (Map.Entry<Long, int[]> entry : counts.entrySet()) {
+                    Place p = places.get((int) (entry.getKey() >>> 32));
+                    byRenter.computeIfAbsent(p.country + '\0' + p.city, k -> new HashMap<>())
+                            .merge((int) (long) entry.getKey(), entry.getValue()[0], Integer::sum);
+                }
+                byRenter.forEach((key, renters) -> {
+                    renters.values().removeIf(n -> n < 2);
+                    addTop(rows, key, renters, limit);
+                });
+                sortRenterRanksByCity(rows);
+            } else {
+                Map<Integer, Integer> renters = new HashMap<>();
+                counts.forEach((uid, n) -> renters.put((int) (long) uid, n[0]));
+                addTop(rows, null, renters, limit);
+                rows.sort(Comparator.comparing(Row::getCount, Comparator.reverseOrder()).thenComparing(Row::getUid));
+            }
+            return rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Adds the number of cancelled bookings starting or ending between start and end, inclusive, of each host to
+     * byHost and of each renter to byRenter, in one pass over the bookings starting in the range and those ending in
+     * it that started before it. */
+    public void cancellations(long start, long end, Map<Integer, Integer> byHost, Map<Integer, Integer> byRenter) {
+        lock.readLock().lock();
+        try {
+            if (start > end) {
+                return;
+            }
+            for (Bucket bucket : cancelledByStart.subMap(start, true, end, true).values()) {
+                for (int i = 0; i < bucket.size; i++) {
+                    byHost.merge(hostOf[bucket.lidOf(i)], 1, Integer::sum);
+                    byRenter.merge(bucket.ridOf(i), 1, Integer::sum);
+                }
+            }
+            for (Bucket bucket : cancelledByEnd.subMap(start, true, end, true).values()) {
+                for (int i = 0; i < bucket.size; i++) {
+                    if (bucket.otherDayOf(i) < start) {
+                        byHost.merge(hostOf[bucket.lidOf(i)], 1, Integer::sum);
+                        byRenter.merge(bucket.ridOf(i), 1, Integer::sum);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Orders renter ranks by city as the report shows them: most bookings first, ties by country and then city,
+     * both descending, and then by UID. Places come in as country and city separated by \0 and are relabelled
+     * "city, country". */
+    static void sortRenterRanksByCity(List<Row> rows) {
+        rows.sort(Comparator.comparing(Row::getCount, Comparator.reverseOrder())
+                .thenComparing((Row row) -> row.place, Comparator.reverseOrder()).thenComparing(Row::getUid));
+        for (Row row : rows) {
+            String[] parts = row.place.split("\0", -1);
+            row.place = parts[1] + ", " + parts[0];
+        }
+    }
+
+    /* Adds a row for each of the limit users with the highest counts, or for every user if limit is 0. */
+    private static void addTop(List<Row> rows, String place, Map<Integer, Integer> counts, int limit) {
+        if (limit <= 0 || limit >= counts.size()) {
+            counts.forEach((uid, n) -> rows.add(new Row(place, uid, n)));
+            return;
+        }
+        for (Map.Entry<Integer, Integer> entry : TopK.top(counts, limit)) {
+            rows.add(new Row(place, entry.getKey(), entry.getValue()));
+        }
+    }
+
+    private Collection<Bucket> startingBetween(long start, long end) {
+        return start > end ? List.of() : bookingsByStart.subMap(start, true, end, true).values();
+    }
+
+    private void ensure(int lid) {
+        if (lid >= placeOf.length) {
+            int length = Math.max(lid + 1, placeOf.length * 2);
+            int from = placeOf.length;
+            placeOf = Arrays.copyOf(placeOf, length);
+            hostOf = Arrays.copyOf(hostOf, length);
+            Arrays.fill(placeOf, from, length, -1);
+        }
+    }
+
+    private void countActive(int lid, int delta) {
+        int place = placeOf[lid];
+        activeAtPlace.merge(place, delta, Integer::sum);
+        activeAtPlace.remove(place, 0);
+        Map<Integer, Integer> hosts = activeAtPlaceByHost.computeIfAbsent(place, k -> new HashMap<>());
+        hosts.merge(hostOf[lid], delta, Integer::sum);
+        hosts.remove(hostOf[lid], 0);
+        if (hosts.isEmpty()) {
+            activeAtPlaceByHost.remove(place);
+        }
+    }
+
+    private void addCancelled(int bid, int rid, int lid, long start, long end) {
+        cancelledByStart.computeIfAbsent(start, k -> new Bucket()).add(bid, end, lid, rid);
+        cancelledByEnd.computeIfAbsent(end, k -> new Bucket()).add(bid, start, lid, rid);
+    }
+
+    /* Turns the \0 separated keys of an ordered map into ", " separated labels, keeping the order. */
+    private static Map<String, Integer> labels(Map<String, Integer> counts) {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        counts.forEach((key, n) -> result.put(key.replace("\0", ", "), n));
+        return result;
+    }
+
+    private static List<Row> labelRows(List<Row> rows) {
+        for (Row row : rows) {
+            row.place = row.place.replace("\0", ", ");
+        }
+        return rows;
+    }
+
+    /* A count for one user, at a place for reports grouped by place. */
+    public static class Row {
+        private String place;
+        private final int uid;
+        private final int count;
+
+        public Row(String place, int uid, int count) {
+            this.place = place;
+            this.uid = uid;
+            this.count = count;
+        }
+
+        public String getPlace() {
+            return place;
+        }
+
+        public int getUid() {
+            return uid;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    private static class Place {
+        private final String country;
+        private final String city;
+        private final String postalCode;
+
+        private Place(String country, String city, String postalCode) {
+            this.country = country;
+            this.city = city;
+            this.postalCode = postalCode;
+        }
+
+        /* Key of the place rolled up to the country, or the city; parts are separated by \0 so keys sort like the
+         * tuple of their parts. */
+        private String key(boolean withCity, boolean withPostalCode) {
+            if (!withCity) {
+                return country;
+            }
+            return withPostalCode ? country + '\0' + city + '\0' + postalCode : country + '\0' + city;
+        }
+    }
+
+    /* Growable columns of the bookings starting, or ending, on one day: BID, the other day of the booking, LID and
+     * RID, four ints per booking. */
+    private static class Bucket {
+        private int[] data = new int[16];
+        private int size = 0;
+
+        private void add(int bid, long otherDay, int lid, int rid) {
+            if ((size + 1) * 4 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            int i = size * 4;
+            data[i] = bid;
+            data[i + 1] = (int) otherDay;
+            data[i + 2] = lid;
+            data[i + 3] = rid;
+            size++;
+        }
+
+        /* Removes the booking by moving the last one into its slot. Returns false if it is not here. */
+        private boolean remove(int bid) {
+            for (int i = 0; i < size; i++) {
+                if (data[i * 4] == bid) {
+                    size--;
+                    System.arraycopy(data, size * 4, data, i * 4, 4);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private long otherDayOf(int i) {
+            return data[i * 4 + 1];
+        }
+
+        private int lidOf(int i) {
+            return data[i * 4 + 2];
+        }
+
+        private int ridOf(int i) {
+            return data[i * 4 + 3];
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package project;
+
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Races many renters booking overlapping ranges of a few listings through DAO.reserveBooking, then checks that no
+ * day was sold twice: for every listing, the days of its upcoming bookings must not overlap and must add up to both
+ * its booked calendar days and the days of the bookings reserveBooking returned. Reports reservations per second
+ * and the transactions retried after a deadlock or lock timeout. Users and listings are created with names unique
+ * to the run, so it should be pointed at a scratch database. */
+public class ReservationStress {
+
+    // how many days ahead each listing is open, and the longest stay asked for
+    private static final int DAYS_OPEN = 60;
+    private static final int MAX_NIGHTS = 5;
+
+    private final DAO dao;
+    private final int renters;
+    private final int listingCount;
+    private final int attemptsPerRenter;
+    private final int threads;
+    private final String tag = Long.toString(System.currentTimeMillis(), 36);
+    private final List<Integer> listings = new ArrayList<>();
+    private final List<Integer> renterIds = new ArrayList<>();
+    private final Map<Integer, AtomicInteger> reservedDays = new ConcurrentHashMap<>();
+    private final AtomicInteger booked = new AtomicInteger();
+    private final AtomicInteger refused = new AtomicInteger();
+    private final Queue<Exception> errors = new ConcurrentLinkedQueue<>();
+    private int hid;
+
+    public ReservationStress(DAO dao, int renters, int listings, int attemptsPerRenter, int threads) {
+        this.dao = dao;
+        this.renters = renters;
+        this.listingCount = listings;
+        this.attemptsPerRenter = attemptsPerRenter;
+        this.threads = threads;
+    }
+
+    /* Usage: ReservationStress [renters] [listings] [attempts per renter] [threads] */
+    public static void main(String[] args) {
+        int renters = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int listings = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int attempts = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 2 * ConnectionPool.DEFAULT_MAX_SIZE;
+        boolean consistent = false;
+        try {
+            DAO dao = new DAO(Driver.dbName, Driver.user, Driver.password);
+            consistent = new ReservationStress(dao, renters, listings, attempts, threads).run(System.out);
+            dao.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        System.exit(consistent ? 0 : 1);
+    }
+
+    /* Creates the host, listings and renters, races the reservations and checks the result. Returns whether every
+     * listing's bookings and calendar agree. */
+    public boolean run(PrintStream out) throws SQLException, InterruptedException {
+        setUp();
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "stress-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        CountDownLatch startGate = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int rid : renterIds) {
+            futures.add(workers.submit(() -> {
+                startGate.await();
+                reserve(rid);
+                return null;
+            }));
+        }
+        long retriesBefore = dao.getBookingRetries();
+        long start = System.nanoTime();
+        startGate.countDown();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                errors.add(e);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        workers.shutdownNow();
+
+        int attempts = renterIds.size() * attemptsPerRenter;
+        out.printf("%d reservations over %d listings by %d renters on %d threads in %.2f s%n", attempts,
+                listings.size(), renterIds.size(), threads, seconds);
+        out.printf("%.1f reservations/s, %d booked, %d refused, %d failed, %d retries%n", attempts / seconds,
+                booked.get(), refused.get(), errors.size(), dao.getBookingRetries() - retriesBefore);
+        if (!errors.isEmpty()) {
+            out.println("First error: " + errors.peek());
+        }
+        return check(out);
+    }
+
+    private void setUp() throws SQLException {
+        int aid = dao.createAddress("1 stress host st " + tag, "toronto", "canada", "s" + tag);
+        hid = dao.createUser("s" + tag, "Stress Host", "1980-01-01", "host", "stress-" + tag + "-h@mybnb.test",
+                "password", aid);
+        dao.createHost(hid);
+        for (int i = 0; i < listingCount; i++) {
+            int listingAid = dao.createAddress(i + " stress listing rd " + tag, "toronto", "canada", "l" + i);
+            int lid = dao.createListing(hid, "house", 43.65, -79.38, listingAid);
+            dao.createAvailabilitiesInRange(lid, day(1), day(DAYS_OPEN), 100);
+            listings.add(lid);
+            reservedDays.put(lid, new AtomicInteger());
+        }
+        for (int i = 0; i < renters; i++) {
+            int uid = dao.createUser("r" + tag + i, "Stress Renter " + i, "1990-01-01", "renter",
+                    "stress-" + tag + "-r" + i + "@mybnb.test", "password", aid);
+            dao.createRenter(uid, "4111111111111111");
+            renterIds.add(uid);
+        }
+    }
+
+    private void reserve(int rid) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < attemptsPerRenter; i++) {
+            int lid = listings.get(random.nextInt(listings.size()));
+            int first = 1 + random.nextInt(DAYS_OPEN - MAX_NIGHTS);
+            int nights = 1 + random.nextInt(MAX_NIGHTS);
+            try {
+                Booking booking = dao.reserveBooking(rid, lid, day(first), day(first + nights - 1));
+                if (booking == null) {
+                    refused.incrementAndGet();
+                } else {
+                    booked.incrementAndGet();
+                    reservedDays.get(lid).addAndGet(nights);
+                }
+            } catch (SQLException e) {
+                errors.add(e);
+            }
+        }
+    }
+
+    /* Compares, per listing, the days reserveBooking handed out with the upcoming bookings and booked calendar
+     * days in the database, and looks for overlapping bookings. */
+    private boolean check(PrintStream out) throws SQLException {
+        Map<Integer, List<Booking>> byListing = new HashMap<>();
+        for (Booking booking : dao.getHostsBookings("UPCOMING", hid)) {
+            byListing.computeIfAbsent(booking.getLid(), k -> new ArrayList<>()).add(booking);
+        }
+        boolean consistent = true;
+        for (int lid : listings) {
+            List<Booking> bookings = byListing.getOrDefault(lid, new ArrayList<>());
+            bookings.sort(Comparator.comparing(Booking::getStartDate));
+            long bookingDays = 0;
+            String lastEnd = null;
+            for (Booking booking : bookings) {
+                if (lastEnd != null && booking.getStartDate().compareTo(lastEnd) <= 0) {
+                    out.println("Listing " + lid + ": booking " + booking.getBid() + " overlaps an earlier one");
+                    consistent = false;
+                }
+                lastEnd = booking.getEndDate();
+                bookingDays += LocalDate.parse(booking.getEndDate()).toEpochDay()
+                        - LocalDate.parse(booking.getStartDate()).toEpochDay() + 1;
+            }
+            long calendarDays = 0;
+            for (Calendar day : dao.getAvailabilitiesInRange(lid, day(1), day(DAYS_OPEN))) {
+                if (day.getStatus().equals("BOOKED")) {
+                    calendarDays++;
+                }
+            }
+            int reserved = reservedDays.get(lid).get();
+            if (bookingDays != calendarDays || bookingDays != reserved) {
+                out.printf("Listing %d: %d days reserved, %d in bookings, %d booked in the calendar%n", lid,
+                        reserved, bookingDays, calendarDays);
+                consistent = false;
+            }
+        }
+        out.println(consistent ? "No day was booked twice" : "FAILED: bookings and calendars disagree");
+        return consistent;
+    }
+
+    private static String day(int daysAhead) {
+        return LocalDate.now().plusDays(daysAhead).toString();
+    }
+}
@@ -0,0 +1,43 @@
+package project;
+
+/* One logged in user of MyBnBService. It holds everything a request needs to know about who is asking, so the
+ * service itself keeps no per-user state and any thread can serve any session. */
+public class Session {
+    private final String id;
+    private final User user;
+    private volatile long lastUsed;
+
+    public Session(String id, User user) {
+        this.id = id;
+        this.user = user;
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public int getUid() {
+        return user.getUid();
+    }
+
+    public boolean isRenter() {
+        return user instanceof Renter;
+    }
+
+    public boolean isHost() {
+        return user instanceof Host;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+}
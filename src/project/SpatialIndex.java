@@ -0,0 +1,245 @@
+package project;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/* In-memory grid index over listing coordinates for radius and nearest-neighbour searches. Distances are great
+ * circle distances in meters on the same sphere MySQL's ST_Distance_Sphere uses. */
+public class SpatialIndex {
+
+    public static final double EARTH_RADIUS = 6370986; // meters, ST_Distance_Sphere's default
+    private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS / 180;
+    private static final double CELL_DEGREES = 0.05; // roughly 5.5km of latitude
+    private static final int COLUMNS = (int) Math.round(360 / CELL_DEGREES);
+    private static final int ROWS = (int) Math.round(180 / CELL_DEGREES);
+
+    private final Map<Long, Cell> cells = new HashMap<>();
+    private final Map<Integer, Long> cellOfListing = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded = false;
+
+    public void add(int lid, double latitude, double longitude) {
+        lock.writeLock().lock();
+        try {
+            removeUnlocked(lid);
+            long key = key(row(latitude), column(longitude));
+            cells.computeIfAbsent(key, k -> new Cell()).add(lid, latitude, longitude);
+            cellOfListing.put(lid, key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int lid) {
+        lock.writeLock().lock();
+        try {
+            removeUnlocked(lid);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeUnlocked(int lid) {
+        Long key = cellOfListing.remove(lid);
+        if (key != null) {
+            Cell cell = cells.get(key);
+            cell.remove(lid);
+            if (cell.size == 0) {
+                cells.remove(key);
+            }
+        }
+    }
+
+    public void setLoaded(boolean loaded) {
+        this.loaded = loaded;
+    }
+
+    /* True once the index has been filled from the database, so searches can rely on it. */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return cellOfListing.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Returns listing ids within radius meters of the point, mapped to their distance and ordered closest first. */
+    public LinkedHashMap<Integer, Double> withinRadius(double latitude, double longitude, double radius) {
+        List<double[]> found = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            double dLat = radius / METERS_PER_DEGREE;
+            int minRow = row(Math.max(-90, latitude - dLat));
+            int maxRow = row(Math.min(90, latitude + dLat));
+
+            // widest longitude span of the box happens at the row furthest from the equator
+            double maxAbsLat = Math.min(90, Math.abs(latitude) + dLat);
+            double cos = Math.cos(Math.toRadians(maxAbsLat));
+            boolean allColumns = cos < 1e-9 || radius / (METERS_PER_DEGREE * cos) >= 180;
+            int minColumn = 0;
+            int columnSpan = COLUMNS;
+            if (!allColumns) {
+                double dLon = radius / (METERS_PER_DEGREE * cos);
+                minColumn = column(longitude - dLon);
+                columnSpan = Math.floorMod(column(longitude + dLon) - minColumn, COLUMNS) + 1;
+            }
+
+            for (int r = minRow; r <= maxRow; r++) {
+                for (int c = 0; c < columnSpan; c++) {
+                    Cell cell = cells.get(key(r, Math.floorMod(minColumn + c, COLUMNS)));
+                    if (cell != null) {
+                        cell.collect(latitude, longitude, radius, found);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        found.sort(Comparator.comparingDouble(entry -> entry[1]));
+        LinkedHashMap<Integer, Double> result = new LinkedHashMap<>();
+        for (double[] entry : found) {
+            result.put((int) entry[0], entry[1]);
+        }
+        return result;
+    }
+
+    /* Returns the k listing ids closest to the point, mapped to their distance and ordered closest first. */
+    public LinkedHashMap<Integer, Double> nearest(double latitude, double longitude, int k) {
+        // max-heap on distance holding the best k seen so far
+        PriorityQueue<double[]> best = new PriorityQueue<>((a, b) -> Double.compare(b[1], a[1]));
+        lock.readLock().lock();
+        try {
+            int total = cellOfListing.size();
+            int centerRow = row(latitude);
+            int centerColumn = column(longitude);
+            int seen = 0;
+            long lookups = 0;
+            for (int ring = 0; k > 0 && seen < total; ring++) {
+                if (2 * ring + 1 >= COLUMNS || lookups > cells.size()) {
+                    // the ring would wrap around the globe, or probing empty cells now costs more than a full scan
+                    // (e.g. near the poles where columns get very narrow), so just look at everything once
+                    best.clear();
+                    for (Cell cell : cells.values()) {
+                        cell.offer(latitude, longitude, k, best);
+                    }
+                    break;
+                }
+                for (int r = centerRow - ring; r <= centerRow + ring; r++) {
+                    if (r < 0 || r >= ROWS) {
+                        continue;
+                    }
+                    boolean edgeRow = r == centerRow - ring || r == centerRow + ring;
+                    int step = edgeRow || ring == 0 ? 1 : 2 * ring;
+                    for (int c = centerColumn - ring; c <= centerColumn + ring; c += step) {
+                        Cell cell = cells.get(key(r, Math.floorMod(c, COLUMNS)));
+                        lookups++;
+                        if (cell != null) {
+                            seen += cell.offer(latitude, longitude, k, best);
+                        }
+                    }
+                }
+                // anything outside this ring is at least this far away
+                double maxAbsLat = Math.min(89.9, Math.abs(latitude) + (ring + 1) * CELL_DEGREES);
+                double bound = ring * CELL_DEGREES * METERS_PER_DEGREE * Math.cos(Math.toRadians(maxAbsLat));
+                if (best.size() == k && best.peek()[1] <= bound) {
+                    break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        double[][] sorted = best.toArray(new double[0][]);
+        Arrays.sort(sorted, Comparator.comparingDouble(entry -> entry[1]));
+        LinkedHashMap<Integer, Double> result = new LinkedHashMap<>();
+        for (double[] entry : sorted) {
+            result.put((int) entry[0], entry[1]);
+        }
+        return result;
+    }
+
+    /* Great circle distance in meters between two points given in degrees. */
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dPhi = phi2 - phi1;
+        double dLambda = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dPhi / 2) * Math.sin(dPhi / 2) +
+                Math.cos(phi1) * Math.cos(phi2) * Math.sin(dLambda / 2) * Math.sin(dLambda / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static int row(double latitude) {
+        return Math.min(ROWS - 1, Math.max(0, (int) Math.floor((latitude + 90) / CELL_DEGREES)));
+    }
+
+    private static int column(double longitude) {
+        return Math.floorMod((int) Math.floor((longitude + 180) / CELL_DEGREES), COLUMNS);
+    }
+
+    private static long key(int row, int column) {
+        return (long) row * COLUMNS + column;
+    }
+
+    /* Listings in one grid cell, kept in parallel primitive arrays. */
+    private static class Cell {
+        private int[] lids = new int[4];
+        private double[] latitudes = new double[4];
+        private double[] longitudes = new double[4];
+        private int size = 0;
+
+        private void add(int lid, double latitude, double longitude) {
+            if (size == lids.length) {
+                lids = Arrays.copyOf(lids, size * 2);
+                latitudes = Arrays.copyOf(latitudes, size * 2);
+                longitudes = Arrays.copyOf(longitudes, size * 2);
+            }
+            lids[size] = lid;
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            size++;
+        }
+
+        private void remove(int lid) {
+            for (int i = 0; i < size; i++) {
+                if (lids[i] == lid) {
+                    size--;
+                    lids[i] = lids[size];
+                    latitudes[i] = latitudes[size];
+                    longitudes[i] = longitudes[size];
+                    return;
+                }
+            }
+        }
+
+        private void collect(double latitude, double longitude, double radius, List<double[]> found) {
+            for (int i = 0; i < size; i++) {
+                double d = distance(latitude, longitude, latitudes[i], longitudes[i]);
+                if (d <= radius) {
+                    found.add(new double[]{lids[i], d});
+                }
+            }
+        }
+
+        /* Offers every listing in the cell to the k-best heap and returns how many were looked at. */
+        private int offer(double latitude, double longitude, int k, PriorityQueue<double[]> best) {
+            for (int i = 0; i < size; i++) {
+                double d = distance(latitude, longitude, latitudes[i], longitudes[i]);
+                if (best.size() < k) {
+                    best.add(new double[]{lids[i], d});
+                } else if (d < best.peek()[1]) {
+                    best.poll();
+                    best.add(new double[]{lids[i], d});
+                }
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package project;
+
+import java.time.LocalDate;
+
+/* The earliest and the cheapest run of a given number of consecutive available nights a listing has inside a window
+ * of dates. Built by a Finder fed the listing's available days in order. */
+public class Stay {
+    private final int nights;
+    private final long earliestStart;
+    private final double earliestCost;
+    private final long cheapestStart;
+    private final double cheapestCost;
+
+    public Stay(int nights, long earliestStart, double earliestCost, long cheapestStart, double cheapestCost) {
+        this.nights = nights;
+        this.earliestStart = earliestStart;
+        this.earliestCost = earliestCost;
+        this.cheapestStart = cheapestStart;
+        this.cheapestCost = cheapestCost;
+    }
+
+    public String getEarliestStartDate() {
+        return LocalDate.ofEpochDay(earliestStart).toString();
+    }
+
+    public String getEarliestEndDate() {
+        return LocalDate.ofEpochDay(earliestStart + nights - 1).toString();
+    }
+
+    public double getEarliestCost() {
+        return earliestCost;
+    }
+
+    public String getCheapestStartDate() {
+        return LocalDate.ofEpochDay(cheapestStart).toString();
+    }
+
+    public String getCheapestEndDate() {
+        return LocalDate.ofEpochDay(cheapestStart + nights - 1).toString();
+    }
+
+    public double getCheapestCost() {
+        return cheapestCost;
+    }
+
+    @Override
+    public String toString() {
+        return "Earliest: " + getEarliestStartDate() + " to " + getEarliestEndDate() + " for " + earliestCost +
+                " Cheapest: " + getCheapestStartDate() + " to " + getCheapestEndDate() + " for " + cheapestCost;
+    }
+
+    /* Slides a window of the given number of nights over available days fed in increasing order, in a single pass.
+     * A gap between two days fed restarts the run. */
+    public static class Finder {
+        private final int nights;
+        private final double[] window;
+        private long lastDay = Long.MIN_VALUE;
+        private int run = 0;
+        private double sum = 0;
+
+        private boolean found = false;
+        private long earliestStart;
+        private double earliestCost;
+        private long cheapestStart;
+        private double cheapestCost;
+
+        public Finder(int nights) {
+            if (nights <= 0) {
+                throw new IllegalArgumentException();
+            }
+            this.nights = nights;
+            this.window = new double[nights];
+        }
+
+        /* Feeds the next available day, as an epoch day, and its nightly price. */
+        public void add(long day, double price) {
+            if (day != lastDay + 1) {
+                run = 0;
+                sum = 0;
+            }
+            lastDay = day;
+            int slot = (int) Math.floorMod(day, (long) nights);
+            if (run >= nights) {
+                sum -= window[slot]; // the night that just left the window
+            }
+            window[slot] = price;
+            sum += price;
+            run++;
+
+            if (run >= nights) {
+                long start = day - nights + 1;
+                if (!found) {
+                    found = true;
+                    earliestStart = start;
+                    earliestCost = sum;
+                    cheapestStart = start;
+                    cheapestCost = sum;
+                } else if (sum < cheapestCost) {
+                    cheapestStart = start;
+                    cheapestCost = sum;
+                }
+            }
+        }
+
+        /* Returns the stays found so far, or null if no run was long enough. */
+        public Stay getStay() {
+            return found ? new Stay(nights, earliestStart, earliestCost, cheapestStart, cheapestCost) : null;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package project;
+
+import java.util.*;
+
+/* Picks the k highest counts out of a map of counts without sorting all of it, for the reports and the noun phrase
+ * summaries. Equal counts are ordered by key, smallest first, so the entries kept and their order never depend on
+ * the map's iteration order. */
+public class TopK {
+
+    /* Returns the k entries with the highest counts, highest first and ties by key. Only k entries are held at a
+     * time, in a min-heap whose root is the entry that would be dropped first. */
+    public static <K extends Comparable<? super K>> List<Map.Entry<K, Integer>> top(Map<K, Integer> counts, int k) {
+        List<Map.Entry<K, Integer>> list = new ArrayList<>();
+        if (k <= 0) {
+            return list;
+        }
+        Comparator<Map.Entry<K, Integer>> order = Map.Entry.<K, Integer>comparingByValue(Comparator.reverseOrder())
+                .thenComparing(Map.Entry.comparingByKey());
+        PriorityQueue<Map.Entry<K, Integer>> heap = new PriorityQueue<>(k, order.reversed());
+        for (Map.Entry<K, Integer> entry : counts.entrySet()) {
+            if (heap.size() < k) {
+                heap.add(entry);
+            } else if (order.compare(entry, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+        list.addAll(heap);
+        list.sort(order);
+        return list;
+    }
+}